@@ -0,0 +1,51 @@
+package ecoride;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Booking path: validation, candidate lookup and calendar claim, for each
+ * car assignment mode.
+ * Each booking is cancelled again so the fleet does not fill up over the run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class BookingBenchmark {
+    private static final Customer CUSTOMER = new Customer("B0", "Bench Customer", "0700000000", "bench@example.com");
+
+    @State(Scope.Benchmark)
+    public static class Selection {
+        @Param({"BEST_FIT", "FIRST_FIT"})
+        public CarInventory.Assignment assignment;
+
+        @Setup(Level.Trial)
+        public void apply(FleetState s) {
+            s.inventory.setAssignment(assignment);
+        }
+    }
+
+    @Benchmark
+    public void createAndCancel(FleetState s, Selection selection, Blackhole bh) {
+        LocalDate start = s.randomDate();
+        int days = 1 + ThreadLocalRandom.current().nextInt(FleetState.GAP_DAYS);
+        try {
+            String id = s.manager.createReservation(CUSTOMER, s.randomCategory(), start, days, 200);
+            bh.consume(s.manager.cancelReservation(id));
+        } catch (IllegalArgumentException noCar) {
+            bh.consume(noCar);
+        }
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void createAndCancelContended(FleetState s, Selection selection, Blackhole bh) {
+        createAndCancel(s, selection, bh);
+    }
+}
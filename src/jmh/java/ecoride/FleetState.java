@@ -0,0 +1,89 @@
+package ecoride;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A fleet with a booking history, shared by all benchmarks.
+ * Reservations are laid out back to back on each car's calendar through
+ * ReservationManager.restore, so setup is linear even for millions of them.
+ */
+@State(Scope.Benchmark)
+public class FleetState {
+    static final int DAYS_PER_BOOKING = 3;
+    static final int GAP_DAYS = 3;
+    static final int CUSTOMERS_PER_RESERVATION = 5;
+
+    @Param({"100", "10000", "1000000"})
+    public int fleetSize;
+
+    @Param({"1000", "100000", "10000000"})
+    public int reservationCount;
+
+    CarInventory inventory;
+    PricingPolicy pricing;
+    ReservationManager manager;
+    String[] customerNames;
+    String[] reservationIds;
+    LocalDate firstStart;
+    int horizonDays;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        inventory = new CarInventory();
+        pricing = new PricingPolicy();
+        manager = new ReservationManager(inventory, pricing);
+
+        Category[] categories = Category.values();
+        Car[] cars = new Car[fleetSize];
+        for (int i = 0; i < fleetSize; i++) {
+            cars[i] = new Car(String.format("C%07d", i), "Model " + (i % 50), categories[i % categories.length]);
+            inventory.addCar(cars[i]);
+        }
+
+        int customers = Math.max(1, reservationCount / CUSTOMERS_PER_RESERVATION);
+        customerNames = new String[customers];
+        Customer[] customerPool = new Customer[customers];
+        for (int i = 0; i < customers; i++) {
+            customerNames[i] = "Customer " + i;
+            customerPool[i] = new Customer("N" + i, customerNames[i], "07" + i, "c" + i + "@example.com");
+        }
+
+        firstStart = LocalDate.now().plusDays(10);
+        LocalDate booked = LocalDate.now();
+        int slot = DAYS_PER_BOOKING + GAP_DAYS;
+        reservationIds = new String[reservationCount];
+        for (int i = 0; i < reservationCount; i++) {
+            Car car = cars[i % fleetSize];
+            LocalDate start = firstStart.plusDays((long) (i / fleetSize) * slot);
+            String id = String.format("R%08d", i + 1);
+            manager.restore(id, customerPool[i % customers], car, booked, start,
+                    DAYS_PER_BOOKING, 150 + (i % 400), ReservationStatus.ACTIVE);
+            reservationIds[i] = id;
+        }
+        horizonDays = (reservationCount / fleetSize + 1) * slot;
+    }
+
+    String randomCustomerName() {
+        return customerNames[ThreadLocalRandom.current().nextInt(customerNames.length)];
+    }
+
+    String randomReservationId() {
+        return reservationIds[ThreadLocalRandom.current().nextInt(reservationIds.length)];
+    }
+
+    LocalDate randomDate() {
+        return firstStart.plusDays(ThreadLocalRandom.current().nextInt(horizonDays));
+    }
+
+    Category randomCategory() {
+        Category[] all = Category.values();
+        return all[ThreadLocalRandom.current().nextInt(all.length)];
+    }
+}
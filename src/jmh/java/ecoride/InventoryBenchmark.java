@@ -0,0 +1,47 @@
+package ecoride;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CarInventory listings and availability lookups.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class InventoryBenchmark {
+
+    @Benchmark
+    public List<Car> listAllCars(FleetState s) {
+        return s.inventory.listAllCars();
+    }
+
+    @Benchmark
+    public List<Car> listAvailableCars(FleetState s) {
+        return s.inventory.listAvailableCars();
+    }
+
+    @Benchmark
+    public List<Car> listAvailableByCategory(FleetState s) {
+        return s.inventory.listAvailableByCategory(s.randomCategory());
+    }
+
+    @Benchmark
+    public Car firstAvailable(FleetState s) {
+        return s.inventory.firstAvailable(s.randomCategory());
+    }
+
+    @Benchmark
+    public int countAvailable(FleetState s) {
+        return s.inventory.countAvailable(s.randomCategory());
+    }
+
+    @Benchmark
+    public Car findFreeCar(FleetState s) {
+        return s.inventory.findFreeCar(s.randomCategory(), s.randomDate(), FleetState.GAP_DAYS);
+    }
+}
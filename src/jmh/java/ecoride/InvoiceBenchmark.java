@@ -0,0 +1,54 @@
+package ecoride;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quote and invoice rendering for a single reservation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class InvoiceBenchmark {
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        final PriceBreakdown price = new PriceBreakdown();
+    }
+
+    @Benchmark
+    public Map<String, Double> calculateInvoiceDetailsMap(FleetState s) {
+        return s.manager.calculateInvoiceDetails(s.manager.findById(s.randomReservationId()));
+    }
+
+    @Benchmark
+    public PriceBreakdown calculateInvoiceDetailsBuffer(FleetState s, Buffer b) {
+        return s.manager.calculateInvoiceDetails(s.manager.findById(s.randomReservationId()), b.price);
+    }
+
+    // typical booking-site previews: up to two weeks, a few hundred km
+    @Benchmark
+    public PriceBreakdown quotePreviewCached(FleetState s, Buffer b) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        return s.manager.quote(s.randomCategory(), 1 + rnd.nextInt(14), rnd.nextInt(1500), b.price);
+    }
+
+    @Benchmark
+    public PriceBreakdown quotePreviewUncached(FleetState s, Buffer b) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        return s.pricing.quote(s.randomCategory(), 1 + rnd.nextInt(14), rnd.nextInt(1500), b.price);
+    }
+
+    @Benchmark
+    public String formatForPrint(FleetState s, Buffer b) {
+        Reservation r = s.manager.findById(s.randomReservationId());
+        Invoice inv = s.manager.newInvoice(r);
+        inv.setAmounts(s.manager.calculateInvoiceDetails(r, b.price));
+        return inv.formatForPrint();
+    }
+}
@@ -0,0 +1,39 @@
+package ecoride;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Front-desk lookups over the booking history.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class SearchBenchmark {
+
+    @Benchmark
+    public List<Reservation> searchByCustomerName(FleetState s) {
+        return s.manager.searchByCustomerName(s.randomCustomerName());
+    }
+
+    @Benchmark
+    public List<Reservation> reservationsByDate(FleetState s) {
+        return s.manager.reservationsByDate(s.randomDate());
+    }
+
+    @Benchmark
+    public List<Reservation> reservationsBetweenOneWeek(FleetState s) {
+        LocalDate from = s.randomDate();
+        return s.manager.reservationsBetween(from, from.plusDays(6));
+    }
+
+    @Benchmark
+    public Reservation findById(FleetState s) {
+        return s.manager.findById(s.randomReservationId());
+    }
+}
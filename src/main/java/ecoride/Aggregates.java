@@ -0,0 +1,211 @@
+package ecoride;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Revenue and utilization figures kept up to date on every reservation
+ * change, so reports over any date range cost O(log days) instead of a
+ * pass over every reservation.
+ *
+ * Each reservation counts on its rental start day for bookings, revenue
+ * (base plus extra km less discount, before tax), tax and discount, and
+ * on each of its rental days for booked car-days. Cancelled reservations
+ * count nowhere. Prices are taken when a reservation is booked or its
+ * days or km change, at the rates it was booked under.
+ */
+public class Aggregates implements ChangeListener {
+    // epoch days up to 2059 before the trees first grow
+    private static final int INITIAL_DAYS = 1 << 15;
+
+    private final CarInventory inventory;
+    private final Totals[] totals = new Totals[Category.values().length];
+    // what each reservation currently contributes, so a change can take it back
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    public Aggregates(CarInventory inventory) {
+        this.inventory = inventory;
+        for (int i = 0; i < totals.length; i++) totals[i] = new Totals();
+    }
+
+    /** Figures for one category over the days from..to inclusive. */
+    public Summary summary(Category category, LocalDate from, LocalDate to) {
+        Summary s = new Summary(from, to);
+        addTo(s, category);
+        return s;
+    }
+
+    /** Figures for all categories together. */
+    public Summary summary(LocalDate from, LocalDate to) {
+        Summary s = new Summary(from, to);
+        for (Category c : Category.values()) addTo(s, c);
+        return s;
+    }
+
+    private void addTo(Summary s, Category category) {
+        totals[category.ordinal()].addTo(s, s.from.toEpochDay(), s.to.toEpochDay());
+        s.inService += inventory.count(category, AvailabilityStatus.AVAILABLE)
+                + inventory.count(category, AvailabilityStatus.RESERVED);
+        s.underMaintenance += inventory.count(category, AvailabilityStatus.UNDER_MAINTENANCE);
+    }
+
+    /** Rentals of the category under way right now. */
+    public int activeRentals(Category category) {
+        Totals t = totals[category.ordinal()];
+        synchronized (t) {
+            return t.inProgress;
+        }
+    }
+
+    public int underMaintenance(Category category) {
+        return inventory.count(category, AvailabilityStatus.UNDER_MAINTENANCE);
+    }
+
+    /**
+     * Brings the figures for r in line with its current state. Applying the
+     * same state twice changes nothing, so restore can call it per record.
+     */
+    void apply(Reservation r) {
+        Entry old = entries.get(r.getId());
+        Entry e = new Entry(r);
+        if (old != null && old.sameAs(e)) return;
+        if (old != null && old.samePrice(e)) {
+            e.revenue = old.revenue;
+            e.tax = old.tax;
+            e.discount = old.discount;
+        } else {
+            PriceBreakdown p = PricingPolicy.quote(e.pricing, e.category, e.days, e.km, new PriceBreakdown());
+            e.revenue = cents(p.getBase() + p.getExtraCharge() - p.getDiscount());
+            e.tax = cents(p.getTax());
+            e.discount = cents(p.getDiscount());
+        }
+        if (old != null) totals[old.category.ordinal()].add(old, -1);
+        totals[e.category.ordinal()].add(e, 1);
+        entries.put(r.getId(), e);
+    }
+
+    /**
+     * Stops tracking a reservation that can no longer change, keeping its
+     * contribution to the figures. Callers hold the reservation's lock, as
+     * the listener calls to apply() do, so no apply for it comes after.
+     */
+    void forget(long id) {
+        entries.remove(id);
+    }
+
+    private static long cents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    // ---- ChangeListener: reservation callbacks are serialized per reservation ----
+
+    @Override public void reservationCreated(Reservation r) { apply(r); }
+    @Override public void reservationUpdated(Reservation r, int oldDays, int oldExpectedKm) { apply(r); }
+    @Override public void reservationCancelled(Reservation r) { apply(r); }
+    @Override public void reservationStarted(Reservation r) { apply(r); }
+    @Override public void reservationCompleted(Reservation r) { apply(r); }
+
+    private static final class Entry {
+        final Category category;
+        final long startDay;
+        final int days;
+        final int km;
+        final ReservationStatus status;
+        final PricingTable pricing;
+        long revenue;
+        long tax;
+        long discount;
+
+        Entry(Reservation r) {
+            category = r.getCar().getCategory();
+            startDay = r.getRentalStartDate().toEpochDay();
+            days = r.getNumDays();
+            km = r.getExpectedTotalKm();
+            status = r.getStatus();
+            pricing = r.getPricing();
+        }
+
+        boolean samePrice(Entry o) {
+            return category == o.category && days == o.days && km == o.km && pricing == o.pricing;
+        }
+
+        boolean sameAs(Entry o) {
+            return samePrice(o) && startDay == o.startDay && status == o.status;
+        }
+    }
+
+    private static final class Totals {
+        final FenwickTree bookings = new FenwickTree(INITIAL_DAYS);
+        final FenwickTree revenue = new FenwickTree(INITIAL_DAYS);
+        final FenwickTree tax = new FenwickTree(INITIAL_DAYS);
+        final FenwickTree discount = new FenwickTree(INITIAL_DAYS);
+        final FenwickTree.Ranged carDays = new FenwickTree.Ranged(INITIAL_DAYS);
+        int inProgress;
+
+        synchronized void add(Entry e, int sign) {
+            if (e.status == ReservationStatus.CANCELLED) return;
+            bookings.add(e.startDay, sign);
+            revenue.add(e.startDay, sign * e.revenue);
+            tax.add(e.startDay, sign * e.tax);
+            discount.add(e.startDay, sign * e.discount);
+            carDays.add(e.startDay, e.startDay + e.days - 1, sign);
+            if (e.status == ReservationStatus.IN_PROGRESS) inProgress += sign;
+        }
+
+        synchronized void addTo(Summary s, long from, long to) {
+            s.bookings += bookings.sum(from, to);
+            s.revenue += revenue.sum(from, to);
+            s.tax += tax.sum(from, to);
+            s.discount += discount.sum(from, to);
+            s.carDays += carDays.sum(from, to);
+            s.activeRentals += inProgress;
+        }
+    }
+
+    /**
+     * Totals for a date range. Money is in LKR; car-days count the rental
+     * days falling inside the range. Active rentals and car counts are as
+     * of now.
+     */
+    public static final class Summary {
+        private final LocalDate from;
+        private final LocalDate to;
+        long bookings;
+        long revenue;
+        long tax;
+        long discount;
+        long carDays;
+        int activeRentals;
+        int inService;
+        int underMaintenance;
+
+        Summary(LocalDate from, LocalDate to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public LocalDate getFrom() { return from; }
+        public LocalDate getTo() { return to; }
+        public long getBookings() { return bookings; }
+        public double getRevenue() { return revenue / 100.0; }
+        public double getTax() { return tax / 100.0; }
+        public double getDiscount() { return discount / 100.0; }
+        public long getCarDays() { return carDays; }
+        public int getActiveRentals() { return activeRentals; }
+        public int getCarsInService() { return inService; }
+        public int getCarsUnderMaintenance() { return underMaintenance; }
+
+        /** Booked car-days over the car-days the cars now in service could offer. */
+        public double getUtilization() {
+            long days = to.toEpochDay() - from.toEpochDay() + 1;
+            return inService == 0 || days <= 0 ? 0.0 : (double) carDays / (inService * days);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s..%s: %d bookings, revenue %.2f, tax %.2f, discount %.2f, %d car-days (%.1f%%)",
+                    from, to, bookings, getRevenue(), getTax(), getDiscount(), carDays, getUtilization() * 100.0);
+        }
+    }
+}
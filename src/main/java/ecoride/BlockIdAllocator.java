@@ -0,0 +1,112 @@
+package ecoride;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free id allocator. Each platform thread leases a block of sequence
+ * numbers from a shared counter and hands them out without further
+ * coordination; virtual threads are too short-lived for a lease to pay off
+ * and take numbers from the counter directly. Ids from different threads
+ * therefore interleave, but never repeat.
+ *
+ * An id packs an optional node number (0-1023) above a 53-bit sequence, so
+ * several instances can allocate without talking to each other. Text form
+ * is the prefix, then "node-" when the node is not 0, then the sequence
+ * padded to three digits: R001, R12345, R7-001.
+ */
+public class BlockIdAllocator implements IdAllocator {
+    public static final int MAX_NODE = 1023;
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+    private static final int SEQUENCE_BITS = 53;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final String prefix;
+    private final int node;
+    private final long nodeBits;
+    private final int blockSize;
+    private final AtomicLong counter = new AtomicLong(1);
+    // leases starting below this may overlap restored ids and are dropped
+    private volatile long floor = 1;
+    private final ThreadLocal<long[]> lease = ThreadLocal.withInitial(() -> new long[2]); // {next, end}
+
+    public BlockIdAllocator(String prefix) {
+        this(prefix, 0, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockIdAllocator(String prefix, int node) {
+        this(prefix, node, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockIdAllocator(String prefix, int node, int blockSize) {
+        if (node < 0 || node > MAX_NODE) throw new IllegalArgumentException("Node must be between 0 and " + MAX_NODE + ".");
+        if (blockSize < 1) throw new IllegalArgumentException("Block size must be at least 1.");
+        this.prefix = prefix;
+        this.node = node;
+        this.nodeBits = (long) node << SEQUENCE_BITS;
+        this.blockSize = blockSize;
+    }
+
+    public int getNode() {
+        return node;
+    }
+
+    @Override
+    public long next() {
+        if (Thread.currentThread().isVirtual()) return nodeBits | counter.getAndIncrement();
+        long[] block = lease.get();
+        long seq = block[0];
+        if (seq >= block[1] || seq < floor) {
+            seq = counter.getAndAdd(blockSize);
+            block[1] = seq + blockSize;
+        }
+        block[0] = seq + 1;
+        return nodeBits | seq;
+    }
+
+    @Override
+    public void advancePast(long id) {
+        if (id < 0 || (id >>> SEQUENCE_BITS) != node) return; // another node's ids never collide with ours
+        long seq = (id & SEQUENCE_MASK) + 1;
+        counter.accumulateAndGet(seq, Math::max);
+        synchronized (this) {
+            if (floor < seq) floor = seq;
+        }
+    }
+
+    @Override
+    public String format(long id) {
+        long seq = id & SEQUENCE_MASK;
+        int idNode = (int) (id >>> SEQUENCE_BITS);
+        StringBuilder sb = new StringBuilder(prefix.length() + 24).append(prefix);
+        if (idNode != 0) sb.append(idNode).append('-');
+        if (seq < 100) sb.append(seq < 10 ? "00" : "0");
+        return sb.append(seq).toString();
+    }
+
+    @Override
+    public long parse(String text) {
+        if (text == null || !text.startsWith(prefix)) return -1;
+        int i = prefix.length();
+        int dash = text.indexOf('-', i);
+        long idNode = 0;
+        if (dash >= 0) {
+            idNode = digits(text, i, dash);
+            if (idNode < 0 || idNode > MAX_NODE) return -1;
+            i = dash + 1;
+        }
+        long seq = digits(text, i, text.length());
+        if (seq < 0 || seq > SEQUENCE_MASK) return -1;
+        return (idNode << SEQUENCE_BITS) | seq;
+    }
+
+    private static long digits(String s, int from, int to) {
+        if (from >= to || to - from > 18) return -1;
+        long v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+}
@@ -0,0 +1,188 @@
+package ecoride;
+
+import java.io.Closeable;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission queue for bookings under burst load. Requests wait in a bounded
+ * ring buffer per category, and a single writer thread per category drains
+ * them in batches: each batch takes the category lock once, looks its cars
+ * up once and assigns them in one pass (see
+ * ReservationManager.createReservations), then makes one journal sync for
+ * the whole batch before completing the callers' futures. That sync only
+ * saves work with the journal's GROUP or NONE policy; under ALWAYS each
+ * record is forced as it is appended anyway.
+ *
+ * A full queue rejects the request straight away: the future fails with
+ * RejectedExecutionException, and the caller should back off. Other
+ * failures are the IllegalArgumentExceptions createReservation throws.
+ * Failures are per request: one booking failing, or the batch failing
+ * partway, leaves the bookings already made standing. If the journal sync
+ * fails, the batch's bookings are cancelled again and fail with its
+ * exception.
+ * Booking latency in Metrics runs from submit to the durable commit.
+ */
+public class BookingPipeline implements Closeable {
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private final ReservationManager manager;
+    private final Journal journal;
+    private final int maxBatch;
+    private final List<BlockingQueue<Request>> queues = new ArrayList<>();
+    private final Thread[] writers;
+    private volatile boolean closed;
+
+    // one booking waiting for its batch; the writer fills in reservationId or error
+    static final class Request {
+        final Customer customer;
+        final LocalDate startDate;
+        final int numDays;
+        final int expectedTotalKm;
+        final long submitted = System.nanoTime();
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        String reservationId;
+        RuntimeException error;
+
+        Request(Customer customer, LocalDate startDate, int numDays, int expectedTotalKm) {
+            this.customer = customer;
+            this.startDate = startDate;
+            this.numDays = numDays;
+            this.expectedTotalKm = expectedTotalKm;
+        }
+    }
+
+    public BookingPipeline(ReservationManager manager, Journal journal) {
+        this(manager, journal, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * journal may be null, in which case batches are not synced to disk.
+     */
+    public BookingPipeline(ReservationManager manager, Journal journal, int queueCapacity, int maxBatch) {
+        if (queueCapacity < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("Queue capacity and batch size must be positive.");
+        }
+        this.manager = manager;
+        this.journal = journal;
+        this.maxBatch = maxBatch;
+        Category[] categories = Category.values();
+        writers = new Thread[categories.length];
+        for (Category c : categories) {
+            BlockingQueue<Request> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues.add(queue);
+            Thread t = new Thread(() -> drain(c, queue), "booking-" + c.name().toLowerCase(Locale.ROOT));
+            t.setDaemon(true);
+            writers[c.ordinal()] = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Queues a booking; the future completes with the reservation id once
+     * the booking is journaled.
+     */
+    public CompletableFuture<String> submit(Customer customer, Category category, LocalDate startDate, int numDays,
+                                            int expectedTotalKm) {
+        Request req = new Request(customer, startDate, numDays, expectedTotalKm);
+        if (closed) {
+            req.result.completeExceptionally(new RejectedExecutionException("Booking pipeline is closed."));
+        } else if (!queues.get(category.ordinal()).offer(req)) {
+            manager.getMetrics().rejectedQueueFull.increment();
+            req.result.completeExceptionally(new RejectedExecutionException("Too many bookings waiting for "
+                    + category + "; try again shortly."));
+        }
+        return req.result;
+    }
+
+    public int getQueued(Category category) {
+        return queues.get(category.ordinal()).size();
+    }
+
+    private void drain(Category category, BlockingQueue<Request> queue) {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+            } catch (InterruptedException ex) {
+                continue; // close() wakes us to notice it; the loop drains what is left
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            commit(category, batch);
+            batch.clear();
+        }
+    }
+
+    // requests given a reservation id were registered, whatever happened to the rest of the batch
+    private void commit(Category category, List<Request> batch) {
+        Metrics metrics = manager.getMetrics();
+        RuntimeException failure = null;
+        try {
+            manager.createReservations(category, batch);
+        } catch (RuntimeException ex) {
+            failure = ex;
+        }
+        RuntimeException notDurable = null;
+        if (journal != null) {
+            try {
+                journal.sync();
+            } catch (RuntimeException ex) {
+                notDurable = ex;
+            }
+        }
+        metrics.bookingBatches.increment();
+        metrics.batchedRequests.add(batch.size());
+        for (Request req : batch) {
+            if (req.reservationId != null && notDurable != null) {
+                // the caller is told it failed, so take the booking back and free its car
+                try {
+                    manager.cancelReservation(req.reservationId);
+                } catch (RuntimeException stillFailing) {
+                    notDurable.addSuppressed(stillFailing);
+                }
+                req.result.completeExceptionally(notDurable);
+            } else if (req.reservationId != null) {
+                metrics.booking.recordSince(req.submitted);
+                req.result.complete(req.reservationId);
+            } else if (req.error != null) {
+                req.result.completeExceptionally(req.error);
+            } else {
+                req.result.completeExceptionally(failure); // never reached by the batch
+            }
+        }
+    }
+
+    /**
+     * Stops taking requests, books everything already queued, and waits for
+     * the writers to finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread t : writers) t.interrupt();
+        for (Thread t : writers) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        // offered while the writers were finishing
+        for (BlockingQueue<Request> queue : queues) {
+            for (Request req; (req = queue.poll()) != null; ) {
+                req.result.completeExceptionally(new RejectedExecutionException("Booking pipeline is closed."));
+            }
+        }
+    }
+}
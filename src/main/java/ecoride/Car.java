@@ -2,10 +2,16 @@ package ecoride;
 
 public class Car {
     private final String carId;
-    private String model;
-    private Category category;
-    private double dailyRentalPrice;
-    private AvailabilityStatus availabilityStatus;
+    private volatile String model;
+    private volatile Category category;
+    private volatile double dailyRentalPrice;
+    private volatile AvailabilityStatus availabilityStatus;
+    private final CarCalendar calendar = new CarCalendar();
+
+    // maintained by CarInventory's availability index, under its category locks
+    volatile CarInventory owner;
+    Car bucketPrev;
+    Car bucketNext;
 
     public Car(String carId, String model, Category category) {
         this.carId = carId;
@@ -15,23 +21,50 @@ public class Car {
         this.availabilityStatus = AvailabilityStatus.AVAILABLE;
     }
 
+    // a detached copy for StateSnapshot; its calendar is empty
+    Car(Car from) {
+        this.carId = from.carId;
+        this.model = from.model;
+        this.category = from.category;
+        this.dailyRentalPrice = from.dailyRentalPrice;
+        this.availabilityStatus = from.availabilityStatus;
+    }
+
     public String getCarId() { return carId; }
     public String getModel() { return model; }
     public Category getCategory() { return category; }
     public double getDailyRentalPrice() { return dailyRentalPrice; }
     public AvailabilityStatus getAvailabilityStatus() { return availabilityStatus; }
+    public CarCalendar getCalendar() { return calendar; }
 
     public void setModel(String model) { this.model = model; }
     public void setCategory(Category category) {
-        this.category = category;
-        this.dailyRentalPrice = PricingInfo.DAILY_RATES.get(category);
+        CarInventory inventory = owner;
+        if (inventory != null) inventory.change(this, category, null);
+        else assign(category, availabilityStatus);
     }
 
     public boolean isAvailable() {
         return availabilityStatus == AvailabilityStatus.AVAILABLE;
     }
 
+    /**
+     * A car can take future bookings unless it is out of service.
+     */
+    public boolean isBookable() {
+        return availabilityStatus != AvailabilityStatus.UNDER_MAINTENANCE;
+    }
+
     public void setAvailability(AvailabilityStatus availabilityStatus) {
+        CarInventory inventory = owner;
+        if (inventory != null) inventory.change(this, null, availabilityStatus);
+        else assign(category, availabilityStatus);
+    }
+
+    // a car in an inventory is only changed here under its category locks; see CarInventory.change
+    void assign(Category category, AvailabilityStatus availabilityStatus) {
+        this.category = category;
+        this.dailyRentalPrice = PricingInfo.DAILY_RATES.get(category);
         this.availabilityStatus = availabilityStatus;
     }
 
@@ -0,0 +1,28 @@
+package ecoride;
+
+/**
+ * Intrusive doubly linked list of the cars sharing one Category and
+ * AvailabilityStatus. Links live on the Car itself, so moving a car
+ * between buckets is O(1) and never allocates.
+ */
+final class CarBucket {
+    Car head;
+    Car tail;
+    int size;
+
+    void add(Car car) {
+        car.bucketPrev = tail;
+        car.bucketNext = null;
+        if (tail == null) head = car; else tail.bucketNext = car;
+        tail = car;
+        size++;
+    }
+
+    void remove(Car car) {
+        if (car.bucketPrev == null) head = car.bucketNext; else car.bucketPrev.bucketNext = car.bucketNext;
+        if (car.bucketNext == null) tail = car.bucketPrev; else car.bucketNext.bucketPrev = car.bucketPrev;
+        car.bucketPrev = null;
+        car.bucketNext = null;
+        size--;
+    }
+}
@@ -0,0 +1,156 @@
+package ecoride;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Booked date ranges of a single car, kept as a sorted map of
+ * start epoch-day -> end epoch-day (exclusive). Ranges never overlap,
+ * so a free/busy check is one floor and one ceiling lookup.
+ * All methods lock the calendar, which makes book() an atomic claim.
+ *
+ * While the car is in service in a CarInventory, the free gaps between
+ * its bookings are also kept in the category's GapIndex. Changes then
+ * lock that index first, and the calendar second.
+ */
+public class CarCalendar {
+    private static final AtomicLong SEQ = new AtomicLong();
+
+    private final TreeMap<Long, Long> booked = new TreeMap<>();
+    // orders this calendar's gaps against other cars' gaps that match them exactly
+    private final long seq = SEQ.getAndIncrement();
+    // set and cleared by attach/detach, with both the index lock and this monitor held
+    private volatile GapIndex index;
+    private Car car;
+
+    public synchronized boolean isFree(LocalDate start, int numDays) {
+        long from = start.toEpochDay();
+        return isFree(from, from + numDays);
+    }
+
+    private boolean isFree(long from, long to) {
+        Map.Entry<Long, Long> before = booked.floorEntry(from);
+        if (before != null && before.getValue() > from) return false;
+        Long next = booked.ceilingKey(from);
+        return next == null || next >= to;
+    }
+
+    /**
+     * Books the range if it does not overlap an existing booking.
+     * Returns true if the range was booked.
+     */
+    public boolean book(LocalDate start, int numDays) {
+        long from = start.toEpochDay();
+        long to = from + numDays;
+        return update(() -> {
+            if (!isFree(from, to)) return false;
+            GapIndex idx = index;
+            if (idx != null) {
+                Map.Entry<Long, Long> before = booked.floorEntry(from);
+                long gapStart = before == null ? GapIndex.OPEN_START : before.getValue();
+                Long after = booked.ceilingKey(from);
+                long gapEnd = after == null ? GapIndex.OPEN_END : after;
+                idx.remove(seq, gapStart, gapEnd);
+                idx.add(car, seq, gapStart, from);
+                idx.add(car, seq, to, gapEnd);
+            }
+            booked.put(from, to);
+            return true;
+        });
+    }
+
+    public void release(LocalDate start) {
+        long from = start.toEpochDay();
+        update(() -> {
+            Long end = booked.remove(from);
+            if (end == null) return false;
+            GapIndex idx = index;
+            if (idx != null) {
+                Map.Entry<Long, Long> before = booked.lowerEntry(from);
+                long gapStart = before == null ? GapIndex.OPEN_START : before.getValue();
+                Long after = booked.higherKey(from);
+                long gapEnd = after == null ? GapIndex.OPEN_END : after;
+                idx.remove(seq, gapStart, from);
+                idx.remove(seq, end, gapEnd);
+                idx.add(car, seq, gapStart, gapEnd);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Changes the length of an existing booking, keeping the old length
+     * if the new one would run into the next booking.
+     */
+    public boolean resize(LocalDate start, int newDays) {
+        long from = start.toEpochDay();
+        long to = from + newDays;
+        return update(() -> {
+            Long current = booked.get(from);
+            if (current == null) return false;
+            Long after = booked.higherKey(from);
+            long gapEnd = after == null ? GapIndex.OPEN_END : after;
+            if (to > gapEnd) return false;
+            GapIndex idx = index;
+            if (idx != null) {
+                idx.remove(seq, current, gapEnd);
+                idx.add(car, seq, to, gapEnd);
+            }
+            booked.put(from, to);
+            return true;
+        });
+    }
+
+    public synchronized int bookingCount() {
+        return booked.size();
+    }
+
+    // runs change with the index (if any) locked, then this monitor
+    private boolean update(BooleanSupplier change) {
+        while (true) {
+            GapIndex idx = index;
+            if (idx != null) idx.lock();
+            try {
+                synchronized (this) {
+                    if (index == idx) return change.getAsBoolean();
+                }
+            } finally {
+                if (idx != null) idx.unlock();
+            }
+        }
+    }
+
+    // ---- by CarInventory, with idx locked ----
+
+    /** Puts this calendar's gaps into idx, as gaps of car. */
+    synchronized void attach(GapIndex idx, Car car) {
+        this.car = car;
+        long gapStart = GapIndex.OPEN_START;
+        for (Map.Entry<Long, Long> b : booked.entrySet()) {
+            idx.add(car, seq, gapStart, b.getKey());
+            gapStart = b.getValue();
+        }
+        idx.add(car, seq, gapStart, GapIndex.OPEN_END);
+        index = idx;
+    }
+
+    /** Takes this calendar's gaps out of the index it is in. */
+    synchronized void detach() {
+        GapIndex idx = index;
+        if (idx == null) return;
+        long gapStart = GapIndex.OPEN_START;
+        for (Map.Entry<Long, Long> b : booked.entrySet()) {
+            idx.remove(seq, gapStart, b.getKey());
+            gapStart = b.getValue();
+        }
+        idx.remove(seq, gapStart, GapIndex.OPEN_END);
+        index = null;
+    }
+
+    GapIndex index() {
+        return index;
+    }
+}
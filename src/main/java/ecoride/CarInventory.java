@@ -1,21 +1,237 @@
 package ecoride;
 
+import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Fleet storage. Besides the id map, cars are indexed by
+ * Category x AvailabilityStatus in intrusive buckets that are kept
+ * current by addCar/updateCar/removeCar and by Car's own setters.
+ *
+ * Each category has a read/write lock: readers walk its buckets under the
+ * read lock, structural changes take the write lock. A change touching two
+ * categories locks them in ordinal order. A car's category and status are
+ * only written under the write lock of its category, so readers holding
+ * the read lock see them settled. Do not change a car's category or status
+ * while holding a read lock from this class.
+ *
+ * Free-car lookups go through a GapIndex per category holding the free
+ * gaps of its in-service cars, so they cost O(log) in the number of gaps
+ * instead of a pass over the category. Locks are taken in the order
+ * category lock, GapIndex, car calendar.
+ */
 public class CarInventory {
-    private final Map<String, Car> cars = new HashMap<>();
+    /** How claimFreeCar picks among the cars free for a period. */
+    public enum Assignment {
+        /** The car free the longest before the period; leaves the most short gaps behind. */
+        FIRST_FIT,
+        /**
+         * The car whose previous booking ends closest before the period,
+         * among gaps starting the same day the one that ends soonest, so
+         * bookings pack tightly and long gaps stay whole. The default; one
+         * GapIndex lookup, like FIRST_FIT.
+         */
+        BEST_FIT
+    }
+
+    private final Map<String, Car> cars = new ConcurrentHashMap<>();
+    private final CarBucket[][] buckets = new CarBucket[Category.values().length][AvailabilityStatus.values().length];
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[Category.values().length];
+    private final GapIndex[] gaps = new GapIndex[Category.values().length];
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Metrics metrics = new Metrics(this);
+    private volatile Assignment assignment = Assignment.BEST_FIT;
+
+    public CarInventory() {
+        for (CarBucket[] row : buckets) {
+            for (int i = 0; i < row.length; i++) row[i] = new CarBucket();
+        }
+        for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantReadWriteLock();
+        for (int i = 0; i < gaps.length; i++) gaps[i] = new GapIndex();
+    }
+
+    /**
+     * Metrics shared by this inventory and the ReservationManager on top of it.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Assignment getAssignment() {
+        return assignment;
+    }
+
+    public void setAssignment(Assignment assignment) {
+        this.assignment = assignment;
+    }
+
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
 
+    /**
+     * Adds a car under a new id; IllegalArgumentException if the id is
+     * taken. Use updateCar to change a car already in the fleet.
+     */
     public void addCar(Car car) {
-        cars.put(car.getCarId(), car);
+        long t0 = System.nanoTime();
+        Category category = car.getCategory();
+        lockWrite(category);
+        try {
+            if (cars.putIfAbsent(car.getCarId(), car) != null) {
+                throw new IllegalArgumentException("Car " + car.getCarId() + " already exists.");
+            }
+            bucket(category, car.getAvailabilityStatus()).add(car);
+            car.owner = this;
+            reindex(car);
+        } finally {
+            unlockWrite(category);
+            metrics.carChange.recordSince(t0);
+        }
+        for (ChangeListener l : listeners) l.carAdded(car);
     }
 
+    /**
+     * Copies model, category and status from car onto the car with its id,
+     * which keeps its calendar and the reservations on it.
+     * IllegalArgumentException if there is no such car.
+     */
     public void updateCar(Car car) {
-        cars.put(car.getCarId(), car);
+        long t0 = System.nanoTime();
+        Car existing = cars.get(car.getCarId());
+        if (existing == null) throw new IllegalArgumentException("No car " + car.getCarId() + ".");
+        if (existing != car) {
+            existing.setModel(car.getModel());
+            if (existing.getCategory() != car.getCategory()) existing.setCategory(car.getCategory());
+            if (existing.getAvailabilityStatus() != car.getAvailabilityStatus()) {
+                existing.setAvailability(car.getAvailabilityStatus());
+            }
+        }
+        metrics.carChange.recordSince(t0);
+        for (ChangeListener l : listeners) l.carUpdated(existing);
     }
 
     public void removeCar(String carId) {
-        cars.remove(carId);
+        long t0 = System.nanoTime();
+        try {
+            removeIndexed(carId);
+        } finally {
+            metrics.carChange.recordSince(t0);
+        }
+    }
+
+    private void removeIndexed(String carId) {
+        Car car = cars.get(carId);
+        if (car == null) return;
+        boolean removed;
+        Category category = lockCategoryOf(car, null);
+        try {
+            removed = cars.remove(carId, car);
+            if (removed) {
+                bucket(category, car.getAvailabilityStatus()).remove(car);
+                car.owner = null;
+                reindex(car);
+            }
+        } finally {
+            unlockCategories(category, null);
+        }
+        if (removed) {
+            for (ChangeListener l : listeners) l.carRemoved(car);
+        }
+    }
+
+    /**
+     * Called by Car's setters: sets the category, the status, or both (null
+     * keeps the current one) and moves the car between buckets, all under
+     * the write locks of its old and new category, taken in ordinal order.
+     */
+    void change(Car car, Category category, AvailabilityStatus status) {
+        Category oldCategory = lockCategoryOf(car, category);
+        Category newCategory = category != null ? category : oldCategory;
+        AvailabilityStatus oldStatus;
+        boolean indexed;
+        try {
+            oldStatus = car.getAvailabilityStatus();
+            AvailabilityStatus newStatus = status != null ? status : oldStatus;
+            indexed = car.owner == this;
+            if (indexed) bucket(oldCategory, oldStatus).remove(car);
+            car.assign(newCategory, newStatus);
+            if (indexed) {
+                bucket(newCategory, newStatus).add(car);
+                reindex(car);
+            }
+        } finally {
+            unlockCategories(oldCategory, category);
+        }
+        if (!indexed) return; // removed meanwhile
+        for (ChangeListener l : listeners) {
+            if (oldCategory != newCategory) l.carUpdated(car);
+            if (oldStatus != car.getAvailabilityStatus()) l.carStatusChanged(car, oldStatus);
+        }
+    }
+
+    // write-locks the car's current category and other (if not null) in ordinal order; returns the
+    // car's category, which cannot change until unlockCategories
+    private Category lockCategoryOf(Car car, Category other) {
+        while (true) {
+            Category current = car.getCategory();
+            Category first = other == null || current.ordinal() <= other.ordinal() ? current : other;
+            Category second = first == current ? other : current;
+            lockWrite(first);
+            if (second != null && second != first) lockWrite(second);
+            if (car.getCategory() == current) return current;
+            unlockCategories(current, other);
+        }
+    }
+
+    // keeps the car's gaps in its category's GapIndex exactly while it is in this inventory and in
+    // service; caller holds the write lock of the car's category, and of its old one if it moved
+    private void reindex(Car car) {
+        CarCalendar calendar = car.getCalendar();
+        GapIndex want = car.owner == this && car.isBookable() ? gaps[car.getCategory().ordinal()] : null;
+        GapIndex have = calendar.index();
+        if (want == have) return;
+        if (have != null) {
+            have.lock();
+            try {
+                calendar.detach();
+            } finally {
+                have.unlock();
+            }
+        }
+        if (want != null) {
+            want.lock();
+            try {
+                calendar.attach(want, car);
+            } finally {
+                want.unlock();
+            }
+        }
+    }
+
+    private void unlockCategories(Category current, Category other) {
+        if (other != null && other != current) unlockWrite(other);
+        unlockWrite(current);
+    }
+
+    private CarBucket bucket(Category category, AvailabilityStatus status) {
+        return buckets[category.ordinal()][status.ordinal()];
+    }
+
+    private void lockWrite(Category category) { locks[category.ordinal()].writeLock().lock(); }
+    private void unlockWrite(Category category) { locks[category.ordinal()].writeLock().unlock(); }
+    private void lockRead(Category category) { locks[category.ordinal()].readLock().lock(); }
+    private void unlockRead(Category category) { locks[category.ordinal()].readLock().unlock(); }
+
+    public boolean isEmpty() {
+        return cars.isEmpty();
     }
 
     public Car getCar(String carId) {
@@ -23,16 +239,182 @@ public class CarInventory {
     }
 
     public List<Car> listAllCars() {
-        return new ArrayList<>(cars.values());
+        long t0 = System.nanoTime();
+        List<Car> out = new ArrayList<>(cars.values());
+        metrics.carListing.recordSince(t0);
+        return out;
     }
 
     public List<Car> listAvailableByCategory(Category category) {
-        return cars.values().stream()
-                .filter(c -> c.getCategory() == category && c.isAvailable())
-                .collect(Collectors.toList());
+        long t0 = System.nanoTime();
+        List<Car> out = availableIn(category);
+        metrics.carListing.recordSince(t0);
+        return out;
+    }
+
+    private List<Car> availableIn(Category category) {
+        lockRead(category);
+        try {
+            CarBucket b = bucket(category, AvailabilityStatus.AVAILABLE);
+            List<Car> out = new ArrayList<>(b.size);
+            for (Car c = b.head; c != null; c = c.bucketNext) out.add(c);
+            return out;
+        } finally {
+            unlockRead(category);
+        }
     }
 
     public List<Car> listAvailableCars() {
-        return cars.values().stream().filter(Car::isAvailable).collect(Collectors.toList());
+        long t0 = System.nanoTime();
+        List<Car> out = new ArrayList<>(countAvailable());
+        for (Category category : Category.values()) out.addAll(availableIn(category));
+        metrics.carListing.recordSince(t0);
+        return out;
+    }
+
+    /**
+     * First AVAILABLE car of the category, or null. O(1), no allocation.
+     */
+    public Car firstAvailable(Category category) {
+        lockRead(category);
+        try {
+            return bucket(category, AvailabilityStatus.AVAILABLE).head;
+        } finally {
+            unlockRead(category);
+        }
+    }
+
+    public int countAvailable(Category category) {
+        return count(category, AvailabilityStatus.AVAILABLE);
+    }
+
+    public int countAvailable() {
+        int n = 0;
+        for (Category category : Category.values()) n += countAvailable(category);
+        return n;
+    }
+
+    public int count(Category category, AvailabilityStatus status) {
+        lockRead(category);
+        try {
+            return bucket(category, status).size;
+        } finally {
+            unlockRead(category);
+        }
+    }
+
+    /**
+     * Returns a car of the category whose calendar is free for the whole
+     * period, the one free the longest before it, or null if none is. Cars
+     * under maintenance are not indexed. The car is not claimed; use
+     * claimFreeCar to book.
+     */
+    public Car findFreeCar(Category category, LocalDate startDate, int numDays) {
+        long t0 = System.nanoTime();
+        long from = startDate.toEpochDay();
+        GapIndex index = gaps[category.ordinal()];
+        lockRead(category);
+        index.lock();
+        try {
+            return index.earliestFit(from, from + numDays);
+        } finally {
+            index.unlock();
+            unlockRead(category);
+            metrics.carLookup.recordSince(t0);
+        }
+    }
+
+    /**
+     * Books the period on a car of the category that is free for it and
+     * returns that car, or null if none is. The car is chosen by the current
+     * Assignment. Booking is an atomic claim on the car's calendar, so
+     * concurrent callers never get the same car for overlapping periods.
+     */
+    public Car claimFreeCar(Category category, LocalDate startDate, int numDays) {
+        long t0 = System.nanoTime();
+        lockRead(category);
+        try {
+            GapIndex index = gaps[category.ordinal()];
+            index.lock();
+            try {
+                return claim(index, startDate, numDays);
+            } finally {
+                index.unlock();
+            }
+        } finally {
+            unlockRead(category);
+            metrics.carLookup.recordSince(t0);
+        }
+    }
+
+    /**
+     * claimFreeCar for a batch of periods at once: cars[i] gets a car booked
+     * for starts[i] and days[i], or null if none was free. The periods are
+     * assigned in one pass, in order, by the current Assignment, with the
+     * category locked once.
+     */
+    public Car[] claimFreeCars(Category category, LocalDate[] starts, int[] days) {
+        long t0 = System.nanoTime();
+        Car[] cars = new Car[starts.length];
+        lockRead(category);
+        try {
+            GapIndex index = gaps[category.ordinal()];
+            for (int i = 0; i < starts.length; i++) {
+                index.lock();
+                try {
+                    cars[i] = claim(index, starts[i], days[i]);
+                } finally {
+                    index.unlock();
+                }
+            }
+            return cars;
+        } finally {
+            unlockRead(category);
+            metrics.carLookup.recordSince(t0);
+        }
+    }
+
+    // the index is exact while locked, so the car it names can always be booked
+    private Car claim(GapIndex index, LocalDate startDate, int numDays) {
+        long from = startDate.toEpochDay();
+        long to = from + numDays;
+        Car car = assignment == Assignment.BEST_FIT ? index.latestFit(from, to) : index.earliestFit(from, to);
+        return car != null && car.getCalendar().book(startDate, numDays) ? car : null;
+    }
+
+    /**
+     * Cars of the category that can take bookings, i.e. not under maintenance.
+     */
+    public List<Car> listInService(Category category) {
+        List<Car> out = new ArrayList<>();
+        lockRead(category);
+        try {
+            for (AvailabilityStatus status : AvailabilityStatus.values()) {
+                if (status == AvailabilityStatus.UNDER_MAINTENANCE) continue;
+                for (Car c = bucket(category, status).head; c != null; c = c.bucketNext) out.add(c);
+            }
+        } finally {
+            unlockRead(category);
+        }
+        return out;
+    }
+
+    /**
+     * Cars of the category free for the whole period, found through the
+     * category's GapIndex, so the cost follows the number of free cars.
+     */
+    public List<Car> listFreeByCategory(Category category, LocalDate startDate, int numDays) {
+        List<Car> out = new ArrayList<>();
+        long from = startDate.toEpochDay();
+        GapIndex index = gaps[category.ordinal()];
+        lockRead(category);
+        index.lock();
+        try {
+            index.collectFits(from, from + numDays, out);
+        } finally {
+            index.unlock();
+            unlockRead(category);
+        }
+        return out;
     }
 }
@@ -0,0 +1,118 @@
+package ecoride;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Cars of one StateSnapshot matching the filters set on this query, by car
+ * id, read lazily. Take them as a stream, or a page at a time: each page
+ * carries a cursor that after() resumes from, and a cursor stays valid
+ * across snapshots because it is the last car id returned.
+ *
+ * With no filters, offset() costs O(log n) instead of a walk over the
+ * skipped cars.
+ */
+public class CarQuery {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    private final StateSnapshot snapshot;
+    private Set<Category> categories;
+    private Set<AvailabilityStatus> statuses;
+    private double minPrice = Double.NEGATIVE_INFINITY;
+    private double maxPrice = Double.POSITIVE_INFINITY;
+    private String after;
+    private long offset;
+    private int limit = -1;
+
+    CarQuery(StateSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public CarQuery category(Category first, Category... more) {
+        categories = EnumSet.of(first, more);
+        return this;
+    }
+
+    public CarQuery status(AvailabilityStatus first, AvailabilityStatus... more) {
+        statuses = EnumSet.of(first, more);
+        return this;
+    }
+
+    /** Daily rate between min and max LKR, both inclusive. */
+    public CarQuery dailyPriceBetween(double min, double max) {
+        if (min > max) throw new IllegalArgumentException("Minimum price is above the maximum.");
+        minPrice = min;
+        maxPrice = max;
+        return this;
+    }
+
+    /** Resumes after the cursor of an earlier page; null starts from the beginning. */
+    public CarQuery after(String cursor) {
+        if (cursor != null && !cursor.startsWith("c")) throw new IllegalArgumentException("Not a car cursor: '" + cursor + "'.");
+        after = cursor == null ? null : cursor.substring(1);
+        return this;
+    }
+
+    public CarQuery offset(long offset) {
+        if (offset < 0) throw new IllegalArgumentException("Offset must not be negative.");
+        this.offset = offset;
+        return this;
+    }
+
+    /** Most cars stream() yields and the page size; DEFAULT_PAGE_SIZE for pages if unset. */
+    public CarQuery limit(int limit) {
+        if (limit < 1) throw new IllegalArgumentException("Limit must be positive.");
+        this.limit = limit;
+        return this;
+    }
+
+    public Stream<Car> stream() {
+        Stream<Car> s = cursor().stream();
+        return limit > 0 ? s.limit(limit) : s;
+    }
+
+    public Page<Car> page() {
+        return Page.read(cursor(), limit > 0 ? limit : DEFAULT_PAGE_SIZE);
+    }
+
+    private boolean filtered() {
+        return categories != null || statuses != null || minPrice != Double.NEGATIVE_INFINITY
+                || maxPrice != Double.POSITIVE_INFINITY;
+    }
+
+    private boolean matches(Car c) {
+        return (categories == null || categories.contains(c.getCategory()))
+                && (statuses == null || statuses.contains(c.getAvailabilityStatus()))
+                && c.getDailyRentalPrice() >= minPrice && c.getDailyRentalPrice() <= maxPrice;
+    }
+
+    private QueryCursor<Car> cursor() {
+        PersistentSortedMap<String, Car> cars = snapshot.cars();
+        if (filtered()) return new Walk(cars.valuesAfter(after), this::matches).skip(offset);
+        long start = (after == null ? 0 : cars.rank(after)) + offset;
+        return new Walk(cars.valuesFrom((int) Math.min(start, Integer.MAX_VALUE)), c -> true);
+    }
+
+    private static final class Walk extends QueryCursor<Car> {
+        private final Iterator<Car> cars;
+        private Car last;
+
+        Walk(Iterator<Car> cars, Predicate<Car> filter) {
+            super(filter);
+            this.cars = cars;
+        }
+
+        @Override
+        Car advance() {
+            return last = cars.hasNext() ? cars.next() : null;
+        }
+
+        @Override
+        String positionOfLast() {
+            return "c" + last.getCarId();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ecoride;
+
+import java.time.LocalDate;
+
+/**
+ * One change published on the EventStream. Events are immutable copies of
+ * the car or reservation taken when the change happened, numbered by a
+ * sequence that increases by one per event.
+ */
+public final class ChangeEvent {
+    public enum Type {
+        CAR_ADDED, CAR_UPDATED, CAR_REMOVED, CAR_STATUS_CHANGED,
+        RESERVATION_CREATED, RESERVATION_UPDATED, RESERVATION_CANCELLED,
+        RESERVATION_STARTED, RESERVATION_REASSIGNED, RESERVATION_COMPLETED;
+
+        public boolean isReservation() {
+            return ordinal() >= RESERVATION_CREATED.ordinal();
+        }
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final long timestamp;
+    private final String carId;
+    private final Category category;
+    private final AvailabilityStatus carStatus;
+    // reservation events only
+    private final String reservationId;
+    private final LocalDate startDate;
+    private final int numDays;
+    private final int expectedTotalKm;
+    private final ReservationStatus reservationStatus;
+
+    ChangeEvent(long sequence, Type type, long timestamp, Car car) {
+        this.sequence = sequence;
+        this.type = type;
+        this.timestamp = timestamp;
+        this.carId = car.getCarId();
+        this.category = car.getCategory();
+        this.carStatus = car.getAvailabilityStatus();
+        this.reservationId = null;
+        this.startDate = null;
+        this.numDays = 0;
+        this.expectedTotalKm = 0;
+        this.reservationStatus = null;
+    }
+
+    ChangeEvent(long sequence, Type type, long timestamp, Reservation r) {
+        Car car = r.getCar();
+        this.sequence = sequence;
+        this.type = type;
+        this.timestamp = timestamp;
+        this.carId = car.getCarId();
+        this.category = car.getCategory();
+        this.carStatus = car.getAvailabilityStatus();
+        this.reservationId = r.getReservationId();
+        this.startDate = r.getRentalStartDate();
+        this.numDays = r.getNumDays();
+        this.expectedTotalKm = r.getExpectedTotalKm();
+        this.reservationStatus = r.getStatus();
+    }
+
+    public long getSequence() { return sequence; }
+    public Type getType() { return type; }
+    /** Milliseconds since the epoch. */
+    public long getTimestamp() { return timestamp; }
+    public String getCarId() { return carId; }
+    public Category getCategory() { return category; }
+    public AvailabilityStatus getCarStatus() { return carStatus; }
+    /** Null for car events. */
+    public String getReservationId() { return reservationId; }
+    public LocalDate getStartDate() { return startDate; }
+    public int getNumDays() { return numDays; }
+    public int getExpectedTotalKm() { return expectedTotalKm; }
+    public ReservationStatus getReservationStatus() { return reservationStatus; }
+
+    @Override
+    public String toString() {
+        if (!type.isReservation()) return "#" + sequence + " " + type + " " + carId + " " + carStatus;
+        return "#" + sequence + " " + type + " " + reservationId + " " + carId + " " + startDate
+                + " " + numDays + "d " + reservationStatus;
+    }
+}
@@ -0,0 +1,21 @@
+package ecoride;
+
+/**
+ * Callback for state changes in CarInventory and ReservationManager.
+ * Reservation callbacks run while the reservation is locked, so a
+ * listener sees the changes to one reservation in the order they happened.
+ * Listeners must be quick and must not call back into the manager.
+ */
+public interface ChangeListener {
+    default void carAdded(Car car) {}
+    default void carUpdated(Car car) {}
+    default void carRemoved(Car car) {}
+    default void carStatusChanged(Car car, AvailabilityStatus oldStatus) {}
+
+    default void reservationCreated(Reservation r) {}
+    default void reservationUpdated(Reservation r, int oldDays, int oldExpectedKm) {}
+    default void reservationCancelled(Reservation r) {}
+    default void reservationStarted(Reservation r) {}
+    default void reservationReassigned(Reservation r, Car oldCar) {}
+    default void reservationCompleted(Reservation r) {}
+}
@@ -0,0 +1,218 @@
+package ecoride;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Routes fleet and reservation calls to the node holding their partition
+ * (see PartitionKey). Partitions are placed on nodes by a HashRing; adding
+ * or removing a node moves only the partitions whose owner changed, and
+ * calls on a partition wait while it moves.
+ *
+ * Reservation ids handed out here are the partition key, '/', and the id
+ * on the node, e.g. colombo:HYBRID/R3-017, so they keep routing after
+ * their partition has moved. Searching by customer name asks every node
+ * in parallel.
+ */
+public class Cluster {
+    private final NodeTransport transport;
+    private final HashRing ring;
+    // where each partition is now; differs from the ring only while a rebalance is behind
+    private final Map<PartitionKey, String> placement = new ConcurrentHashMap<>();
+    // shared by calls on a partition, exclusive while it moves
+    private final Map<PartitionKey, ReentrantReadWriteLock> moveLocks = new ConcurrentHashMap<>();
+
+    public Cluster(NodeTransport transport) {
+        this(transport, new HashRing());
+    }
+
+    public Cluster(NodeTransport transport, HashRing ring) {
+        this.transport = transport;
+        this.ring = ring;
+    }
+
+    /**
+     * Adds a node reachable through the transport, takes note of any
+     * partitions it already holds, and moves to it the partitions it now
+     * owns. Returns how many partitions moved.
+     */
+    public synchronized int addNode(String nodeId) {
+        NodeApi node = transport.connect(nodeId);
+        for (PartitionKey key : await(node.partitions())) placement.putIfAbsent(key, nodeId);
+        ring.add(nodeId);
+        return rebalance();
+    }
+
+    /**
+     * Moves the node's partitions to the nodes that own them once it has
+     * left the ring. The node must stay reachable until this returns.
+     */
+    public synchronized int removeNode(String nodeId) {
+        if (!ring.remove(nodeId)) return 0;
+        return rebalance();
+    }
+
+    /** Moves every partition not on its ring owner there; returns how many moved. */
+    public synchronized int rebalance() {
+        int moved = 0;
+        for (Map.Entry<PartitionKey, String> e : placement.entrySet()) {
+            String owner = ring.owner(e.getKey());
+            if (!owner.equals(e.getValue())) {
+                move(e.getKey(), owner);
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    private void move(PartitionKey key, String to) {
+        Lock exclusive = lock(key).writeLock();
+        exclusive.lock();
+        try {
+            NodeApi source = transport.connect(placement.get(key));
+            NodeApi target = transport.connect(to);
+            await(target.load(key, await(source.export(key))));
+            placement.put(key, to);
+            await(source.drop(key));
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    public String ownerOf(PartitionKey key) {
+        String node = placement.get(key);
+        return node != null ? node : ring.owner(key);
+    }
+
+    public void addCar(String region, Category category, String carId, String model) {
+        PartitionKey key = new PartitionKey(region, category);
+        Lock shared = lock(key).readLock();
+        shared.lock();
+        try {
+            NodeApi node = transport.connect(placement.computeIfAbsent(key, ring::owner));
+            await(node.addCar(key, carId, model));
+        } finally {
+            shared.unlock();
+        }
+    }
+
+    public List<Car> listCars(String region, Category category) {
+        PartitionKey key = new PartitionKey(region, category);
+        Lock shared = lock(key).readLock();
+        shared.lock();
+        try {
+            return await(transport.connect(ownerOf(key)).listCars(key));
+        } finally {
+            shared.unlock();
+        }
+    }
+
+    /**
+     * Books a car of the category in the region, with the same rules as
+     * ReservationManager.createReservation. Returns the cluster reservation id.
+     */
+    public String createReservation(String region, Customer customer, Category category, LocalDate startDate,
+                                    int numDays, int expectedTotalKm) {
+        PartitionKey key = new PartitionKey(region, category);
+        Lock shared = lock(key).readLock();
+        shared.lock();
+        try {
+            NodeApi node = transport.connect(ownerOf(key));
+            return key + "/" + await(node.book(key, customer, startDate, numDays, expectedTotalKm));
+        } finally {
+            shared.unlock();
+        }
+    }
+
+    public boolean cancelReservation(String reservationId) {
+        PartitionKey key = keyOf(reservationId);
+        if (key == null) return false;
+        Lock shared = lock(key).readLock();
+        shared.lock();
+        try {
+            return await(transport.connect(ownerOf(key)).cancel(key, localId(reservationId)));
+        } finally {
+            shared.unlock();
+        }
+    }
+
+    public Reservation findById(String reservationId) {
+        PartitionKey key = keyOf(reservationId);
+        if (key == null) return null;
+        Lock shared = lock(key).readLock();
+        shared.lock();
+        try {
+            return await(transport.connect(ownerOf(key)).find(key, localId(reservationId)));
+        } finally {
+            shared.unlock();
+        }
+    }
+
+    /**
+     * Same matching as ReservationManager.searchByCustomerName, over every
+     * node at once: prefix matches if any node has one, otherwise the
+     * closest spellings. Does not wait for partitions being moved, so
+     * their reservations may be missing from a search made meanwhile.
+     */
+    public List<Reservation> searchByCustomerName(String name) {
+        List<CompletableFuture<List<Reservation>>> calls = new ArrayList<>();
+        Set<String> nodes = new LinkedHashSet<>(ring.nodes());
+        nodes.addAll(placement.values());
+        for (String nodeId : nodes) calls.add(transport.connect(nodeId).searchByCustomerName(name));
+        await(CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])));
+        // a partition caught mid-move answers from both nodes
+        Map<Long, Reservation> found = new LinkedHashMap<>();
+        boolean prefix = false;
+        for (CompletableFuture<List<Reservation>> call : calls) {
+            for (Reservation r : call.join()) {
+                found.putIfAbsent(r.getId(), r);
+                prefix |= CustomerIndex.matchesPrefix(r.getCustomer().getName(), name);
+            }
+        }
+        List<Reservation> out = new ArrayList<>();
+        for (Reservation r : found.values()) {
+            if (!prefix || CustomerIndex.matchesPrefix(r.getCustomer().getName(), name)) out.add(r);
+        }
+        return out;
+    }
+
+    private ReentrantReadWriteLock lock(PartitionKey key) {
+        return moveLocks.computeIfAbsent(key, k -> new ReentrantReadWriteLock());
+    }
+
+    private static PartitionKey keyOf(String reservationId) {
+        int slash = reservationId.indexOf('/');
+        if (slash < 0) return null;
+        try {
+            return PartitionKey.parse(reservationId.substring(0, slash));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static String localId(String reservationId) {
+        return reservationId.substring(reservationId.indexOf('/') + 1);
+    }
+
+    // waits for a node's answer, rethrowing what the node threw
+    private static <T> T await(CompletableFuture<T> call) {
+        try {
+            return call.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ecoride;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a Cluster of ClusterNodes over a LoopbackTransport in one JVM. It
+ * books across regions and categories from many threads, adds a node while
+ * bookings carry on, searches by customer name, then lets simulated days
+ * pass with every node's lifecycle ticking, and takes a node out halfway
+ * through. Afterwards it checks:
+ * - every partition sits on its ring owner only, and no car was lost;
+ * - every booking is found by id, and ids are unique;
+ * - a name search finds exactly the bookings of that customer;
+ * - once the last rental has ended, every booking is completed or
+ *   cancelled and every car is available again, also after archiving.
+ * Prints what it did and exits with status 1 on a failed check.
+ *
+ * Usage: ClusterDemo [nodes] [regions] [carsPerPartition] [bookings]
+ * Defaults: 4 8 5 2000
+ */
+public class ClusterDemo {
+    private static final String[] REGIONS = {"colombo", "kandy", "galle", "jaffna", "negombo", "matara",
+            "trincomalee", "badulla", "anuradhapura", "ratnapura", "kurunegala", "batticaloa"};
+    private static final String[] GIVEN = {"Amal", "Kamal", "Nimal", "Sunil", "Ruwan", "Dilan", "Saman", "Chamara"};
+    private static final String[] FAMILY = {"Perera", "Silva", "Fernando", "Jayasuriya", "Bandara"};
+    private static final long TICK_MILLIS = 10;
+
+    // a clock the driver moves forward a day at a time
+    private static final class SimClock extends Clock {
+        private final ZoneId zone = ZoneId.systemDefault();
+        private volatile Instant now = Instant.now();
+
+        @Override public ZoneId getZone() { return zone; }
+        @Override public Clock withZone(ZoneId zone) { throw new UnsupportedOperationException(); }
+        @Override public Instant instant() { return now; }
+
+        void nextDay() {
+            now = now.plus(Duration.ofDays(1));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int regionCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int carsPerPartition = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int bookings = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        if (nodeCount < 2 || regionCount < 1 || regionCount > REGIONS.length) {
+            throw new IllegalArgumentException("Give at least 2 nodes and 1-" + REGIONS.length + " regions.");
+        }
+
+        SimClock clock = new SimClock();
+        PricingPolicy pricing = new PricingPolicy();
+        LoopbackTransport transport = new LoopbackTransport();
+        List<ClusterNode> nodes = new ArrayList<>();
+        for (int i = 1; i <= nodeCount; i++) {
+            ClusterNode node = new ClusterNode("node" + i, i, pricing, clock);
+            transport.register(node);
+            node.start(TICK_MILLIS, TimeUnit.MILLISECONDS);
+            nodes.add(node);
+        }
+        // the last node joins later, while bookings are coming in
+        Cluster cluster = new Cluster(transport);
+        for (int i = 0; i < nodeCount - 1; i++) cluster.addNode(nodes.get(i).getNodeId());
+
+        Category[] categories = Category.values();
+        int carCount = 0;
+        for (int r = 0; r < regionCount; r++) {
+            for (Category c : categories) {
+                for (int k = 0; k < carsPerPartition; k++) {
+                    cluster.addCar(REGIONS[r], c, String.format("%s-%s-%d", REGIONS[r], c, k), "Demo Car");
+                    carCount++;
+                }
+            }
+        }
+
+        LocalDate today = LocalDate.now(clock);
+        List<Customer> customers = new ArrayList<>();
+        for (String g : GIVEN) {
+            for (String f : FAMILY) {
+                customers.add(new Customer("ID-" + customers.size(), g + " " + f, "0700000000", "demo@example.com"));
+            }
+        }
+        ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+        Map<String, Integer> customerOf = new HashMap<>();
+        AtomicInteger rejected = new AtomicInteger();
+        List<Future<String>> wave = book(cluster, callers, customers, regionCount, 0, bookings / 2, today, rejected);
+        // on a platform thread: addNode waits inside the cluster's monitor, which pins a virtual thread
+        ExecutorService admin = Executors.newSingleThreadExecutor();
+        Future<Integer> joined = admin.submit(() -> cluster.addNode(nodes.get(nodeCount - 1).getNodeId()));
+        wave.addAll(book(cluster, callers, customers, regionCount, bookings / 2, bookings, today, rejected));
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < wave.size(); i++) {
+            String id = wave.get(i).get();
+            if (id == null) continue;
+            ids.add(id);
+            customerOf.put(id, i % customers.size());
+        }
+        int movedIn = joined.get();
+        int cancelled = 0;
+        for (int i = 0; i < ids.size(); i += 10) {
+            if (cluster.cancelReservation(ids.get(i))) cancelled++;
+        }
+
+        List<String> failures = new ArrayList<>();
+        checkPlacement(cluster, nodes, regionCount, failures);
+        Set<Long> unique = new HashSet<>();
+        for (String id : ids) {
+            Reservation r = cluster.findById(id);
+            if (r == null) failures.add(id + " not found");
+            else if (!unique.add(r.getId())) failures.add("id " + r.getReservationId() + " handed out twice");
+        }
+        for (int c = 0; c < customers.size(); c += 7) {
+            Customer customer = customers.get(c);
+            long booked = 0;
+            for (String id : ids) if (customerOf.get(id) == c) booked++;
+            if (booked == 0) continue; // the search would fall back to similar names
+            int found = cluster.searchByCustomerName(customer.getName()).size();
+            if (found != booked) failures.add("search for " + customer.getName() + " found " + found + " of " + booked);
+        }
+
+        // let the rentals run their course; one node leaves halfway
+        int horizon = 20;
+        int movedOut = 0;
+        for (int day = 1; day <= horizon; day++) {
+            clock.nextDay();
+            Thread.sleep(TICK_MILLIS * 3);
+            if (day == horizon / 2) movedOut = cluster.removeNode(nodes.get(0).getNodeId());
+        }
+        checkPlacement(cluster, nodes, regionCount, failures);
+        if (!nodes.get(0).partitions().join().isEmpty()) failures.add(nodes.get(0).getNodeId() + " still holds partitions");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (unfinished(cluster, ids) > 0 && System.nanoTime() < deadline) Thread.sleep(TICK_MILLIS);
+        int unfinished = unfinished(cluster, ids);
+        if (unfinished > 0) failures.add(unfinished + " bookings neither completed nor cancelled after their end");
+        int cars = 0;
+        for (int r = 0; r < regionCount; r++) {
+            for (Category c : categories) {
+                for (Car car : cluster.listCars(REGIONS[r], c)) {
+                    cars++;
+                    if (car.getAvailabilityStatus() != AvailabilityStatus.AVAILABLE) {
+                        failures.add(car.getCarId() + " is still " + car.getAvailabilityStatus());
+                    }
+                }
+            }
+        }
+        if (cars != carCount) failures.add(cars + " cars in the cluster, expected " + carCount);
+        int archived = 0;
+        for (ClusterNode node : nodes) archived += node.archiveTerminal();
+        for (String id : ids) {
+            if (cluster.findById(id) == null) failures.add(id + " not found after archiving");
+        }
+
+        callers.shutdown();
+        admin.shutdown();
+        for (ClusterNode node : nodes) node.close();
+        System.out.printf("%d nodes, %d partitions, %d cars: %d booked, %d rejected, %d cancelled%n",
+                nodeCount, regionCount * categories.length, carCount, ids.size(), rejected.get(), cancelled);
+        System.out.printf("%d partitions moved to the joining node, %d away from the leaving one, %d archived%n",
+                movedIn, movedOut, archived);
+        if (failures.isEmpty()) {
+            System.out.println("OK");
+            return;
+        }
+        for (String f : failures.subList(0, Math.min(20, failures.size()))) System.out.println("FAILED: " + f);
+        System.exit(1);
+    }
+
+    // bookings from..to, each on its own virtual thread; a future yields null if no car was free
+    private static List<Future<String>> book(Cluster cluster, ExecutorService callers, List<Customer> customers,
+                                             int regionCount, int from, int to, LocalDate today, AtomicInteger rejected) {
+        List<Future<String>> out = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            Random rnd = new Random(i);
+            Customer customer = customers.get(i % customers.size());
+            String region = REGIONS[rnd.nextInt(regionCount)];
+            Category category = Category.values()[rnd.nextInt(Category.values().length)];
+            LocalDate start = today.plusDays(3 + rnd.nextInt(10));
+            int days = 1 + rnd.nextInt(4);
+            out.add(callers.submit(() -> {
+                try {
+                    return cluster.createReservation(region, customer, category, start, days, 100);
+                } catch (IllegalArgumentException noCar) {
+                    rejected.incrementAndGet();
+                    return null;
+                }
+            }));
+        }
+        return out;
+    }
+
+    private static void checkPlacement(Cluster cluster, List<ClusterNode> nodes, int regionCount,
+                                       List<String> failures) {
+        for (int r = 0; r < regionCount; r++) {
+            for (Category c : Category.values()) {
+                PartitionKey key = new PartitionKey(REGIONS[r], c);
+                String owner = cluster.ownerOf(key);
+                for (ClusterNode node : nodes) {
+                    boolean holds = node.partitions().join().contains(key);
+                    if (holds != node.getNodeId().equals(owner)) {
+                        failures.add(key + (holds ? " also held by " : " missing from ") + node.getNodeId());
+                    }
+                }
+            }
+        }
+    }
+
+    private static int unfinished(Cluster cluster, List<String> ids) {
+        int n = 0;
+        for (String id : ids) {
+            Reservation r = cluster.findById(id);
+            if (r != null && r.holdsCar()) n++;
+        }
+        return n;
+    }
+}
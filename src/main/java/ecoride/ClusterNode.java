@@ -0,0 +1,232 @@
+package ecoride;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * One node of a Cluster. It holds the partitions the ring gives it, each
+ * with its own CarInventory and ReservationManager, so a booking only ever
+ * locks the cars and calendars of its own partition. Calls run on virtual
+ * threads.
+ *
+ * Reservation ids carry the node number, so as long as every node has its
+ * own number, ids minted here stay unique after their partition moves to
+ * another node.
+ *
+ * The partitions' lifecycles only move when advance() is called; start()
+ * does that on a timer for the whole node.
+ */
+public class ClusterNode implements NodeApi, Closeable {
+    private final String nodeId;
+    private final PricingPolicy pricing;
+    private final Clock clock;
+    // shared by the node's partitions, so reservation ids are unique across the cluster
+    private final BlockIdAllocator reservationIds;
+    private final BlockIdAllocator invoiceIds;
+    private final Map<PartitionKey, Partition> partitions = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private ScheduledExecutorService ticker;
+
+    public ClusterNode(String nodeId, int nodeNumber, PricingPolicy pricing) {
+        this(nodeId, nodeNumber, pricing, Clock.systemDefaultZone());
+    }
+
+    public ClusterNode(String nodeId, int nodeNumber, PricingPolicy pricing, Clock clock) {
+        if (nodeId.indexOf('/') >= 0) throw new IllegalArgumentException("Node id must not contain '/'.");
+        if (nodeNumber < 0 || nodeNumber > BlockIdAllocator.MAX_NODE) {
+            throw new IllegalArgumentException("Node number must be between 0 and " + BlockIdAllocator.MAX_NODE + ".");
+        }
+        this.nodeId = nodeId;
+        this.pricing = pricing;
+        this.clock = clock;
+        this.reservationIds = new BlockIdAllocator("R", nodeNumber);
+        this.invoiceIds = new BlockIdAllocator("INV-", nodeNumber);
+    }
+
+    private final class Partition {
+        final CarInventory inventory = new CarInventory();
+        final ReservationManager manager = new ReservationManager(inventory, pricing, reservationIds, invoiceIds,
+                clock);
+
+        void close() {
+            manager.getLifecycle().close();
+            manager.getEvents().close();
+        }
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /** The manager of a partition held here, or null; for local reports and tooling. */
+    public ReservationManager getManager(PartitionKey key) {
+        Partition p = partitions.get(key);
+        return p == null ? null : p.manager;
+    }
+
+    private <T> CompletableFuture<T> run(Supplier<T> op) {
+        return CompletableFuture.supplyAsync(op, executor);
+    }
+
+    private Partition partition(PartitionKey key) {
+        return partitions.computeIfAbsent(key, k -> new Partition());
+    }
+
+    @Override
+    public CompletableFuture<Void> addCar(PartitionKey key, String carId, String model) {
+        return run(() -> {
+            partition(key).inventory.addCar(new Car(carId, model, key.getCategory()));
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Car>> listCars(PartitionKey key) {
+        return run(() -> {
+            Partition p = partitions.get(key);
+            return p == null ? new ArrayList<>() : new ArrayList<>(p.manager.snapshot().getCars());
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> book(PartitionKey key, Customer customer, LocalDate startDate, int numDays,
+                                          int expectedTotalKm) {
+        return run(() -> {
+            Partition p = partitions.get(key);
+            if (p == null) throw new IllegalArgumentException("No cars in " + key + ".");
+            return p.manager.createReservation(customer, key.getCategory(), startDate, numDays, expectedTotalKm);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> cancel(PartitionKey key, String reservationId) {
+        return run(() -> {
+            Partition p = partitions.get(key);
+            return p != null && p.manager.cancelReservation(reservationId);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Reservation> find(PartitionKey key, String reservationId) {
+        return run(() -> {
+            Partition p = partitions.get(key);
+            return p == null ? null : p.manager.findById(reservationId);
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Reservation>> searchByCustomerName(String name) {
+        return run(() -> {
+            List<Reservation> found = new ArrayList<>();
+            for (Partition p : partitions.values()) found.addAll(p.manager.searchByCustomerName(name));
+            return found;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Set<PartitionKey>> partitions() {
+        return run(() -> new HashSet<>(partitions.keySet()));
+    }
+
+    @Override
+    public CompletableFuture<PartitionImage> export(PartitionKey key) {
+        return run(() -> {
+            Partition p = partitions.get(key);
+            if (p == null) return new PartitionImage(new ArrayList<>(), new ArrayList<>());
+            return PartitionImage.of(p.manager.snapshot());
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> load(PartitionKey key, PartitionImage image) {
+        return run(() -> {
+            Partition p = partition(key);
+            for (PartitionImage.CarRow row : image.getCars()) {
+                Car car = p.inventory.getCar(row.getCarId());
+                if (car == null) {
+                    car = new Car(row.getCarId(), row.getModel(), row.getCategory());
+                    car.setAvailability(row.getStatus());
+                    p.inventory.addCar(car);
+                }
+            }
+            for (PartitionImage.ReservationRow row : image.getReservations()) {
+                Car car = p.inventory.getCar(row.getCarId());
+                if (car == null) continue; // the car was removed after the booking finished
+                Customer customer = new Customer(row.getIdDocument(), row.getName(), row.getContactNumber(),
+                        row.getEmail());
+                p.manager.restore(row.getReservationId(), customer, car, row.getBookingDate(), row.getStartDate(),
+                        row.getNumDays(), row.getExpectedTotalKm(), row.getStatus());
+            }
+            p.manager.finishRestore();
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> drop(PartitionKey key) {
+        return run(() -> {
+            Partition p = partitions.remove(key);
+            if (p != null) p.close();
+            return null;
+        });
+    }
+
+    /** Runs the lifecycle of every partition up to today; see LifecycleEngine.advance(). */
+    public int advance() {
+        int fired = 0;
+        for (Partition p : partitions.values()) fired += p.manager.getLifecycle().advance();
+        return fired;
+    }
+
+    /**
+     * Advances once now and then every period on a daemon thread, for
+     * whichever partitions the node holds at the time.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (ticker != null) return;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lifecycle-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                advance();
+            } catch (RuntimeException ex) {
+                System.err.println("Lifecycle update on " + nodeId + " failed: " + ex.getMessage());
+            }
+        }, 0, period, unit);
+    }
+
+    /** Moves finished reservations of every partition into its archive. */
+    public int archiveTerminal() {
+        int archived = 0;
+        for (Partition p : partitions.values()) archived += p.manager.archiveTerminal();
+        return archived;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (ticker != null) ticker.shutdownNow();
+            ticker = null;
+        }
+        executor.shutdown();
+        for (Partition p : partitions.values()) p.close();
+        partitions.clear();
+    }
+}
@@ -0,0 +1,185 @@
+package ecoride;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a command log straight against ReservationManager and CarInventory,
+ * without the console, and reports throughput and latency per command.
+ *
+ * One command per line, either CSV or a JSON object with an "op" field and
+ * the same names as the HTTP API:
+ *
+ *   addCar,CARID,MODEL,CATEGORY
+ *   list
+ *   book,IDDOC,NAME,PHONE,EMAIL,CATEGORY,YYYY-MM-DD,DAYS,KM[,REF]
+ *   cancel,RESID|REF
+ *   update,RESID|REF,DAYS,KM
+ *   search,NAME
+ *   invoice,RESID|REF
+ *
+ * A book line may name a REF; later lines can use it in place of the
+ * reservation id, which differs between the original run and the replay.
+ * Blank lines and lines starting with # are skipped.
+ */
+public class CommandReplayer {
+
+    public enum Op { ADD_CAR, LIST, BOOK, CANCEL, UPDATE, SEARCH, INVOICE }
+
+    private final ReservationManager manager;
+    private final CarInventory inventory;
+    private final Map<String, String> refs = new HashMap<>();
+    private final PriceBreakdown price = new PriceBreakdown();
+    private final Map<Op, LatencyHistogram> latency = new EnumMap<>(Op.class);
+    private final Map<Op, long[]> outcomes = new EnumMap<>(Op.class); // {ok, failed}
+    private long malformed;
+    private long elapsedNanos;
+
+    public CommandReplayer(ReservationManager manager) {
+        this.manager = manager;
+        this.inventory = manager.getInventory();
+        for (Op op : Op.values()) {
+            latency.put(op, new LatencyHistogram());
+            outcomes.put(op, new long[2]);
+        }
+    }
+
+    public void replay(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            replay(in.lines().iterator());
+        }
+    }
+
+    public void replay(Iterator<String> lines) {
+        long start = System.nanoTime();
+        while (lines.hasNext()) {
+            String line = lines.next().trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                execute(line.startsWith("{") ? fromJson(line) : line.split(",", -1));
+            } catch (RuntimeException bad) {
+                malformed++;
+            }
+        }
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    private void execute(String[] f) {
+        Op op = parseOp(f[0]);
+        long t0 = System.nanoTime();
+        boolean ok;
+        switch (op) {
+            case ADD_CAR:
+                inventory.addCar(new Car(f[1], f[2], HttpService.parseCategory(f[3])));
+                ok = true;
+                break;
+            case LIST:
+                ok = inventory.listAllCars() != null;
+                break;
+            case BOOK:
+                ok = book(f);
+                break;
+            case CANCEL:
+                ok = manager.cancelReservation(resolve(f[1]));
+                break;
+            case UPDATE:
+                ok = manager.updateReservation(resolve(f[1]), Integer.parseInt(f[2]), Integer.parseInt(f[3]));
+                break;
+            case SEARCH:
+                ok = !manager.searchByCustomerName(f[1]).isEmpty();
+                break;
+            case INVOICE: {
+                Reservation r = manager.findById(resolve(f[1]));
+                ok = r != null;
+                if (ok) {
+                    Invoice inv = manager.newInvoice(r);
+                    inv.setAmounts(manager.calculateInvoiceDetails(r, price));
+                    inv.formatForPrint();
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command " + f[0]);
+        }
+        latency.get(op).recordSince(t0);
+        outcomes.get(op)[ok ? 0 : 1]++;
+    }
+
+    private boolean book(String[] f) {
+        Customer customer = new Customer(f[1], f[2], f[3], f[4]);
+        try {
+            String id = manager.createReservation(customer, HttpService.parseCategory(f[5]),
+                    LocalDate.parse(f[6]), Integer.parseInt(f[7]), Integer.parseInt(f[8]));
+            if (f.length > 9 && !f[9].isEmpty()) refs.put(f[9], id);
+            return true;
+        } catch (IllegalArgumentException rejected) {
+            return false;
+        }
+    }
+
+    private String resolve(String idOrRef) {
+        return refs.getOrDefault(idOrRef, idOrRef);
+    }
+
+    private static Op parseOp(String s) {
+        switch (s.trim().toLowerCase()) {
+            case "addcar": return Op.ADD_CAR;
+            case "list": return Op.LIST;
+            case "book": return Op.BOOK;
+            case "cancel": return Op.CANCEL;
+            case "update": return Op.UPDATE;
+            case "search": return Op.SEARCH;
+            case "invoice": return Op.INVOICE;
+            default: throw new IllegalArgumentException("Unknown command " + s);
+        }
+    }
+
+    // maps a JSON command onto the CSV field order
+    private static String[] fromJson(String line) {
+        Map<String, Object> in = Json.parseObject(line);
+        String op = Json.getString(in, "op");
+        List<String> f = new ArrayList<>();
+        f.add(op);
+        switch (parseOp(op)) {
+            case ADD_CAR: add(f, in, "carId", "model", "category"); break;
+            case BOOK:
+                add(f, in, "idDocument", "name", "contactNumber", "email", "category", "startDate", "numDays", "expectedTotalKm");
+                if (in.containsKey("ref")) add(f, in, "ref");
+                break;
+            case CANCEL: case INVOICE: add(f, in, "reservationId"); break;
+            case UPDATE: add(f, in, "reservationId", "numDays", "expectedTotalKm"); break;
+            case SEARCH: add(f, in, "name"); break;
+            default: break;
+        }
+        return f.toArray(new String[0]);
+    }
+
+    private static void add(List<String> f, Map<String, Object> in, String... names) {
+        for (String n : names) f.add(Json.getString(in, n));
+    }
+
+    public String report() {
+        long total = 0;
+        for (long[] o : outcomes.values()) total += o[0] + o[1];
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Replayed %d commands in %.2f s (%.0f ops/s), %d malformed lines%n",
+                total, seconds, seconds == 0 ? 0.0 : total / seconds, malformed));
+        for (Op op : Op.values()) {
+            long[] o = outcomes.get(op);
+            if (o[0] + o[1] == 0) continue;
+            sb.append(String.format("  %-8s ok=%-8d failed=%-8d %s%n", op, o[0], o[1], latency.get(op).summary()));
+        }
+        return sb.toString();
+    }
+}
@@ -1,32 +1,88 @@
 package ecoride;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * Domain entity representing a Customer.
+ * Name, contact number and email are kept together in one UTF-8 byte
+ * array and decoded on access; CustomerRegistry shares one instance per
+ * idDocument across all of a customer's reservations.
  */
 public class Customer {
+    private static final int NULL = 0xFFFF;
+
     private final String idDocument; // NIC or Passport
-    private String name;
-    private String contactNumber;
-    private String email;
+    // name, contact number, email: each a 2-byte length (NULL for null) and its UTF-8 bytes
+    private volatile byte[] details;
 
     public Customer(String idDocument, String name, String contactNumber, String email) {
         this.idDocument = idDocument;
-        this.name = name;
-        this.contactNumber = contactNumber;
-        this.email = email;
+        this.details = encode(name, contactNumber, email);
     }
 
     public String getIdDocument() { return idDocument; }
-    public String getName() { return name; }
-    public String getContactNumber() { return contactNumber; }
-    public String getEmail() { return email; }
+    public String getName() { return field(0); }
+    public String getContactNumber() { return field(1); }
+    public String getEmail() { return field(2); }
+
+    public synchronized void setName(String name) { details = encode(name, getContactNumber(), getEmail()); }
+    public synchronized void setContactNumber(String contactNumber) { details = encode(getName(), contactNumber, getEmail()); }
+    public synchronized void setEmail(String email) { details = encode(getName(), getContactNumber(), email); }
+
+    /** Whether name, contact number and email all equal other's. */
+    public boolean sameDetails(Customer other) {
+        return Arrays.equals(details, other.details);
+    }
+
+    // used by CustomerRegistry when a returning customer's details changed
+    void copyDetails(Customer from) {
+        details = from.details;
+    }
+
+    private String field(int index) {
+        byte[] d = details;
+        int pos = 0;
+        for (int i = 0; i < index; i++) {
+            int len = length(d, pos);
+            pos += 2 + (len == NULL ? 0 : len);
+        }
+        int len = length(d, pos);
+        return len == NULL ? null : new String(d, pos + 2, len, StandardCharsets.UTF_8);
+    }
 
-    public void setName(String name) { this.name = name; }
-    public void setContactNumber(String contactNumber) { this.contactNumber = contactNumber; }
-    public void setEmail(String email) { this.email = email; }
+    private static int length(byte[] d, int pos) {
+        return (d[pos] & 0xFF) << 8 | (d[pos + 1] & 0xFF);
+    }
+
+    private static byte[] encode(String... fields) {
+        byte[][] parts = new byte[fields.length][];
+        int size = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == null) {
+                size += 2;
+                continue;
+            }
+            parts[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            if (parts[i].length >= NULL) throw new IllegalArgumentException("Customer detail too long.");
+            size += 2 + parts[i].length;
+        }
+        byte[] d = new byte[size];
+        int pos = 0;
+        for (byte[] p : parts) {
+            int len = p == null ? NULL : p.length;
+            d[pos++] = (byte) (len >>> 8);
+            d[pos++] = (byte) len;
+            if (p != null) {
+                System.arraycopy(p, 0, d, pos, p.length);
+                pos += p.length;
+            }
+        }
+        return d;
+    }
 
     @Override
     public String toString() {
-        return String.format("%s (%s) - %s", name, idDocument, contactNumber);
+        return String.format("%s (%s) - %s", getName(), idDocument, getContactNumber());
     }
 }
@@ -0,0 +1,285 @@
+package ecoride;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory search over the customers seen in bookings, one entry per
+ * idDocument. Names are indexed by trigrams of their words, so a query
+ * matches on word prefixes ("per" finds "Nimal Perera") and tolerates a
+ * typo or two; idDocument, contact number and email are exact lookups.
+ *
+ * Updated as bookings arrive; a returning customer with unchanged details
+ * costs a few string compares. A query draws candidates from its rarest
+ * trigrams only, at most MAX_CANDIDATES of them, and scores those against
+ * the rest, so its cost is bounded however common the name is.
+ */
+public class CustomerIndex {
+    static final int MAX_CANDIDATES = 1_000;
+
+    private final Map<String, Entry> byIdDocument = new ConcurrentHashMap<>();
+    private final Map<String, Posting> byGram = new ConcurrentHashMap<>();
+    private final Map<String, Set<Entry>> byPhone = new ConcurrentHashMap<>();
+    private final Map<String, Set<Entry>> byEmail = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the customer, or re-indexes them if their name or contact
+     * details differ from the last booking under the same idDocument.
+     */
+    public void add(Customer customer) {
+        Entry e = byIdDocument.computeIfAbsent(idKey(customer.getIdDocument()), k -> new Entry());
+        e.update(customer);
+    }
+
+    public int size() {
+        return byIdDocument.size();
+    }
+
+    public Customer findByIdDocument(String idDocument) {
+        Entry e = byIdDocument.get(idKey(idDocument));
+        return e == null ? null : e.customer;
+    }
+
+    /** Matches on the last nine digits, so "+94 77 123 4567" finds "0771234567". */
+    public List<Customer> findByContactNumber(String contactNumber) {
+        return customers(byPhone.get(phoneKey(contactNumber)));
+    }
+
+    public List<Customer> findByEmail(String email) {
+        return customers(byEmail.get(emailKey(email)));
+    }
+
+    /**
+     * Up to k customers whose names best match the query, best first.
+     * Names containing the query at a word start rank above looser
+     * matches; ties go to the shorter name.
+     */
+    public List<Customer> search(String query, int k) {
+        String normalized = normalizeName(query);
+        String[] grams = grams(normalized, true);
+        if (grams.length == 0 || k <= 0) return new ArrayList<>();
+
+        // a match shares at least half the query's trigrams, so it is in one of the rarest
+        // length - needed + 1 postings
+        int needed = (grams.length + 1) / 2;
+        Posting[] postings = new Posting[grams.length];
+        for (int i = 0; i < grams.length; i++) postings[i] = byGram.getOrDefault(grams[i], Posting.EMPTY);
+        Arrays.sort(postings, (a, b) -> Integer.compare(a.size, b.size));
+        Set<Entry> candidates = new HashSet<>();
+        for (int i = 0; i <= grams.length - needed && candidates.size() < MAX_CANDIDATES; i++) {
+            postings[i].collect(candidates, MAX_CANDIDATES);
+        }
+
+        String phrase = " " + normalized;
+        PriorityQueue<Match> top = new PriorityQueue<>(k + 1);
+        for (Entry e : candidates) {
+            String[] own = e.grams;
+            int common = 0;
+            for (String g : grams) {
+                if (Arrays.binarySearch(own, g) >= 0) common++;
+            }
+            if (common < needed) continue;
+            String name = e.name;
+            double score = 2.0 * common / (grams.length + own.length);
+            if ((" " + name).contains(phrase)) score += 1.0;
+            top.add(new Match(e.customer, score, name.length()));
+            if (top.size() > k) top.poll();
+        }
+        List<Customer> out = new ArrayList<>(top.size());
+        while (!top.isEmpty()) out.add(top.poll().customer);
+        Collections.reverse(out);
+        return out;
+    }
+
+    /**
+     * Whether the name contains the query at a word start, ignoring case
+     * and punctuation: "Nimal Perera" matches "perera" and "nimal per".
+     */
+    public static boolean matchesPrefix(String name, String query) {
+        return (" " + normalizeName(name)).contains(" " + normalizeName(query));
+    }
+
+    private static List<Customer> customers(Set<Entry> entries) {
+        List<Customer> out = new ArrayList<>();
+        if (entries != null) for (Entry e : entries) out.add(e.customer);
+        return out;
+    }
+
+    private static void put(Map<String, Set<Entry>> index, String key, Entry e) {
+        if (key.isEmpty()) return;
+        index.computeIfAbsent(key, x -> ConcurrentHashMap.newKeySet()).add(e);
+    }
+
+    private static void remove(Map<String, Set<Entry>> index, String key, Entry e) {
+        Set<Entry> set = index.get(key);
+        if (set != null) set.remove(e);
+    }
+
+    // ---- normalization ----
+
+    static String idKey(String idDocument) {
+        return idDocument.trim().toUpperCase(Locale.ROOT);
+    }
+
+    static String phoneKey(String contactNumber) {
+        if (contactNumber == null) return "";
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < contactNumber.length(); i++) {
+            char c = contactNumber.charAt(i);
+            if (c >= '0' && c <= '9') digits.append(c);
+        }
+        return digits.length() > 9 ? digits.substring(digits.length() - 9) : digits.toString();
+    }
+
+    static String emailKey(String email) {
+        return email == null ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // lower case words separated by single spaces
+    static String normalizeName(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        boolean space = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = Character.toLowerCase(name.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        int n = sb.length();
+        if (n > 0 && sb.charAt(n - 1) == ' ') sb.setLength(n - 1);
+        return sb.toString();
+    }
+
+    /**
+     * Sorted, distinct trigrams of each word padded as "  word ", so short
+     * prefixes still have a trigram ("  p", " pe") and the word end has its
+     * own. In a query the last word may still be being typed, so it gets
+     * no end-of-word trigram.
+     */
+    static String[] grams(String normalized, boolean query) {
+        if (normalized.isEmpty()) return new String[0];
+        List<String> all = new ArrayList<>();
+        String[] words = normalized.split(" ");
+        for (int w = 0; w < words.length; w++) {
+            String padded = "  " + words[w] + (query && w == words.length - 1 ? "" : " ");
+            for (int i = 0; i + 3 <= padded.length(); i++) all.add(padded.substring(i, i + 3));
+        }
+        String[] sorted = all.toArray(new String[0]);
+        Arrays.sort(sorted);
+        int n = 0;
+        for (String g : sorted) {
+            if (n == 0 || !g.equals(sorted[n - 1])) sorted[n++] = g;
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    /**
+     * The entries having one trigram. Writers lock; readers walk the
+     * published prefix without locking and may miss an entry mid-rename.
+     */
+    private static final class Posting {
+        static final Posting EMPTY = new Posting();
+
+        private volatile Entry[] items = new Entry[4];
+        private volatile int size;
+
+        synchronized void add(Entry e) {
+            Entry[] a = items;
+            if (size == a.length) items = a = Arrays.copyOf(a, a.length * 2);
+            a[size] = e;
+            size++;
+        }
+
+        // copies, so a reader of the old array still sees a consistent prefix
+        synchronized void remove(Entry e) {
+            Entry[] a = items;
+            for (int i = 0; i < size; i++) {
+                if (a[i] != e) continue;
+                Entry[] b = Arrays.copyOf(a, a.length);
+                System.arraycopy(a, i + 1, b, i, size - i - 1);
+                b[size - 1] = null;
+                items = b;
+                size--;
+                return;
+            }
+        }
+
+        void collect(Set<Entry> into, int limit) {
+            int n = size;
+            Entry[] a = items;
+            for (int i = 0; i < n && i < a.length && into.size() < limit; i++) {
+                if (a[i] != null) into.add(a[i]);
+            }
+        }
+    }
+
+    /**
+     * One customer, indexed under the name and contact details of their
+     * latest booking.
+     */
+    private final class Entry {
+        volatile Customer customer;
+        volatile String name = "";
+        volatile String[] grams = new String[0];
+        private String phone = "";
+        private String email = "";
+
+        synchronized void update(Customer c) {
+            customer = c;
+            String newName = normalizeName(c.getName());
+            if (!newName.equals(name)) {
+                for (String g : grams) {
+                    Posting p = byGram.get(g);
+                    if (p != null) p.remove(this);
+                }
+                String[] fresh = grams(newName, false);
+                for (String g : fresh) byGram.computeIfAbsent(g, x -> new Posting()).add(this);
+                grams = fresh;
+                name = newName;
+            }
+            String newPhone = phoneKey(c.getContactNumber());
+            if (!newPhone.equals(phone)) {
+                remove(byPhone, phone, this);
+                put(byPhone, newPhone, this);
+                phone = newPhone;
+            }
+            String newEmail = emailKey(c.getEmail());
+            if (!newEmail.equals(email)) {
+                remove(byEmail, email, this);
+                put(byEmail, newEmail, this);
+                email = newEmail;
+            }
+        }
+    }
+
+    private static final class Match implements Comparable<Match> {
+        final Customer customer;
+        final double score;
+        final int length;
+
+        Match(Customer customer, double score, int length) {
+            this.customer = customer;
+            this.score = score;
+            this.length = length;
+        }
+
+        // worst first, for the bounded heap
+        @Override
+        public int compareTo(Match o) {
+            int c = Double.compare(score, o.score);
+            return c != 0 ? c : Integer.compare(o.length, length);
+        }
+    }
+}
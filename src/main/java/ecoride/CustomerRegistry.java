@@ -0,0 +1,113 @@
+package ecoride;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One shared Customer per idDocument, with that customer's reservations
+ * in booking order. A booking made with a fresh Customer object is
+ * switched to the shared one, whose details are updated to the latest
+ * booking's if they differ. Keeps the search index in step.
+ *
+ * Reservations moved to the archive are dropped from the live list and
+ * read back from the archive.
+ */
+public class CustomerRegistry {
+    private final Map<String, Entry> byIdDocument = new ConcurrentHashMap<>();
+    private final CustomerIndex index;
+    private final ReservationArchive archive;
+
+    public CustomerRegistry(CustomerIndex index, ReservationArchive archive) {
+        this.index = index;
+        this.archive = archive;
+    }
+
+    /**
+     * Returns the shared instance for customer's idDocument, registering
+     * customer as that instance if the idDocument is new.
+     */
+    public Customer intern(Customer customer) {
+        String key = CustomerIndex.idKey(customer.getIdDocument());
+        Entry e = byIdDocument.get(key);
+        if (e == null) {
+            Entry fresh = new Entry(customer);
+            e = byIdDocument.putIfAbsent(key, fresh);
+            if (e == null) {
+                index.add(customer);
+                return customer;
+            }
+        }
+        Customer shared = e.customer;
+        if (shared != customer && !shared.sameDetails(customer)) {
+            synchronized (e) {
+                shared.copyDetails(customer);
+                index.add(shared);
+            }
+        }
+        return shared;
+    }
+
+    public Customer find(String idDocument) {
+        Entry e = byIdDocument.get(CustomerIndex.idKey(idDocument));
+        return e == null ? null : e.customer;
+    }
+
+    public int size() {
+        return byIdDocument.size();
+    }
+
+    /**
+     * The customer's reservations, archived ones first, each tier in
+     * booking order; empty if the idDocument is unknown.
+     */
+    public List<Reservation> reservations(String idDocument) {
+        Entry e = byIdDocument.get(CustomerIndex.idKey(idDocument));
+        if (e == null) return Collections.emptyList();
+        List<Reservation> out = archive.forCustomer(e.customer);
+        out.addAll(e.live());
+        return out;
+    }
+
+    // r's customer must be the interned one
+    void addReservation(Reservation r) {
+        Entry e = byIdDocument.get(CustomerIndex.idKey(r.getCustomer().getIdDocument()));
+        if (e != null) e.add(r);
+    }
+
+    // called once r is in the archive
+    void archived(Reservation r) {
+        Entry e = byIdDocument.get(CustomerIndex.idKey(r.getCustomer().getIdDocument()));
+        if (e != null) e.remove(r);
+    }
+
+    private static final class Entry {
+        final Customer customer;
+        private Reservation[] items = new Reservation[2];
+        private int size;
+
+        Entry(Customer customer) {
+            this.customer = customer;
+        }
+
+        synchronized void add(Reservation r) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = r;
+        }
+
+        synchronized void remove(Reservation r) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] != r) continue;
+                System.arraycopy(items, i + 1, items, i, size - i - 1);
+                items[--size] = null;
+                return;
+            }
+        }
+
+        synchronized List<Reservation> live() {
+            return Arrays.asList(Arrays.copyOf(items, size));
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package ecoride;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Publishes every car and reservation change as a ChangeEvent, so billing,
+ * analytics and notifications can follow changes instead of rescanning
+ * getAllReservations().
+ *
+ * Events go into one bounded ring that all subscribers read from at their
+ * own pace; publishing never waits for a subscriber. A subscriber receives
+ * batches of up to maxBatch events, one batch per unit of demand, and may
+ * start from any sequence still in the ring. One that falls more than the
+ * ring's capacity behind is dropped with an error and can resubscribe from
+ * getOldestSequence(), or rebuild from the manager.
+ *
+ * Publishing takes a sequence with one atomic increment and writes the
+ * event into its slot, without a lock. Readers stop at the first sequence
+ * whose event is not written yet, so they see events in sequence order.
+ */
+public class EventStream implements ChangeListener, Flow.Publisher<List<ChangeEvent>> {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private final AtomicReferenceArray<ChangeEvent> ring;
+    private final int mask;
+    private final int maxBatch;
+    private final Clock clock;
+    private final Executor executor;
+    private final Metrics metrics;
+    private final List<Delivery> subscriptions = new CopyOnWriteArrayList<>();
+    // sequence of the newest event taken by a publisher; the first event is 1
+    private final AtomicLong last = new AtomicLong();
+    private volatile boolean closed;
+
+    public EventStream(Clock clock, Metrics metrics) {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_BATCH, clock, Executors.newVirtualThreadPerTaskExecutor(), metrics);
+    }
+
+    /**
+     * capacity is rounded up to a power of two; executor runs deliveries.
+     */
+    public EventStream(int capacity, int maxBatch, Clock clock, Executor executor, Metrics metrics) {
+        if (capacity < 1 || maxBatch < 1) throw new IllegalArgumentException("Capacity and batch size must be positive.");
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.maxBatch = maxBatch;
+        this.clock = clock;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Subscribes from the next event on.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<ChangeEvent>> subscriber) {
+        subscribe(subscriber, last.get() + 1);
+    }
+
+    /**
+     * Subscribes starting at fromSequence, replaying the retained events
+     * before going live. A sequence no longer retained fails the
+     * subscription with IllegalStateException.
+     */
+    public void subscribe(Flow.Subscriber<? super List<ChangeEvent>> subscriber, long fromSequence) {
+        if (subscriber == null) throw new NullPointerException("subscriber");
+        Delivery d = new Delivery(subscriber, Math.max(1, fromSequence));
+        subscriber.onSubscribe(d);
+        if (d.cancelled) return;
+        subscriptions.add(d);
+        if (closed) d.signal();
+    }
+
+    /** Sequence of the newest event, 0 before the first. */
+    public long getLastSequence() {
+        return last.get();
+    }
+
+    /** Oldest sequence that can still be replayed. */
+    public long getOldestSequence() {
+        return oldest();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Copies up to max events starting at fromSequence into out, for callers
+     * that poll. Returns the number copied, or -1 if fromSequence is no
+     * longer retained.
+     */
+    public int read(long fromSequence, int max, List<ChangeEvent> out) {
+        long from = Math.max(1, fromSequence);
+        if (from < oldest()) return -1;
+        int n = (int) Math.max(0, Math.min(max, last.get() - from + 1));
+        int start = out.size();
+        for (int i = 0; i < n; i++) {
+            ChangeEvent e = ring.get((int) (from + i) & mask);
+            if (e == null || e.getSequence() < from + i) return i; // taken, not yet written
+            if (e.getSequence() > from + i) {
+                // overwritten while we read
+                out.subList(start, out.size()).clear();
+                return -1;
+            }
+            out.add(e);
+        }
+        return n;
+    }
+
+    /**
+     * Stops publishing; subscribers get the remaining events, then onComplete.
+     */
+    public void close() {
+        closed = true;
+        for (Delivery d : subscriptions) d.signal();
+    }
+
+    private long oldest() {
+        return Math.max(1, last.get() - ring.length() + 1);
+    }
+
+    private void publish(ChangeEvent.Type type, Car car, Reservation r) {
+        if (closed) return;
+        long seq = last.incrementAndGet();
+        long now = clock.millis();
+        ChangeEvent e = r == null ? new ChangeEvent(seq, type, now, car) : new ChangeEvent(seq, type, now, r);
+        int slot = (int) seq & mask;
+        while (true) {
+            ChangeEvent old = ring.get(slot);
+            // a publisher a whole ring behind leaves the newer event in place
+            if (old != null && old.getSequence() > seq) break;
+            if (ring.compareAndSet(slot, old, e)) break;
+        }
+        metrics.eventsPublished.increment();
+        for (Delivery d : subscriptions) {
+            // an idle subscriber picks the events up when it next requests
+            if (d.demand.get() > 0) d.signal();
+        }
+    }
+
+    // ---- ChangeListener ----
+
+    @Override public void carAdded(Car car) { publish(ChangeEvent.Type.CAR_ADDED, car, null); }
+    @Override public void carUpdated(Car car) { publish(ChangeEvent.Type.CAR_UPDATED, car, null); }
+    @Override public void carRemoved(Car car) { publish(ChangeEvent.Type.CAR_REMOVED, car, null); }
+    @Override public void carStatusChanged(Car car, AvailabilityStatus oldStatus) { publish(ChangeEvent.Type.CAR_STATUS_CHANGED, car, null); }
+    @Override public void reservationCreated(Reservation r) { publish(ChangeEvent.Type.RESERVATION_CREATED, null, r); }
+    @Override public void reservationUpdated(Reservation r, int oldDays, int oldExpectedKm) { publish(ChangeEvent.Type.RESERVATION_UPDATED, null, r); }
+    @Override public void reservationCancelled(Reservation r) { publish(ChangeEvent.Type.RESERVATION_CANCELLED, null, r); }
+    @Override public void reservationStarted(Reservation r) { publish(ChangeEvent.Type.RESERVATION_STARTED, null, r); }
+    @Override public void reservationReassigned(Reservation r, Car oldCar) { publish(ChangeEvent.Type.RESERVATION_REASSIGNED, null, r); }
+    @Override public void reservationCompleted(Reservation r) { publish(ChangeEvent.Type.RESERVATION_COMPLETED, null, r); }
+
+    /**
+     * One subscriber's position and demand. At most one drain runs at a
+     * time; signals that arrive meanwhile make it loop again.
+     */
+    private final class Delivery implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super List<ChangeEvent>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private long next;
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+
+        Delivery(Flow.Subscriber<? super List<ChangeEvent>> subscriber, long from) {
+            this.subscriber = subscriber;
+            this.next = from;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("Request must be positive, got " + n + ".");
+            } else {
+                demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void signal() {
+            if (wip.getAndIncrement() == 0) executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                if (cancelled) return;
+                if (failure != null) {
+                    terminate();
+                    subscriber.onError(failure);
+                    return;
+                }
+                boolean done = closed;
+                long sent = 0;
+                long wanted = demand.get();
+                while (sent < wanted && !cancelled) {
+                    List<ChangeEvent> batch = new ArrayList<>(maxBatch);
+                    if (read(next, maxBatch, batch) < 0) {
+                        metrics.eventSubscribersDropped.increment();
+                        failure = new IllegalStateException("Subscriber fell behind; events from " + next
+                                + " are no longer retained.");
+                        break;
+                    }
+                    if (batch.isEmpty()) break;
+                    next += batch.size();
+                    sent++;
+                    subscriber.onNext(batch);
+                }
+                if (sent > 0 && wanted != Long.MAX_VALUE) demand.addAndGet(-sent);
+                if (failure != null) continue;
+                if (done && !cancelled && next > getLastSequence()) {
+                    terminate();
+                    subscriber.onComplete();
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+
+        private void terminate() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ecoride;
+
+import java.util.Arrays;
+
+/**
+ * Binary indexed tree of longs over non-negative positions (epoch days in
+ * practice): point add and range sum in O(log n). Grows by doubling when a
+ * position past the end is added. Not thread-safe.
+ */
+class FenwickTree {
+    private long[] tree;
+
+    FenwickTree(int capacity) {
+        tree = new long[size(capacity) + 1];
+    }
+
+    private static int size(int capacity) {
+        return Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    }
+
+    void add(long position, long delta) {
+        if (position < 0) throw new IllegalArgumentException("Negative position " + position + ".");
+        if (delta == 0) return;
+        int i = (int) position + 1;
+        while (i >= tree.length) grow();
+        for (; i < tree.length; i += i & -i) tree[i] += delta;
+    }
+
+    /** Sum of positions 0..position inclusive. */
+    long prefix(long position) {
+        if (position < 0) return 0;
+        long s = 0;
+        for (int i = (int) Math.min(position + 1, tree.length - 1); i > 0; i -= i & -i) s += tree[i];
+        return s;
+    }
+
+    /** Sum of positions from..to inclusive. */
+    long sum(long from, long to) {
+        return to < from ? 0 : prefix(to) - prefix(from - 1);
+    }
+
+    // the new top node covers everything, the rest of the new half is empty
+    private void grow() {
+        int n = tree.length - 1;
+        long total = prefix(n - 1);
+        tree = Arrays.copyOf(tree, 2 * n + 1);
+        tree[2 * n] = total;
+    }
+
+    /**
+     * Adds a value to every position of a range and sums ranges, both in
+     * O(log n), with the usual pair of trees.
+     */
+    static final class Ranged {
+        private final FenwickTree slope;
+        private final FenwickTree offset;
+
+        Ranged(int capacity) {
+            slope = new FenwickTree(capacity);
+            offset = new FenwickTree(capacity);
+        }
+
+        /** Adds delta to each position from..to inclusive. */
+        void add(long from, long to, long delta) {
+            if (to < from) return;
+            slope.add(from, delta);
+            slope.add(to + 1, -delta);
+            offset.add(from, delta * from);
+            offset.add(to + 1, -delta * (to + 1));
+        }
+
+        long prefix(long position) {
+            if (position < 0) return 0;
+            return slope.prefix(position) * (position + 1) - offset.prefix(position);
+        }
+
+        long sum(long from, long to) {
+            return to < from ? 0 : prefix(to) - prefix(from - 1);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package ecoride;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Re-packs confirmed future reservations onto the cars of their category so
+ * that bookings sit back to back and whole cars stay free for long rentals.
+ *
+ * Reservations that have started, or start before the freeze day, stay
+ * where they are and make their car busy until they end. The rest are
+ * sorted by start date and placed greedily. Each goes to the in-service car
+ * that became free most recently before its start, which is best-fit
+ * interval partitioning. Processing in start order, any free car keeps the
+ * rest feasible, so the greedy pass places everything whenever the current
+ * assignment is valid. A plan is only applied if it improves utilization.
+ *
+ * Categories are planned in parallel on a fork/join pool. Bookings and other
+ * calendar changes wait while a run holds the categories.
+ */
+public class FleetOptimizer {
+    private static final int COLLECT_CHUNK = 4096;
+
+    private final ReservationManager manager;
+    private final ForkJoinPool pool;
+    private final int freezeDays;
+
+    public FleetOptimizer(ReservationManager manager) {
+        this(manager, ForkJoinPool.commonPool(), 1);
+    }
+
+    /**
+     * freezeDays: reservations starting sooner than this many days from
+     * today keep their car.
+     */
+    public FleetOptimizer(ReservationManager manager, ForkJoinPool pool, int freezeDays) {
+        if (freezeDays < 0) throw new IllegalArgumentException("Freeze days must be zero or more.");
+        this.manager = manager;
+        this.pool = pool;
+        this.freezeDays = freezeDays;
+    }
+
+    /** Outcome for one category. Utilization is booked days over the days from the freeze day to each car's last booking. */
+    public static final class CategoryReport {
+        private final Category category;
+        private final int cars;
+        private final int movable;
+        private int moved;
+        private double utilizationBefore;
+        private double utilizationAfter;
+        private int idleCarsBefore;
+        private int idleCarsAfter;
+        private long bookedDays;
+        private long spanBefore;
+        private long spanAfter;
+        private boolean applied;
+
+        CategoryReport(Category category, int cars, int movable) {
+            this.category = category;
+            this.cars = cars;
+            this.movable = movable;
+        }
+
+        public Category getCategory() { return category; }
+        public int getCars() { return cars; }
+        public int getMovable() { return movable; }
+        public int getMoved() { return moved; }
+        public double getUtilizationBefore() { return utilizationBefore; }
+        public double getUtilizationAfter() { return utilizationAfter; }
+        public int getIdleCarsBefore() { return idleCarsBefore; }
+        public int getIdleCarsAfter() { return idleCarsAfter; }
+        public boolean isApplied() { return applied; }
+
+        @Override
+        public String toString() {
+            return String.format("%-15s cars=%d movable=%d moved=%d utilization %.1f%% -> %.1f%% (%+.1f pts), idle cars %d -> %d%s",
+                    category, cars, movable, moved, utilizationBefore * 100.0, utilizationAfter * 100.0,
+                    (utilizationAfter - utilizationBefore) * 100.0, idleCarsBefore, idleCarsAfter,
+                    applied ? "" : " (kept)");
+        }
+    }
+
+    /** Outcome of one run over all categories. */
+    public static final class Report {
+        private final List<CategoryReport> categories;
+        private final long elapsedNanos;
+
+        Report(List<CategoryReport> categories, long elapsedNanos) {
+            this.categories = categories;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<CategoryReport> getCategories() { return categories; }
+
+        public int getMoved() {
+            int n = 0;
+            for (CategoryReport c : categories) n += c.moved;
+            return n;
+        }
+
+        public double getUtilizationBefore() {
+            long booked = 0, span = 0;
+            for (CategoryReport c : categories) {
+                booked += c.bookedDays;
+                span += c.spanBefore;
+            }
+            return span == 0 ? 0.0 : (double) booked / span;
+        }
+
+        public double getUtilizationAfter() {
+            long booked = 0, span = 0;
+            for (CategoryReport c : categories) {
+                booked += c.bookedDays;
+                span += c.applied ? c.spanAfter : c.spanBefore;
+            }
+            return span == 0 ? 0.0 : (double) booked / span;
+        }
+
+        /** Utilization after minus before, as a fraction. */
+        public double getUtilizationGain() {
+            return getUtilizationAfter() - getUtilizationBefore();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Fleet optimization: %d reassigned, utilization %.1f%% -> %.1f%% (%+.1f pts) in %.1f ms%n",
+                    getMoved(), getUtilizationBefore() * 100.0, getUtilizationAfter() * 100.0,
+                    getUtilizationGain() * 100.0, elapsedNanos / 1e6));
+            for (CategoryReport c : categories) sb.append("  ").append(c).append('\n');
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Re-optimizes every category. Blocks bookings and other calendar
+     * changes until it returns.
+     */
+    public Report optimize() {
+        return optimize(EnumSet.allOf(Category.class));
+    }
+
+    public Report optimize(Set<Category> categories) {
+        long t0 = System.nanoTime();
+        Category[] order = categories.toArray(new Category[0]);
+        Arrays.sort(order); // fixed lock order
+        List<Lock> held = new ArrayList<>();
+        try {
+            for (Category c : order) {
+                Lock exclusive = manager.assignmentLock(c).writeLock();
+                exclusive.lock();
+                held.add(exclusive);
+            }
+            Reservation[] all = manager.getLiveReservations().toArray(new Reservation[0]);
+            List<List<Reservation>> byCategory = pool.invoke(new Collect(all, 0, all.length));
+
+            List<Plan> plans = new ArrayList<>();
+            for (Category c : order) plans.add(new Plan(c, byCategory.get(c.ordinal())));
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(plans);
+                }
+            });
+            List<CategoryReport> reports = new ArrayList<>();
+            for (Plan p : plans) reports.add(p.report);
+            return new Report(reports, System.nanoTime() - t0);
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) held.get(i).unlock();
+        }
+    }
+
+    // splits the reservation array and groups the ones holding a car by category;
+    // ForkJoinTask is Serializable, but these tasks never leave the pool
+    private static final class Collect extends RecursiveTask<List<List<Reservation>>> {
+        private static final long serialVersionUID = 1L;
+        private final transient Reservation[] all;
+        private final int from, to;
+
+        Collect(Reservation[] all, int from, int to) {
+            this.all = all;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<List<Reservation>> compute() {
+            if (to - from <= COLLECT_CHUNK) {
+                List<List<Reservation>> out = new ArrayList<>();
+                for (int i = 0; i < Category.values().length; i++) out.add(new ArrayList<>());
+                for (int i = from; i < to; i++) {
+                    Reservation r = all[i];
+                    if (r.holdsCar()) out.get(r.getCar().getCategory().ordinal()).add(r);
+                }
+                return out;
+            }
+            int mid = (from + to) >>> 1;
+            Collect left = new Collect(all, from, mid);
+            left.fork();
+            List<List<Reservation>> right = new Collect(all, mid, to).compute();
+            List<List<Reservation>> out = left.join();
+            for (int i = 0; i < out.size(); i++) out.get(i).addAll(right.get(i));
+            return out;
+        }
+    }
+
+    private final class Plan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Category category;
+        private final transient List<Reservation> holding;
+        transient CategoryReport report;
+
+        Plan(Category category, List<Reservation> holding) {
+            this.category = category;
+            this.holding = holding;
+        }
+
+        @Override
+        protected void compute() {
+            long freeze = manager.today().toEpochDay() + freezeDays;
+            List<Car> cars = manager.getInventory().listInService(category);
+            Map<Car, Integer> index = new IdentityHashMap<>();
+            for (Car c : cars) index.put(c, index.size());
+
+            long[] ready = new long[cars.size()];     // busy with fixed bookings until
+            long[] lastBefore = new long[cars.size()]; // end of last booking, current assignment
+            Arrays.fill(ready, freeze);
+            Arrays.fill(lastBefore, freeze);
+            long booked = 0;
+            List<Reservation> movable = new ArrayList<>();
+            for (Reservation r : holding) {
+                long start = r.getRentalStartDate().toEpochDay();
+                long end = start + r.getNumDays();
+                Integer car = index.get(r.getCar());
+                boolean fixed = r.getStatus() != ReservationStatus.ACTIVE || start < freeze;
+                if (fixed) {
+                    if (car == null || end <= freeze) continue; // on a car out of service, or over before the horizon
+                    ready[car] = Math.max(ready[car], end);
+                    lastBefore[car] = Math.max(lastBefore[car], end);
+                    booked += end - freeze;
+                } else {
+                    movable.add(r);
+                    booked += end - start;
+                    if (car != null) lastBefore[car] = Math.max(lastBefore[car], end);
+                }
+            }
+            report = new CategoryReport(category, cars.size(), movable.size());
+            report.bookedDays = booked;
+            report.spanBefore = span(lastBefore, freeze);
+            report.idleCarsBefore = idle(lastBefore, freeze);
+            report.utilizationBefore = ratio(booked, report.spanBefore);
+            report.spanAfter = report.spanBefore;
+            report.idleCarsAfter = report.idleCarsBefore;
+            report.utilizationAfter = report.utilizationBefore;
+
+            Reservation[] order = movable.toArray(new Reservation[0]);
+            Arrays.sort(order, Comparator.comparing(Reservation::getRentalStartDate)
+                    .thenComparing(Reservation::getNumDays, Comparator.reverseOrder()));
+            int[] target = assign(order, cars, index, ready);
+            if (target == null) return; // nothing valid to compare against; leave the category alone
+
+            long[] lastAfter = ready.clone(); // assign() advanced ready to each car's last end
+            report.spanAfter = span(lastAfter, freeze);
+            report.idleCarsAfter = idle(lastAfter, freeze);
+            report.utilizationAfter = ratio(booked, report.spanAfter);
+            if (report.spanAfter >= report.spanBefore && report.idleCarsAfter <= report.idleCarsBefore) {
+                report.utilizationAfter = report.utilizationBefore;
+                report.spanAfter = report.spanBefore;
+                report.idleCarsAfter = report.idleCarsBefore;
+                return; // no better than what we have
+            }
+            apply(order, cars, target);
+            report.applied = true;
+        }
+
+        // greedy best-fit interval partitioning; null if some reservation fits nowhere
+        private int[] assign(Reservation[] order, List<Car> cars, Map<Car, Integer> index, long[] ready) {
+            TreeMap<Long, LinkedHashSet<Integer>> freeSince = new TreeMap<>();
+            for (int i = 0; i < ready.length; i++) freeSince.computeIfAbsent(ready[i], k -> new LinkedHashSet<>()).add(i);
+            int[] target = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                Reservation r = order[i];
+                long start = r.getRentalStartDate().toEpochDay();
+                Map.Entry<Long, LinkedHashSet<Integer>> fit = freeSince.floorEntry(start);
+                if (fit == null) return null;
+                LinkedHashSet<Integer> tied = fit.getValue();
+                Integer current = index.get(r.getCar());
+                int car = current != null && tied.contains(current) ? current : tied.iterator().next(); // stay put on a tie
+                tied.remove(car);
+                if (tied.isEmpty()) freeSince.remove(fit.getKey());
+                long end = start + r.getNumDays();
+                ready[car] = end;
+                freeSince.computeIfAbsent(end, k -> new LinkedHashSet<>()).add(car);
+                target[i] = car;
+            }
+            return target;
+        }
+
+        // the category is locked, so these calendars only change here
+        private void apply(Reservation[] order, List<Car> cars, int[] target) {
+            for (int i = 0; i < order.length; i++) {
+                Reservation r = order[i];
+                if (cars.get(target[i]) != r.getCar()) r.getCar().getCalendar().release(r.getRentalStartDate());
+            }
+            for (int i = 0; i < order.length; i++) {
+                Reservation r = order[i];
+                Car to = cars.get(target[i]);
+                if (to == r.getCar()) continue;
+                if (!to.getCalendar().book(r.getRentalStartDate(), r.getNumDays())) {
+                    // cannot happen while the plan matches the calendars; keep the old car rather than lose the booking
+                    r.getCar().getCalendar().book(r.getRentalStartDate(), r.getNumDays());
+                    continue;
+                }
+                manager.reassign(r, to);
+                report.moved++;
+            }
+        }
+    }
+
+    private static long span(long[] lastEnd, long freeze) {
+        long total = 0;
+        for (long end : lastEnd) total += end - freeze;
+        return total;
+    }
+
+    private static int idle(long[] lastEnd, long freeze) {
+        int n = 0;
+        for (long end : lastEnd) if (end <= freeze) n++;
+        return n;
+    }
+
+    private static double ratio(long booked, long span) {
+        return span == 0 ? 0.0 : (double) booked / span;
+    }
+}
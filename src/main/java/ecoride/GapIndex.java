@@ -0,0 +1,181 @@
+package ecoride;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The free gaps of the in-service cars of one category, so a car free for
+ * a period is found without visiting every car. A gap is the run of days
+ * [start, end) between two bookings of a car, open-ended before its first
+ * booking and after its last. A period [from, to) fits a car exactly when
+ * one of its gaps has start <= from and end >= to.
+ *
+ * Gaps sit in a treap ordered by start day (longer gaps first on a tie),
+ * each node keeping the latest end in its subtree, so a lookup skips every
+ * subtree whose gaps all end too early and costs O(log^2 gaps) at worst.
+ *
+ * CarCalendar updates its car's gaps under the lock here; CarInventory
+ * holds the same lock across picking a car and booking it.
+ */
+final class GapIndex {
+    static final long OPEN_START = Long.MIN_VALUE;
+    static final long OPEN_END = Long.MAX_VALUE;
+
+    private static final class Node {
+        final Car car;
+        final long seq;
+        final long start;
+        final long end;
+        final int priority;
+        long maxEnd;
+        Node left;
+        Node right;
+
+        Node(Car car, long seq, long start, long end, int priority) {
+            this.car = car;
+            this.seq = seq;
+            this.start = start;
+            this.end = end;
+            this.priority = priority;
+            this.maxEnd = end;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private Node root;
+    private int seed = 0x2545F491;
+
+    void lock() { lock.lock(); }
+    void unlock() { lock.unlock(); }
+
+    // ---- updates, by CarCalendar with the lock held; empty gaps are not kept ----
+
+    void add(Car car, long seq, long start, long end) {
+        if (start >= end) return;
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        root = insert(root, new Node(car, seq, start, end, seed));
+    }
+
+    void remove(long seq, long start, long end) {
+        if (start >= end) return;
+        root = delete(root, seq, start, end);
+    }
+
+    // ---- lookups, with the lock held ----
+
+    /** The car whose fitting gap starts earliest, i.e. free the longest before from; or null. */
+    Car earliestFit(long from, long to) {
+        Node n = earliest(root, from, to);
+        return n == null ? null : n.car;
+    }
+
+    /**
+     * The car whose fitting gap starts latest, so the period follows its
+     * previous booking most closely; among gaps starting the same day, the
+     * one that ends soonest. Null if no car is free for the period.
+     */
+    Car latestFit(long from, long to) {
+        Node n = latest(root, from, to);
+        return n == null ? null : n.car;
+    }
+
+    /** Adds every car free for the period to out, in gap order. */
+    void collectFits(long from, long to, List<Car> out) {
+        collect(root, from, to, out);
+    }
+
+    private static Node earliest(Node n, long from, long to) {
+        if (n == null || n.maxEnd < to) return null;
+        Node left = earliest(n.left, from, to);
+        if (left != null) return left;
+        if (n.start > from) return null; // so is everything to the right
+        if (n.end >= to) return n;
+        return earliest(n.right, from, to);
+    }
+
+    private static Node latest(Node n, long from, long to) {
+        if (n == null || n.maxEnd < to) return null;
+        if (n.start > from) return latest(n.left, from, to);
+        Node right = latest(n.right, from, to);
+        if (right != null) return right;
+        if (n.end >= to) return n;
+        return latest(n.left, from, to);
+    }
+
+    private static void collect(Node n, long from, long to, List<Car> out) {
+        if (n == null || n.maxEnd < to) return;
+        collect(n.left, from, to, out);
+        if (n.start > from) return;
+        if (n.end >= to) out.add(n.car);
+        collect(n.right, from, to, out);
+    }
+
+    // ---- treap ----
+
+    private static int compare(long start, long end, long seq, Node n) {
+        if (start != n.start) return start < n.start ? -1 : 1;
+        if (end != n.end) return end > n.end ? -1 : 1;
+        return Long.compare(seq, n.seq);
+    }
+
+    private static Node insert(Node n, Node x) {
+        if (n == null) return x;
+        if (compare(x.start, x.end, x.seq, n) < 0) {
+            n.left = insert(n.left, x);
+            if (n.left.priority > n.priority) n = rotateRight(n);
+        } else {
+            n.right = insert(n.right, x);
+            if (n.right.priority > n.priority) n = rotateLeft(n);
+        }
+        update(n);
+        return n;
+    }
+
+    private static Node delete(Node n, long seq, long start, long end) {
+        if (n == null) throw new IllegalStateException("Gap " + start + ".." + end + " is not indexed.");
+        int c = compare(start, end, seq, n);
+        if (c == 0) return merge(n.left, n.right);
+        if (c < 0) n.left = delete(n.left, seq, start, end);
+        else n.right = delete(n.right, seq, start, end);
+        update(n);
+        return n;
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    private static Node rotateRight(Node n) {
+        Node l = n.left;
+        n.left = l.right;
+        l.right = n;
+        update(n);
+        return l;
+    }
+
+    private static Node rotateLeft(Node n) {
+        Node r = n.right;
+        n.right = r.left;
+        r.left = n;
+        update(n);
+        return r;
+    }
+
+    private static void update(Node n) {
+        long max = n.end;
+        if (n.left != null && n.left.maxEnd > max) max = n.left.maxEnd;
+        if (n.right != null && n.right.maxEnd > max) max = n.right.maxEnd;
+        n.maxEnd = max;
+    }
+}
@@ -0,0 +1,80 @@
+package ecoride;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of partition keys onto node ids. Each node sits at a
+ * number of virtual points on a 64-bit ring and owns the keys that hash up
+ * to one of its points, so adding or removing a node moves only about 1/n
+ * of the keys, all to or from that node.
+ *
+ * Lookups read an immutable ring without locking; adding or removing a
+ * node builds a new one.
+ */
+public class HashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int virtualNodes;
+    private volatile NavigableMap<Long, String> points = new TreeMap<>();
+
+    public HashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public HashRing(int virtualNodes) {
+        if (virtualNodes < 1) throw new IllegalArgumentException("A node needs at least one point on the ring.");
+        this.virtualNodes = virtualNodes;
+    }
+
+    /** Returns false if the node was already on the ring. */
+    public synchronized boolean add(String nodeId) {
+        if (points.containsValue(nodeId)) return false;
+        NavigableMap<Long, String> next = new TreeMap<>(points);
+        for (int i = 0; i < virtualNodes; i++) next.putIfAbsent(hash(nodeId + "#" + i), nodeId);
+        points = next;
+        return true;
+    }
+
+    /** Returns false if the node was not on the ring. */
+    public synchronized boolean remove(String nodeId) {
+        NavigableMap<Long, String> next = new TreeMap<>(points);
+        if (!next.values().removeIf(nodeId::equals)) return false;
+        points = next;
+        return true;
+    }
+
+    /** The node owning key; IllegalStateException if the ring is empty. */
+    public String owner(PartitionKey key) {
+        return owner(key.toString());
+    }
+
+    public String owner(String key) {
+        NavigableMap<Long, String> ring = points;
+        if (ring.isEmpty()) throw new IllegalStateException("No nodes on the ring.");
+        Map.Entry<Long, String> e = ring.ceilingEntry(hash(key));
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    public Set<String> nodes() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(points.values()));
+    }
+
+    // FNV-1a over the chars, then MurmurHash3's finalizer to spread the bits
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
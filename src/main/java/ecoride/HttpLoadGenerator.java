@@ -0,0 +1,100 @@
+package ecoride;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load generator for HttpService. Each client is a virtual
+ * thread that books, looks up and sometimes cancels reservations as fast
+ * as the server answers. Prints throughput and latency percentiles per
+ * operation at the end.
+ *
+ * Usage: HttpLoadGenerator [baseUrl] [clients] [seconds] [fleetSize]
+ * Defaults: http://localhost:8080 200 30 1000
+ */
+public class HttpLoadGenerator {
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int fleetSize = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient http = HttpClient.newBuilder().executor(threads).connectTimeout(Duration.ofSeconds(5)).build();
+
+        Category[] categories = Category.values();
+        for (int i = 0; i < fleetSize; i++) {
+            String body = String.format("{\"carId\":\"L%06d\",\"model\":\"Load Car\",\"category\":\"%s\"}",
+                    i, categories[i % categories.length]);
+            send(http, HttpRequest.newBuilder(URI.create(baseUrl + "/cars")).POST(HttpRequest.BodyPublishers.ofString(body)));
+        }
+
+        LatencyHistogram book = new LatencyHistogram();
+        LatencyHistogram search = new LatencyHistogram();
+        LatencyHistogram cancel = new LatencyHistogram();
+        LongAdder errors = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LocalDate firstDay = LocalDate.now().plusDays(4);
+
+        List<java.util.concurrent.Future<?>> running = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            running.add(threads.submit(() -> {
+                Random rnd = new Random(client);
+                while (System.nanoTime() < deadline) {
+                    try {
+                        String name = "Load Customer " + rnd.nextInt(10_000);
+                        String body = String.format("{\"idDocument\":\"LD%d\",\"name\":\"%s\",\"contactNumber\":\"0700000000\","
+                                        + "\"email\":\"load@example.com\",\"category\":\"%s\",\"startDate\":\"%s\","
+                                        + "\"numDays\":%d,\"expectedTotalKm\":%d}",
+                                rnd.nextInt(10_000), name, categories[rnd.nextInt(categories.length)],
+                                firstDay.plusDays(rnd.nextInt(365)), 1 + rnd.nextInt(7), 100 + rnd.nextInt(900));
+                        long t0 = System.nanoTime();
+                        HttpResponse<String> res = send(http, HttpRequest.newBuilder(URI.create(baseUrl + "/reservations"))
+                                .POST(HttpRequest.BodyPublishers.ofString(body)));
+                        book.recordSince(t0);
+                        if (res.statusCode() >= 500) errors.increment();
+
+                        t0 = System.nanoTime();
+                        send(http, HttpRequest.newBuilder(URI.create(baseUrl + "/reservations?name="
+                                + name.replace(" ", "%20"))).GET());
+                        search.recordSince(t0);
+
+                        if (res.statusCode() == 201 && rnd.nextInt(4) == 0) {
+                            String id = (String) Json.parseObject(res.body()).get("reservationId");
+                            t0 = System.nanoTime();
+                            send(http, HttpRequest.newBuilder(URI.create(baseUrl + "/reservations/" + id)).DELETE());
+                            cancel.recordSince(t0);
+                        }
+                    } catch (Exception ex) {
+                        errors.increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (java.util.concurrent.Future<?> f : running) f.get();
+        threads.shutdown();
+
+        long requests = book.count() + search.count() + cancel.count();
+        System.out.printf("%d clients, %d s: %d requests, %.0f req/s, %d errors%n",
+                clients, seconds, requests, requests / (double) seconds, errors.sum());
+        System.out.println("book   " + book.summary());
+        System.out.println("search " + search.summary());
+        System.out.println("cancel " + cancel.summary());
+    }
+
+    private static HttpResponse<String> send(HttpClient http, HttpRequest.Builder req) throws Exception {
+        return http.send(req.header("Content-Type", "application/json").build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,570 @@
+package ecoride;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * HTTP/JSON front end mirroring the console menu, on the JDK's built-in
+ * server with one virtual thread per request.
+ *
+ *   GET    /cars[?category=HYBRID&available=true]   list cars
+ *   GET    /cars?[category=..&status=..&minPrice=..&maxPrice=..&]limit=N[&after=CURSOR]
+ *                                                   one page of cars by id
+ *   POST   /cars                                    add car {carId, model, category}
+ *   POST   /reservations                            book {idDocument, name, contactNumber, email,
+ *                                                          category, startDate, numDays, expectedTotalKm}
+ *   GET    /reservations?name=..|date=..|from=..&to=..  search
+ *   GET    /reservations?[date=..|from=..&to=..][&idDocument=..&status=..&category=..&minPrice=..
+ *                        &maxPrice=..][&limit=N&after=CURSOR]  filtered listing (see ReservationQuery)
+ *
+ * Listings given limit or after return one page; X-Next-Cursor carries the
+ * after value for the next page and is absent on the last.
+ *   GET    /reservations/{id}                       one reservation
+ *   PUT    /reservations/{id}                       update {numDays, expectedTotalKm}
+ *   DELETE /reservations/{id}                       cancel
+ *   GET    /reservations/{id}/invoice               price breakdown and printable invoice
+ *   GET    /customers?q=..[&k=10]|idDocument=..|phone=..|email=..  customer search and lookup
+ *   GET    /customers/{idDocument}/reservations     one customer's reservations, oldest first
+ *   GET    /quote?category=..&days=..&km=..         price preview at the current pricing version
+ *   GET    /events?after=SEQ[&limit=N]              change events after SEQ, oldest first
+ *   GET    /stats?from=..&to=..[&category=..]       revenue and utilization totals per category
+ *   GET    /metrics                                 text metrics dump
+ */
+public class HttpService {
+    private final ReservationManager manager;
+    private final CarInventory inventory;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final BookingPipeline pipeline;
+
+    public HttpService(ReservationManager manager, int port) throws IOException {
+        this(manager, port, null);
+    }
+
+    /**
+     * With a pipeline, bookings go through it, and a booking turned away
+     * because its queue is full gets 503 with Retry-After.
+     */
+    public HttpService(ReservationManager manager, int port, BookingPipeline pipeline) throws IOException {
+        this.manager = manager;
+        this.pipeline = pipeline;
+        this.inventory = manager.getInventory();
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/cars", ex -> handle(ex, this::cars));
+        server.createContext("/reservations", ex -> handle(ex, this::reservations));
+        server.createContext("/customers", ex -> handle(ex, this::customers));
+        server.createContext("/quote", ex -> handle(ex, this::quote));
+        server.createContext("/stats", ex -> handle(ex, this::stats));
+        server.createContext("/events", ex -> handle(ex, this::events));
+        server.createContext("/metrics", ex -> handle(ex, e -> text(200, manager.getMetrics().dump())));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private interface Route {
+        Response serve(HttpExchange ex) throws IOException;
+    }
+
+    private static final class Response {
+        final int status;
+        final String contentType;
+        final String body;
+        String nextCursor; // sent as X-Next-Cursor when a paged listing has more
+        String retryAfter; // sent as Retry-After when turned away under load
+
+        Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private static Response json(int status, CharSequence body) {
+        return new Response(status, "application/json", body.toString());
+    }
+
+    private static Response text(int status, String body) {
+        return new Response(status, "text/plain; charset=utf-8", body);
+    }
+
+    private static Response error(int status, String message) {
+        StringBuilder sb = new StringBuilder("{");
+        Json.field(sb, "error", message).append('}');
+        return json(status, sb);
+    }
+
+    private void handle(HttpExchange ex, Route route) throws IOException {
+        Response res;
+        try {
+            res = route.serve(ex);
+        } catch (IllegalArgumentException | DateTimeParseException badRequest) {
+            res = error(400, badRequest.getMessage());
+        } catch (RuntimeException failure) {
+            res = error(500, String.valueOf(failure.getMessage()));
+        }
+        byte[] body = res.body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", res.contentType);
+        if (res.nextCursor != null) ex.getResponseHeaders().set("X-Next-Cursor", res.nextCursor);
+        if (res.retryAfter != null) ex.getResponseHeaders().set("Retry-After", res.retryAfter);
+        ex.sendResponseHeaders(res.status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // ---- /cars ----
+
+    private Response cars(HttpExchange ex) throws IOException {
+        switch (ex.getRequestMethod()) {
+            case "GET": {
+                Map<String, String> q = query(ex);
+                String category = q.get("category");
+                if ("true".equalsIgnoreCase(q.get("available"))) {
+                    List<Car> cars = category != null ? inventory.listAvailableByCategory(parseCategory(category))
+                            : inventory.listAvailableCars();
+                    StringBuilder sb = new StringBuilder("[");
+                    for (Car c : cars) {
+                        if (sb.length() > 1) sb.append(',');
+                        car(sb, c);
+                    }
+                    return json(200, sb.append(']'));
+                }
+                CarQuery query = manager.queryCars();
+                if (category != null) query.category(parseCategory(category));
+                if (q.containsKey("status")) query.status(AvailabilityStatus.valueOf(q.get("status").trim().toUpperCase(Locale.ROOT)));
+                if (q.containsKey("minPrice") || q.containsKey("maxPrice")) {
+                    query.dailyPriceBetween(decimal(q.getOrDefault("minPrice", "0"), "minPrice"),
+                            decimal(q.getOrDefault("maxPrice", "Infinity"), "maxPrice"));
+                }
+                if (!q.containsKey("limit") && !q.containsKey("after")) {
+                    return listing(query.stream().iterator(), null, HttpService::car);
+                }
+                if (q.containsKey("limit")) query.limit(number(q.get("limit"), "limit"));
+                Page<Car> page = query.after(q.get("after")).page();
+                return listing(page.getItems().iterator(), page.getNextCursor(), HttpService::car);
+            }
+            case "POST": {
+                Map<String, Object> in = Json.parseObject(body(ex));
+                Car car = new Car(Json.getString(in, "carId"), Json.getString(in, "model"),
+                        parseCategory(Json.getString(in, "category")));
+                try {
+                    inventory.addCar(car);
+                } catch (IllegalArgumentException duplicate) {
+                    return error(409, duplicate.getMessage()); // the only thing addCar rejects
+                }
+                return json(201, car(new StringBuilder(), car));
+            }
+            default:
+                return error(405, "Method not allowed.");
+        }
+    }
+
+    private static StringBuilder car(StringBuilder sb, Car c) {
+        sb.append('{');
+        Json.field(sb, "carId", c.getCarId()).append(',');
+        Json.field(sb, "model", c.getModel()).append(',');
+        Json.field(sb, "category", c.getCategory().name()).append(',');
+        Json.field(sb, "dailyRentalPrice", c.getDailyRentalPrice()).append(',');
+        Json.field(sb, "status", c.getAvailabilityStatus().name());
+        return sb.append('}');
+    }
+
+    // ---- /reservations ----
+
+    private Response reservations(HttpExchange ex) throws IOException {
+        String path = ex.getRequestURI().getPath();
+        String[] parts = path.substring("/reservations".length()).split("/");
+        String id = parts.length > 1 ? URLDecoder.decode(parts[1], StandardCharsets.UTF_8) : null;
+        boolean invoice = parts.length > 2 && "invoice".equals(parts[2]);
+        String method = ex.getRequestMethod();
+
+        if (id == null || id.isEmpty()) {
+            if ("POST".equals(method)) return book(ex);
+            if ("GET".equals(method)) return search(ex);
+            return error(405, "Method not allowed.");
+        }
+        Reservation r = manager.findById(id);
+        if (r == null) return error(404, "Reservation not found.");
+        if (invoice) {
+            return "GET".equals(method) ? invoice(r) : error(405, "Method not allowed.");
+        }
+        switch (method) {
+            case "GET":
+                return json(200, reservation(new StringBuilder(), r));
+            case "PUT":
+            case "PATCH": {
+                if (archived(r)) return error(409, "Reservation is finished and archived.");
+                Map<String, Object> in = Json.parseObject(body(ex));
+                int days = in.containsKey("numDays") ? Json.getInt(in, "numDays") : r.getNumDays();
+                int km = in.containsKey("expectedTotalKm") ? Json.getInt(in, "expectedTotalKm") : r.getExpectedTotalKm();
+                if (days < 1 || km < 0) return error(400, "Days must be at least 1 and km zero or more.");
+                if (!manager.updateReservation(id, days, km)) {
+                    return error(409, "Unable to update (either not found or update window expired).");
+                }
+                return current(id);
+            }
+            case "DELETE":
+                if (archived(r)) return error(409, "Reservation is finished and archived.");
+                if (!manager.cancelReservation(id)) {
+                    return error(409, "Unable to cancel reservation (may be too late or not found).");
+                }
+                return current(id);
+            default:
+                return error(405, "Method not allowed.");
+        }
+    }
+
+    // archived reservations are copies read back from the archive, and final
+    private boolean archived(Reservation r) {
+        return manager.getArchive().contains(r.getId());
+    }
+
+    // the reservation as it stands after a change, wherever it now lives
+    private Response current(String id) {
+        Reservation r = manager.findById(id);
+        return r == null ? error(404, "Reservation not found.") : json(200, reservation(new StringBuilder(), r));
+    }
+
+    private Response book(HttpExchange ex) throws IOException {
+        Map<String, Object> in = Json.parseObject(body(ex));
+        Customer customer = new Customer(Json.getString(in, "idDocument"), Json.getString(in, "name"),
+                Json.getString(in, "contactNumber"), Json.getString(in, "email"));
+        Category category = parseCategory(Json.getString(in, "category"));
+        LocalDate start = LocalDate.parse(Json.getString(in, "startDate"));
+        int days = Json.getInt(in, "numDays");
+        int km = Json.getInt(in, "expectedTotalKm");
+        if (days < 1 || km < 0) return error(400, "Days must be at least 1 and km zero or more.");
+        String resId;
+        try {
+            resId = pipeline == null ? manager.createReservation(customer, category, start, days, km)
+                    : pipeline.submit(customer, category, start, days, km).join();
+        } catch (CompletionException failed) {
+            if (failed.getCause() instanceof RejectedExecutionException) {
+                Response busy = error(503, failed.getCause().getMessage());
+                busy.retryAfter = "1";
+                return busy;
+            }
+            if (failed.getCause() instanceof IllegalArgumentException) {
+                return error(409, "Booking failed: " + failed.getCause().getMessage());
+            }
+            throw failed;
+        } catch (IllegalArgumentException rejected) {
+            return error(409, "Booking failed: " + rejected.getMessage());
+        }
+        return json(201, reservation(new StringBuilder(), manager.findById(resId)));
+    }
+
+    // name is a fuzzy search; the other filters go to a ReservationQuery, paged with limit and after
+    private Response search(HttpExchange ex) {
+        Map<String, String> q = query(ex);
+        if (q.containsKey("name")) {
+            return listing(manager.searchByCustomerName(q.get("name")).iterator(), null, HttpService::reservation);
+        }
+        ReservationQuery query = manager.queryReservations();
+        boolean filtered = true;
+        if (q.containsKey("date")) {
+            LocalDate date = LocalDate.parse(q.get("date"));
+            query.startingBetween(date, date);
+        } else if (q.containsKey("from") && q.containsKey("to")) {
+            query.startingBetween(LocalDate.parse(q.get("from")), LocalDate.parse(q.get("to")));
+        } else {
+            filtered = false;
+        }
+        if (q.containsKey("idDocument")) query.customer(q.get("idDocument"));
+        if (q.containsKey("status")) query.status(ReservationStatus.valueOf(q.get("status").trim().toUpperCase(Locale.ROOT)));
+        if (q.containsKey("category")) query.category(parseCategory(q.get("category")));
+        if (q.containsKey("minPrice") || q.containsKey("maxPrice")) {
+            query.priceBetween(decimal(q.getOrDefault("minPrice", "0"), "minPrice"),
+                    decimal(q.getOrDefault("maxPrice", "1e15"), "maxPrice"));
+        }
+        filtered |= q.containsKey("idDocument") || q.containsKey("status") || q.containsKey("category")
+                || q.containsKey("minPrice") || q.containsKey("maxPrice");
+        boolean paged = q.containsKey("limit") || q.containsKey("after");
+        if (!filtered && !paged) return error(400, "Give name, date, from and to, another filter, or limit.");
+        if (!paged) return listing(query.stream().iterator(), null, HttpService::reservation);
+        if (q.containsKey("limit")) query.limit(number(q.get("limit"), "limit"));
+        Page<Reservation> page = query.after(q.get("after")).page();
+        return listing(page.getItems().iterator(), page.getNextCursor(), HttpService::reservation);
+    }
+
+    private static <T> Response listing(Iterator<T> items, String nextCursor, BiConsumer<StringBuilder, T> write) {
+        StringBuilder sb = new StringBuilder("[");
+        while (items.hasNext()) {
+            if (sb.length() > 1) sb.append(',');
+            write.accept(sb, items.next());
+        }
+        Response res = json(200, sb.append(']'));
+        res.nextCursor = nextCursor;
+        return res;
+    }
+
+    private Response invoice(Reservation r) {
+        long t0 = System.nanoTime();
+        PriceBreakdown p = manager.calculateInvoiceDetails(r, new PriceBreakdown());
+        Invoice inv = manager.newInvoice(r);
+        inv.setAmounts(p);
+        StringBuilder sb = new StringBuilder("{");
+        Json.field(sb, "invoiceId", inv.getInvoiceId()).append(',');
+        Json.field(sb, "reservationId", r.getReservationId()).append(',');
+        Json.field(sb, "base", p.getBase()).append(',');
+        Json.field(sb, "extraCharge", p.getExtraCharge()).append(',');
+        Json.field(sb, "discount", p.getDiscount()).append(',');
+        Json.field(sb, "tax", p.getTax()).append(',');
+        Json.field(sb, "deposit", p.getDeposit()).append(',');
+        Json.field(sb, "payable", p.getPayable()).append(',');
+        Json.field(sb, "printable", inv.formatForPrint()).append('}');
+        manager.getMetrics().recordInvoice(t0);
+        return json(200, sb);
+    }
+
+    // ---- /customers ----
+
+    private Response customers(HttpExchange ex) {
+        if (!"GET".equals(ex.getRequestMethod())) return error(405, "Method not allowed.");
+        String[] parts = ex.getRequestURI().getPath().substring("/customers".length()).split("/");
+        if (parts.length > 1 && !parts[1].isEmpty()) {
+            if (parts.length != 3 || !"reservations".equals(parts[2])) return error(404, "Not found.");
+            String idDocument = URLDecoder.decode(parts[1], StandardCharsets.UTF_8);
+            if (manager.getCustomerRegistry().find(idDocument) == null) return error(404, "Customer not found.");
+            StringBuilder sb = new StringBuilder("[");
+            for (Reservation r : manager.reservationsFor(idDocument)) {
+                if (sb.length() > 1) sb.append(',');
+                reservation(sb, r);
+            }
+            return json(200, sb.append(']'));
+        }
+        Map<String, String> q = query(ex);
+        CustomerIndex index = manager.getCustomers();
+        List<Customer> hits;
+        if (q.containsKey("q")) {
+            int k = q.containsKey("k") ? number(q.get("k"), "k") : 10;
+            if (k < 1 || k > 100) return error(400, "k must be 1-100.");
+            hits = manager.searchCustomers(q.get("q"), k);
+        } else if (q.containsKey("idDocument")) {
+            Customer c = index.findByIdDocument(q.get("idDocument"));
+            hits = c == null ? List.of() : List.of(c);
+        } else if (q.containsKey("phone")) {
+            hits = index.findByContactNumber(q.get("phone"));
+        } else if (q.containsKey("email")) {
+            hits = index.findByEmail(q.get("email"));
+        } else {
+            return error(400, "Give q, idDocument, phone or email.");
+        }
+        StringBuilder sb = new StringBuilder("[");
+        for (Customer c : hits) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append('{');
+            Json.field(sb, "idDocument", c.getIdDocument()).append(',');
+            Json.field(sb, "name", c.getName()).append(',');
+            Json.field(sb, "contactNumber", c.getContactNumber()).append(',');
+            Json.field(sb, "email", c.getEmail()).append('}');
+        }
+        return json(200, sb.append(']'));
+    }
+
+    // ---- /quote ----
+
+    private Response quote(HttpExchange ex) {
+        if (!"GET".equals(ex.getRequestMethod())) return error(405, "Method not allowed.");
+        Map<String, String> q = query(ex);
+        if (!q.containsKey("category") || !q.containsKey("days")) return error(400, "Give category and days.");
+        Category category = parseCategory(q.get("category"));
+        int days = number(q.get("days"), "days");
+        int km = q.containsKey("km") ? number(q.get("km"), "km") : 0;
+        if (days < 1 || km < 0) return error(400, "Days must be at least 1 and km zero or more.");
+        PriceBreakdown p = manager.quote(category, days, km, new PriceBreakdown());
+        StringBuilder sb = new StringBuilder("{");
+        Json.field(sb, "pricingVersion", manager.getPricing().getVersion()).append(',');
+        Json.field(sb, "base", p.getBase()).append(',');
+        Json.field(sb, "extraCharge", p.getExtraCharge()).append(',');
+        Json.field(sb, "discount", p.getDiscount()).append(',');
+        Json.field(sb, "tax", p.getTax()).append(',');
+        Json.field(sb, "deposit", p.getDeposit()).append(',');
+        Json.field(sb, "payable", p.getPayable()).append('}');
+        return json(200, sb);
+    }
+
+    // ---- /stats ----
+
+    private Response stats(HttpExchange ex) {
+        if (!"GET".equals(ex.getRequestMethod())) return error(405, "Method not allowed.");
+        Map<String, String> q = query(ex);
+        if (!q.containsKey("from") || !q.containsKey("to")) return error(400, "Give from and to dates.");
+        LocalDate from = LocalDate.parse(q.get("from"));
+        LocalDate to = LocalDate.parse(q.get("to"));
+        if (to.isBefore(from)) return error(400, "The 'to' date is before 'from'.");
+        Aggregates aggregates = manager.getAggregates();
+        StringBuilder sb = new StringBuilder("[");
+        for (Category c : Category.values()) {
+            if (q.containsKey("category") && c != parseCategory(q.get("category"))) continue;
+            if (sb.length() > 1) sb.append(',');
+            Aggregates.Summary s = aggregates.summary(c, from, to);
+            sb.append('{');
+            Json.field(sb, "category", c.name()).append(',');
+            Json.field(sb, "bookings", s.getBookings()).append(',');
+            Json.field(sb, "revenue", s.getRevenue()).append(',');
+            Json.field(sb, "tax", s.getTax()).append(',');
+            Json.field(sb, "discount", s.getDiscount()).append(',');
+            Json.field(sb, "carDays", s.getCarDays()).append(',');
+            Json.field(sb, "utilization", s.getUtilization()).append(',');
+            Json.field(sb, "activeRentals", s.getActiveRentals()).append(',');
+            Json.field(sb, "carsInService", s.getCarsInService()).append(',');
+            Json.field(sb, "carsUnderMaintenance", s.getCarsUnderMaintenance()).append('}');
+        }
+        return json(200, sb.append(']'));
+    }
+
+    // ---- /events ----
+
+    private Response events(HttpExchange ex) {
+        if (!"GET".equals(ex.getRequestMethod())) return error(405, "Method not allowed.");
+        Map<String, String> q = query(ex);
+        EventStream stream = manager.getEvents();
+        long after = q.containsKey("after") ? longNumber(q.get("after"), "after") : stream.getLastSequence();
+        int limit = q.containsKey("limit") ? number(q.get("limit"), "limit") : EventStream.DEFAULT_MAX_BATCH;
+        if (after < 0 || limit < 1 || limit > 10_000) return error(400, "Give after >= 0 and limit 1-10000.");
+        List<ChangeEvent> events = new ArrayList<>(Math.min(limit, EventStream.DEFAULT_MAX_BATCH));
+        if (stream.read(after + 1, limit, events) < 0) {
+            return error(410, "Events after " + after + " are no longer retained; oldest is "
+                    + stream.getOldestSequence() + ".");
+        }
+        StringBuilder sb = new StringBuilder("{");
+        Json.field(sb, "last", events.isEmpty() ? after : events.get(events.size() - 1).getSequence()).append(',');
+        Json.string(sb, "events").append(":[");
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) sb.append(',');
+            event(sb, events.get(i));
+        }
+        return json(200, sb.append("]}"));
+    }
+
+    private static StringBuilder event(StringBuilder sb, ChangeEvent e) {
+        sb.append('{');
+        Json.field(sb, "sequence", e.getSequence()).append(',');
+        Json.field(sb, "type", e.getType().name()).append(',');
+        Json.field(sb, "timestamp", e.getTimestamp()).append(',');
+        Json.field(sb, "carId", e.getCarId()).append(',');
+        Json.field(sb, "category", e.getCategory().name()).append(',');
+        Json.field(sb, "carStatus", e.getCarStatus().name());
+        if (e.getType().isReservation()) {
+            sb.append(',');
+            Json.field(sb, "reservationId", e.getReservationId()).append(',');
+            Json.field(sb, "startDate", e.getStartDate().toString()).append(',');
+            Json.field(sb, "numDays", e.getNumDays()).append(',');
+            Json.field(sb, "expectedTotalKm", e.getExpectedTotalKm()).append(',');
+            Json.field(sb, "status", e.getReservationStatus().name());
+        }
+        return sb.append('}');
+    }
+
+    private static StringBuilder reservation(StringBuilder sb, Reservation r) {
+        sb.append('{');
+        Json.field(sb, "reservationId", r.getReservationId()).append(',');
+        Json.field(sb, "customer", r.getCustomer().getName()).append(',');
+        Json.field(sb, "idDocument", r.getCustomer().getIdDocument()).append(',');
+        Json.field(sb, "carId", r.getCar().getCarId()).append(',');
+        Json.field(sb, "category", r.getCar().getCategory().name()).append(',');
+        Json.field(sb, "bookingDate", r.getBookingDate().toString()).append(',');
+        Json.field(sb, "startDate", r.getRentalStartDate().toString()).append(',');
+        Json.field(sb, "numDays", r.getNumDays()).append(',');
+        Json.field(sb, "expectedTotalKm", r.getExpectedTotalKm()).append(',');
+        Json.field(sb, "status", r.getStatus().name());
+        return sb.append('}');
+    }
+
+    // ---- helpers ----
+
+    /**
+     * Accepts a category name (any case) or the console's menu number 1-4.
+     */
+    static Category parseCategory(String s) {
+        switch (s.trim()) {
+            case "1": return Category.COMPACT_PETROL;
+            case "2": return Category.HYBRID;
+            case "3": return Category.ELECTRIC;
+            case "4": return Category.LUXURY_SUV;
+            default:
+                try {
+                    return Category.valueOf(s.trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("Unknown category '" + s + "'.");
+                }
+        }
+    }
+
+    private static int number(String s, String name) {
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Parameter '" + name + "' is not a number.");
+        }
+    }
+
+    private static double decimal(String s, String name) {
+        try {
+            return Double.parseDouble(s.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Parameter '" + name + "' is not a number.");
+        }
+    }
+
+    private static long longNumber(String s, String name) {
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Parameter '" + name + "' is not a number.");
+        }
+    }
+
+    private static String body(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> out = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return out;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            out.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,22 @@
+package ecoride;
+
+/**
+ * Source of compact numeric ids. Ids stay longs inside the system and are
+ * only turned into text for people, files and the wire.
+ */
+public interface IdAllocator {
+
+    /** A new id, never handed out before by this allocator. */
+    long next();
+
+    /**
+     * Makes sure id is never handed out again. Called for ids read back
+     * from storage.
+     */
+    void advancePast(long id);
+
+    String format(long id);
+
+    /** The id written as text, or -1 if text is not in this allocator's format. */
+    long parse(String text);
+}
@@ -8,6 +8,9 @@ import java.text.DecimalFormat;
  * It accepts precomputed values from ReservationManager.calculateInvoiceDetails()
  */
 public class Invoice {
+    // DecimalFormat is not thread-safe, so keep one per thread instead of one per call
+    private static final ThreadLocal<DecimalFormat> MONEY = ThreadLocal.withInitial(() -> new DecimalFormat("0.00"));
+
     private final String invoiceId;
     private final Reservation reservation;
     private final LocalDate issueDate;
@@ -24,6 +27,10 @@ public class Invoice {
         this.issueDate = LocalDate.now();
     }
 
+    public String getInvoiceId() {
+        return invoiceId;
+    }
+
     public void setAmounts(double basePrice, double extraKmCharge, double discount, double tax, double deposit, double payable) {
         this.basePrice = basePrice;
         this.extraKmCharge = extraKmCharge;
@@ -33,9 +40,13 @@ public class Invoice {
         this.payable = payable;
     }
 
+    public void setAmounts(PriceBreakdown b) {
+        setAmounts(b.getBase(), b.getExtraCharge(), b.getDiscount(), b.getTax(), b.getDeposit(), b.getPayable());
+    }
+
     public String formatForPrint() {
-        DecimalFormat df = new DecimalFormat("0.00");
-        StringBuilder sb = new StringBuilder();
+        DecimalFormat df = MONEY.get();
+        StringBuilder sb = new StringBuilder(640);
         sb.append("========== EcoRide Invoice ==========\n");
         sb.append("Invoice ID: ").append(invoiceId).append("\n");
         sb.append("Issue Date: ").append(issueDate).append("\n\n");
@@ -0,0 +1,365 @@
+package ecoride;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Month-end invoicing: prices many reservations in parallel and streams the
+ * rendered invoices into one file. Workers take chunks of reservations in
+ * order, each rendering its chunk straight into its own reusable byte
+ * buffer, and file space is handed to chunks in the order they were taken.
+ * So invoices appear in reservation order, and the same reservations and
+ * issue date give the same file byte for byte. A worker waits only if it
+ * finishes a chunk before the ones ahead of it, so heap use stays bounded
+ * whatever the number of reservations.
+ */
+public class InvoiceBatchWriter {
+
+    public enum Format {
+        /** Same layout as Invoice.formatForPrint(). */
+        TEXT,
+        /** One header row, then one row per invoice. */
+        CSV
+    }
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int CHUNK_SIZE = 256;
+    private static final String CSV_HEADER = "invoice_id,reservation_id,issue_date,car_id,model,category,daily_rate,"
+            + "customer,rental_start,days,expected_km,base,extra_charge,discount,tax,deposit,payable,status\n";
+
+    private final ReservationManager manager;
+    private final int threads;
+
+    public InvoiceBatchWriter(ReservationManager manager) {
+        this(manager, Runtime.getRuntime().availableProcessors());
+    }
+
+    public InvoiceBatchWriter(ReservationManager manager, int threads) {
+        this.manager = manager;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Writes an invoice for every completed rental in the manager's current
+     * snapshot, live or archived, so bookings made meanwhile neither wait
+     * nor tear the batch. Each rental keeps its invoice id across runs.
+     * Invoices are dated the manager's today. Returns the number of invoices
+     * written.
+     */
+    public long writeAll(Path file, Format format) throws IOException {
+        return writeAll(file, format, manager.today());
+    }
+
+    /**
+     * As writeAll(file, format), with the given issue date, so a rerun
+     * reproduces an earlier file.
+     */
+    public long writeAll(Path file, Format format, LocalDate issueDate) throws IOException {
+        Iterable<Reservation> completed = () -> manager.snapshot().getReservations().stream()
+                .filter(r -> r.getStatus() == ReservationStatus.COMPLETED).iterator();
+        return write(completed, file, format, issueDate);
+    }
+
+    /**
+     * Writes an invoice for each of the given reservations, in their order,
+     * replacing file. Invoices are dated the manager's today. Returns the
+     * number of invoices written.
+     */
+    public long write(Iterable<Reservation> reservations, Path file, Format format) throws IOException {
+        return write(reservations, file, format, manager.today());
+    }
+
+    /**
+     * As write(reservations, file, format), with the given issue date.
+     */
+    public long write(Iterable<Reservation> reservations, Path file, Format format, LocalDate issueDate)
+            throws IOException {
+        AtomicLong written = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long start = 0;
+            if (format == Format.CSV) {
+                ByteBuffer header = ByteBuffer.allocate(CSV_HEADER.length());
+                header.put(CSV_HEADER.getBytes(StandardCharsets.US_ASCII));
+                header.flip();
+                while (header.hasRemaining()) start += channel.write(header, start);
+            }
+            Chunks chunks = new Chunks(reservations.iterator(), start);
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> {
+                    new Worker(channel, chunks, format, issueDate).drain(written);
+                    return null;
+                }));
+            }
+            // the first real failure; workers that gave up because of it report a cancellation
+            Throwable failure = null;
+            for (Future<?> f : workers) {
+                try {
+                    f.get();
+                } catch (ExecutionException ex) {
+                    if (failure == null || failure instanceof CancellationException) failure = ex.getCause();
+                }
+            }
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure != null) throw new IOException(failure);
+            channel.truncate(chunks.end());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Invoice batch interrupted.", ex);
+        } finally {
+            pool.shutdownNow();
+        }
+        return written.get();
+    }
+
+    /**
+     * Hands out chunks of reservations numbered in the order they are taken,
+     * and file space to rendered chunks in that same order.
+     */
+    private static final class Chunks {
+        private final Iterator<Reservation> source;
+        private long taken;
+        private long placed;
+        private long end;
+        private boolean failed;
+
+        Chunks(Iterator<Reservation> source, long start) {
+            this.source = source;
+            this.end = start;
+        }
+
+        // fills chunk from the front and returns its number, or -1 once the source is empty
+        synchronized long take(Reservation[] chunk) {
+            int n = 0;
+            while (n < chunk.length && source.hasNext()) chunk[n++] = source.next();
+            return n == 0 ? -1 : taken++;
+        }
+
+        // waits for every earlier chunk to be placed, then returns where this one goes
+        synchronized long place(long number, int length) throws InterruptedException {
+            while (placed != number && !failed) wait();
+            if (failed) throw new CancellationException("Another invoice worker failed.");
+            long pos = end;
+            end += length;
+            placed++;
+            notifyAll();
+            return pos;
+        }
+
+        synchronized void fail() {
+            failed = true;
+            notifyAll();
+        }
+
+        synchronized long end() {
+            return end;
+        }
+    }
+
+    private final class Worker {
+        private final FileChannel channel;
+        private final Chunks chunks;
+        private final Format format;
+        private final LocalDate issueDate;
+        private final Reservation[] chunk = new Reservation[CHUNK_SIZE];
+        private final PriceBreakdown price = new PriceBreakdown();
+        private ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Worker(FileChannel channel, Chunks chunks, Format format, LocalDate issueDate) {
+            this.channel = channel;
+            this.chunks = chunks;
+            this.format = format;
+            this.issueDate = issueDate;
+        }
+
+        void drain(AtomicLong written) throws IOException, InterruptedException {
+            try {
+                long number;
+                while ((number = chunks.take(chunk)) >= 0) {
+                    int n = 0;
+                    for (; n < chunk.length && chunk[n] != null; n++) {
+                        Reservation r = chunk[n];
+                        chunk[n] = null;
+                        long t0 = System.nanoTime();
+                        manager.calculateInvoiceDetails(r, price);
+                        reserve(r);
+                        if (format == Format.CSV) renderCsv(r); else renderText(r);
+                        manager.getMetrics().recordInvoice(t0);
+                    }
+                    buf.flip();
+                    long pos = chunks.place(number, buf.remaining());
+                    while (buf.hasRemaining()) pos += channel.write(buf, pos);
+                    buf.clear();
+                    written.addAndGet(n);
+                }
+            } catch (IOException | InterruptedException | RuntimeException | Error ex) {
+                chunks.fail();
+                throw ex;
+            }
+        }
+
+        // makes sure one more invoice fits in the buffer, which holds the whole chunk
+        private void reserve(Reservation r) {
+            int strings = r.getReservationId().length() + r.getCar().getCarId().length()
+                    + r.getCar().getModel().length() + r.getCustomer().getName().length();
+            int needed = 1024 + 6 * strings; // fixed text plus worst-case UTF-8 and CSV quoting
+            if (buf.remaining() >= needed) return;
+            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(buf.capacity() * 2, buf.position() + needed));
+            buf.flip();
+            bigger.put(buf);
+            buf = bigger;
+        }
+
+        private void renderText(Reservation r) {
+            Car car = r.getCar();
+            ascii("========== EcoRide Invoice ==========\n");
+            ascii("Invoice ID: "); utf8(manager.invoiceIdFor(r)); nl();
+            ascii("Issue Date: "); date(issueDate); nl(); nl();
+            ascii("Car: "); utf8(car.getCarId()); ascii(" - "); utf8(car.getModel()); nl();
+            ascii("Category: "); ascii(car.getCategory().name()); nl();
+            ascii("Daily Rate: LKR "); money(car.getDailyRentalPrice()); nl(); nl();
+            ascii("Customer: "); utf8(r.getCustomer().getName()); nl();
+            ascii("Rental Start: "); date(r.getRentalStartDate()); nl();
+            ascii("Number of Days: "); number(r.getNumDays()); nl();
+            ascii("Expected Km Used: "); number(r.getExpectedTotalKm()); nl(); nl();
+            ascii("Base Price: LKR "); money(price.getBase()); nl();
+            ascii("Extra Km Charge: LKR "); money(price.getExtraCharge()); nl();
+            ascii("Discount: -LKR "); money(price.getDiscount()); nl();
+            ascii("Tax: LKR "); money(price.getTax()); nl();
+            ascii("Deposit (handled): -LKR "); money(price.getDeposit()); nl();
+            ascii("--------------------------------------\n");
+            ascii("Final Payable: LKR "); money(price.getPayable()); nl();
+            ascii("======================================\n\n");
+        }
+
+        private void renderCsv(Reservation r) {
+            Car car = r.getCar();
+            csv(manager.invoiceIdFor(r)); comma();
+            csv(r.getReservationId()); comma();
+            date(issueDate); comma();
+            csv(car.getCarId()); comma();
+            csv(car.getModel()); comma();
+            ascii(car.getCategory().name()); comma();
+            money(car.getDailyRentalPrice()); comma();
+            csv(r.getCustomer().getName()); comma();
+            date(r.getRentalStartDate()); comma();
+            number(r.getNumDays()); comma();
+            number(r.getExpectedTotalKm()); comma();
+            money(price.getBase()); comma();
+            money(price.getExtraCharge()); comma();
+            money(price.getDiscount()); comma();
+            money(price.getTax()); comma();
+            money(price.getDeposit()); comma();
+            money(price.getPayable()); comma();
+            ascii(r.getStatus().name()); nl();
+        }
+
+        private void nl() { buf.put((byte) '\n'); }
+        private void comma() { buf.put((byte) ','); }
+
+        private void ascii(String s) {
+            for (int i = 0; i < s.length(); i++) buf.put((byte) s.charAt(i));
+        }
+
+        private void utf8(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf.put((byte) c);
+                } else if (c < 0x800) {
+                    buf.put((byte) (0xC0 | (c >> 6)));
+                    buf.put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length()) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf.put((byte) (0xF0 | (cp >> 18)));
+                    buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    buf.put((byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    buf.put((byte) (0xE0 | (c >> 12)));
+                    buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buf.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        private void csv(String s) {
+            boolean quote = false;
+            for (int i = 0; i < s.length() && !quote; i++) {
+                char c = s.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                utf8(s);
+                return;
+            }
+            buf.put((byte) '"');
+            int from = 0;
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) == '"') {
+                    utf8(s.substring(from, i + 1));
+                    buf.put((byte) '"');
+                    from = i + 1;
+                }
+            }
+            utf8(s.substring(from));
+            buf.put((byte) '"');
+        }
+
+        private void number(long v) {
+            if (v < 0) {
+                buf.put((byte) '-');
+                v = -v;
+            }
+            if (v >= 10) number(v / 10);
+            buf.put((byte) ('0' + (v % 10)));
+        }
+
+        private void digits(long v, int width) {
+            for (long div = pow10(width - 1); div > 0; div /= 10) buf.put((byte) ('0' + (v / div) % 10));
+        }
+
+        private long pow10(int n) {
+            long p = 1;
+            for (int i = 0; i < n; i++) p *= 10;
+            return p;
+        }
+
+        // two decimals, like DecimalFormat("0.00") on already rounded amounts
+        private void money(double amount) {
+            long cents = Math.round(amount * 100.0);
+            if (cents < 0) {
+                buf.put((byte) '-');
+                cents = -cents;
+            }
+            number(cents / 100);
+            buf.put((byte) '.');
+            digits(cents % 100, 2);
+        }
+
+        private void date(LocalDate d) {
+            digits(d.getYear(), 4);
+            buf.put((byte) '-');
+            digits(d.getMonthValue(), 2);
+            buf.put((byte) '-');
+            digits(d.getDayOfMonth(), 2);
+        }
+    }
+}
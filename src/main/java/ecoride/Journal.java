@@ -0,0 +1,430 @@
+package ecoride;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only write-ahead journal of inventory and reservation changes.
+ *
+ * The journal is a series of memory-mapped segment files named after the
+ * journal position (LSN) they start at. Each record is
+ * [int length][int CRC32C][body], and a zero length marks the end of the
+ * written data in a segment. Every record carries the full state of the car
+ * or reservation it describes, so replaying a record twice is harmless.
+ *
+ * Appends only copy bytes into the mapped segment. When the data reaches
+ * disk depends on the FsyncPolicy; with GROUP, one background force covers
+ * every append made since the previous one.
+ *
+ * The journal is one ordered log, and recovery replays it up to the first
+ * torn record, so appends take its lock in turn. Encoding and checksumming
+ * happen before the lock; inside it is only the copy of one record, which
+ * caps the append rate of one journal however many cores book into it.
+ */
+public class Journal implements ChangeListener, Closeable {
+
+    public enum FsyncPolicy {
+        /** Leave flushing to the operating system. */
+        NONE,
+        /** Force from a background thread every flush interval. */
+        GROUP,
+        /** Force before each append returns; concurrent appends share one force. */
+        ALWAYS
+    }
+
+    static final byte CAR_ADD = 1;
+    static final byte CAR_UPDATE = 2;
+    static final byte CAR_REMOVE = 3;
+    static final byte RES_CREATE = 10;
+    static final byte RES_UPDATE = 11;
+    static final byte RES_CANCEL = 12;
+    static final byte RES_COMPLETE = 13;
+    static final byte RES_START = 14;
+
+    private static final int HEADER = 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final FsyncPolicy policy;
+    private final ScheduledExecutorService flusher;
+    private final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+    private final ThreadLocal<CRC32C> crcs = ThreadLocal.withInitial(CRC32C::new);
+    private final Object forceLock = new Object();
+
+    // guarded by this
+    private MappedByteBuffer segment;
+    private long segmentBase;
+    private long writtenLsn;
+    private volatile long durableLsn;
+    private boolean closed;
+
+    private Journal(Path dir, int segmentSize, FsyncPolicy policy, long flushIntervalMillis) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.policy = policy;
+        if (policy == FsyncPolicy.GROUP) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    public static Journal open(Path dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_SIZE, FsyncPolicy.GROUP, 5);
+    }
+
+    /**
+     * Opens the journal in dir, creating it if needed. Call replay() before
+     * attaching the journal as a listener, so that new records are appended
+     * after the existing ones.
+     */
+    public static Journal open(Path dir, int segmentSize, FsyncPolicy policy, long flushIntervalMillis) throws IOException {
+        Files.createDirectories(dir);
+        return new Journal(dir, segmentSize, policy, flushIntervalMillis);
+    }
+
+    /**
+     * Rebuilds inventory and reservations from every record in the journal
+     * and positions the journal for appending after the last valid record.
+     * A torn or corrupt record ends the replay; anything after it is dropped.
+     * Returns the number of records applied.
+     */
+    public long replay(CarInventory inventory, ReservationManager manager) throws IOException {
+        return replayFrom(0, inventory, manager);
+    }
+
+    /**
+     * Like replay(), but skips records before fromLsn.
+     */
+    public synchronized long replayFrom(long fromLsn, CarInventory inventory, ReservationManager manager) throws IOException {
+        long applied = 0;
+        long end = fromLsn;
+        List<Long> bases = segmentBases();
+        for (int s = 0; s < bases.size(); s++) {
+            long base = bases.get(s);
+            if (base + segmentSize <= fromLsn) continue;
+            MappedByteBuffer seg = map(base);
+            int pos = (int) Math.max(0, fromLsn - base);
+            boolean clean = true;
+            while (pos + HEADER <= segmentSize) {
+                int length = seg.getInt(pos);
+                if (length <= 0 || pos + HEADER + length > segmentSize) {
+                    clean = length == 0;
+                    break;
+                }
+                int crc = seg.getInt(pos + 4);
+                ByteBuffer body = seg.slice(pos + HEADER, length);
+                CRC32C check = new CRC32C();
+                check.update(body.duplicate());
+                if ((int) check.getValue() != crc) {
+                    clean = false;
+                    break;
+                }
+                apply(body, inventory, manager);
+                applied++;
+                pos += HEADER + length;
+            }
+            segment = seg;
+            segmentBase = base;
+            end = base + pos;
+            if (!clean) {
+                // drop the torn tail and any later segments
+                for (int i = pos; i < Math.min(segmentSize, pos + HEADER); i++) seg.put(i, (byte) 0);
+                for (int later = s + 1; later < bases.size(); later++) Files.deleteIfExists(segmentPath(bases.get(later)));
+                break;
+            }
+        }
+        writtenLsn = end;
+        durableLsn = end;
+        manager.finishRestore();
+        return applied;
+    }
+
+    /**
+     * Journal position just after the last appended record.
+     */
+    public synchronized long position() {
+        return writtenLsn;
+    }
+
+    /**
+     * Deletes segments that end at or before lsn; used after a snapshot
+     * has captured everything up to that position.
+     */
+    public synchronized void truncateBefore(long lsn) throws IOException {
+        for (long base : segmentBases()) {
+            if (base + segmentSize <= lsn && base != segmentBase) Files.deleteIfExists(segmentPath(base));
+        }
+    }
+
+    // ---- ChangeListener: every change becomes one record ----
+
+    @Override public void carAdded(Car car) { appendCar(CAR_ADD, car); }
+    @Override public void carUpdated(Car car) { appendCar(CAR_UPDATE, car); }
+    @Override public void carStatusChanged(Car car, AvailabilityStatus oldStatus) { appendCar(CAR_UPDATE, car); }
+
+    @Override
+    public void carRemoved(Car car) {
+        ByteBuffer b = begin(CAR_REMOVE);
+        b = putString(b, car.getCarId());
+        append(b);
+    }
+
+    @Override public void reservationCreated(Reservation r) { appendReservation(RES_CREATE, r); }
+    @Override public void reservationUpdated(Reservation r, int oldDays, int oldExpectedKm) { appendReservation(RES_UPDATE, r); }
+    @Override public void reservationCancelled(Reservation r) { appendReservation(RES_CANCEL, r); }
+    @Override public void reservationStarted(Reservation r) { appendReservation(RES_START, r); }
+    @Override public void reservationReassigned(Reservation r, Car oldCar) { appendReservation(RES_UPDATE, r); }
+    @Override public void reservationCompleted(Reservation r) { appendReservation(RES_COMPLETE, r); }
+
+    private void appendCar(byte type, Car car) {
+        ByteBuffer b = begin(type);
+        b = putString(b, car.getCarId());
+        b = putString(b, car.getModel());
+        b = ensure(b, 2);
+        b.put((byte) car.getCategory().ordinal());
+        b.put((byte) car.getAvailabilityStatus().ordinal());
+        append(b);
+    }
+
+    private void appendReservation(byte type, Reservation r) {
+        Customer c = r.getCustomer();
+        ByteBuffer b = begin(type);
+        b = putString(b, r.getReservationId());
+        b = putString(b, c.getIdDocument());
+        b = putString(b, c.getName());
+        b = putString(b, c.getContactNumber());
+        b = putString(b, c.getEmail());
+        b = putString(b, r.getCar().getCarId());
+        b = ensure(b, 21);
+        b.putInt((int) r.getBookingDate().toEpochDay());
+        b.putInt((int) r.getRentalStartDate().toEpochDay());
+        b.putInt(r.getNumDays());
+        b.putInt(r.getExpectedTotalKm());
+        b.put((byte) r.getStatus().ordinal());
+        append(b);
+    }
+
+    private ByteBuffer begin(byte type) {
+        ByteBuffer b = scratch.get();
+        b.clear();
+        b.put(type);
+        return b;
+    }
+
+    private ByteBuffer ensure(ByteBuffer b, int bytes) {
+        if (b.remaining() >= bytes) return b;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(b.capacity() * 2, b.position() + bytes));
+        b.flip();
+        bigger.put(b);
+        scratch.set(bigger);
+        return bigger;
+    }
+
+    // a null string is written as length -1
+    private ByteBuffer putString(ByteBuffer b, String s) {
+        if (s == null) {
+            b = ensure(b, 4);
+            b.putInt(-1);
+            return b;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        b = ensure(b, 4 + bytes.length);
+        b.putInt(bytes.length);
+        b.put(bytes);
+        return b;
+    }
+
+    private void append(ByteBuffer body) {
+        body.flip();
+        int length = body.remaining();
+        if (HEADER + length + HEADER > segmentSize) {
+            throw new IllegalArgumentException("Journal record larger than a segment.");
+        }
+        CRC32C crc = crcs.get();
+        crc.reset();
+        crc.update(body.duplicate());
+        int checksum = (int) crc.getValue();
+        long end;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Journal is closed.");
+            int pos = (int) (writtenLsn - segmentBase);
+            // always leave room for the zero end marker
+            if (segment == null || pos + HEADER + length + HEADER > segmentSize) {
+                roll();
+                pos = 0;
+            }
+            segment.put(pos + HEADER, body, 0, length);
+            segment.putInt(pos + 4, checksum);
+            segment.putInt(pos, length); // length last, so a torn write reads as the end
+            writtenLsn = segmentBase + pos + HEADER + length;
+            end = writtenLsn;
+        }
+        if (policy == FsyncPolicy.ALWAYS) awaitDurable(end);
+    }
+
+    // guarded by this
+    private void roll() {
+        try {
+            long base = segment == null ? writtenLsn : segmentBase + segmentSize;
+            if (segment != null) segment.force();
+            segment = map(base);
+            segmentBase = base;
+            writtenLsn = base;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot open next journal segment.", ex);
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public void sync() {
+        long target;
+        synchronized (this) {
+            target = writtenLsn;
+        }
+        awaitDurable(target);
+    }
+
+    // group commit: whoever gets the lock forces for everyone waiting behind it
+    private void awaitDurable(long lsn) {
+        if (durableLsn >= lsn) return;
+        synchronized (forceLock) {
+            if (durableLsn >= lsn) return;
+            MappedByteBuffer seg;
+            long target;
+            synchronized (this) {
+                seg = segment;
+                target = writtenLsn;
+            }
+            if (seg != null) seg.force();
+            durableLsn = target;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            sync();
+        } catch (RuntimeException ex) {
+            System.err.println("Journal flush failed: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) flusher.shutdown();
+        sync();
+        synchronized (this) {
+            closed = true;
+        }
+    }
+
+    private MappedByteBuffer map(long base) throws IOException {
+        try (FileChannel ch = FileChannel.open(segmentPath(base), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private Path segmentPath(long base) {
+        return dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, base, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> segmentBases() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                bases.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(bases);
+        return bases;
+    }
+
+    // ---- replay ----
+
+    private static void apply(ByteBuffer b, CarInventory inventory, ReservationManager manager) {
+        byte type = b.get();
+        switch (type) {
+            case CAR_ADD:
+            case CAR_UPDATE: {
+                String carId = getString(b);
+                String model = getString(b);
+                Category category = Category.values()[b.get()];
+                AvailabilityStatus status = AvailabilityStatus.values()[b.get()];
+                Car car = inventory.getCar(carId);
+                if (car == null) {
+                    car = new Car(carId, model, category);
+                    car.setAvailability(status);
+                    inventory.addCar(car);
+                } else {
+                    car.setModel(model);
+                    if (car.getCategory() != category) car.setCategory(category);
+                    if (car.getAvailabilityStatus() != status) car.setAvailability(status);
+                }
+                break;
+            }
+            case CAR_REMOVE:
+                inventory.removeCar(getString(b));
+                break;
+            case RES_CREATE:
+            case RES_UPDATE:
+            case RES_CANCEL:
+            case RES_COMPLETE:
+            case RES_START: {
+                String resId = getString(b);
+                Customer customer = new Customer(getString(b), getString(b), getString(b), getString(b));
+                String carId = getString(b);
+                LocalDate bookingDate = LocalDate.ofEpochDay(b.getInt());
+                LocalDate startDate = LocalDate.ofEpochDay(b.getInt());
+                int days = b.getInt();
+                int km = b.getInt();
+                ReservationStatus status = ReservationStatus.values()[b.get()];
+                Car car = inventory.getCar(carId);
+                if (car == null) {
+                    // the car was removed earlier in the journal; nothing to attach the booking to
+                    System.err.println("Journal record for " + resId + " refers to missing car " + carId + "; skipped.");
+                    break;
+                }
+                manager.restore(resId, customer, car, bookingDate, startDate, days, km, status);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static String getString(ByteBuffer b) {
+        int len = b.getInt();
+        if (len < 0) return null;
+        byte[] bytes = new byte[len];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
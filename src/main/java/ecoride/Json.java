@@ -0,0 +1,205 @@
+package ecoride;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the HTTP service: a small recursive-descent
+ * parser producing Maps, Lists, Strings, Doubles, Booleans and null, plus
+ * helpers for writing values into a StringBuilder. No reflection.
+ */
+public final class Json {
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    public static Object parse(String text) {
+        Json p = new Json(text);
+        p.skipSpace();
+        Object v = p.value();
+        p.skipSpace();
+        if (p.pos != text.length()) throw p.error("Unexpected trailing characters");
+        return v;
+    }
+
+    /**
+     * Parses a JSON object; anything else is rejected.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String text) {
+        Object v = parse(text);
+        if (!(v instanceof Map)) throw new IllegalArgumentException("Expected a JSON object.");
+        return (Map<String, Object>) v;
+    }
+
+    private Object value() {
+        if (pos >= text.length()) throw error("Unexpected end of input");
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': literal("true"); return Boolean.TRUE;
+            case 'f': literal("false"); return Boolean.FALSE;
+            case 'n': literal("null"); return null;
+            default: return number();
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        pos++;
+        skipSpace();
+        if (peek('}')) return out;
+        while (true) {
+            skipSpace();
+            String key = string();
+            skipSpace();
+            expect(':');
+            skipSpace();
+            out.put(key, value());
+            skipSpace();
+            if (peek('}')) return out;
+            expect(',');
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> out = new ArrayList<>();
+        pos++;
+        skipSpace();
+        if (peek(']')) return out;
+        while (true) {
+            skipSpace();
+            out.add(value());
+            skipSpace();
+            if (peek(']')) return out;
+            expect(',');
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (pos >= text.length()) throw error("Unterminated string");
+            char c = text.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= text.length()) throw error("Unterminated escape");
+            char e = text.charAt(pos++);
+            switch (e) {
+                case '"': case '\\': case '/': sb.append(e); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > text.length()) throw error("Bad unicode escape");
+                    sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: throw error("Bad escape");
+            }
+        }
+    }
+
+    private Double number() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) pos++;
+        if (start == pos) throw error("Unexpected character");
+        try {
+            return Double.valueOf(text.substring(start, pos));
+        } catch (NumberFormatException ex) {
+            throw error("Bad number");
+        }
+    }
+
+    private void literal(String word) {
+        if (!text.startsWith(word, pos)) throw error("Unexpected token");
+        pos += word.length();
+    }
+
+    private boolean peek(char c) {
+        if (pos < text.length() && text.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!peek(c)) throw error("Expected '" + c + "'");
+    }
+
+    private void skipSpace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos + ".");
+    }
+
+    // ---- writing ----
+
+    public static StringBuilder string(StringBuilder sb, String s) {
+        if (s == null) return sb.append("null");
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    public static StringBuilder field(StringBuilder sb, String name, String value) {
+        return string(string(sb, name).append(':'), value);
+    }
+
+    public static StringBuilder field(StringBuilder sb, String name, long value) {
+        return string(sb, name).append(':').append(value);
+    }
+
+    public static StringBuilder field(StringBuilder sb, String name, double value) {
+        return string(sb, name).append(':').append(value);
+    }
+
+    // ---- reading fields of a parsed object ----
+
+    public static String getString(Map<String, Object> obj, String name) {
+        Object v = obj.get(name);
+        if (v == null) throw new IllegalArgumentException("Missing field '" + name + "'.");
+        return v instanceof Double ? String.valueOf(((Double) v).longValue()) : v.toString();
+    }
+
+    public static int getInt(Map<String, Object> obj, String name) {
+        Object v = obj.get(name);
+        if (v instanceof Double) return ((Double) v).intValue();
+        if (v instanceof String) {
+            try {
+                return Integer.parseInt(((String) v).trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Field '" + name + "' is not a number.");
+            }
+        }
+        throw new IllegalArgumentException("Missing field '" + name + "'.");
+    }
+}
@@ -0,0 +1,127 @@
+package ecoride;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves reservations through their lifecycle as days pass: closes the
+ * cancel/update window two days after booking, starts the rental on its
+ * start date and completes it, returning the car, after numDays.
+ *
+ * Each reservation puts its deadlines on a timing wheel with one tick per
+ * day, so a day's work is proportional to the events due that day, not to
+ * the number of reservations. Bookings hand their deadlines over through a
+ * lock-free queue; only the thread advancing the wheel touches it. A
+ * deadline that no longer matches the reservation (it was cancelled, or its
+ * days changed) is dropped when it comes due.
+ */
+public class LifecycleEngine implements Closeable {
+    /** Days after the booking date during which it may still be changed. */
+    public static final int MODIFICATION_WINDOW_DAYS = 2;
+
+    private static final byte CLOSE_WINDOW = 0;
+    private static final byte START = 1;
+    private static final byte END = 2;
+
+    private static final class Deadline {
+        final Reservation reservation;
+        final byte kind;
+        final long day;
+
+        Deadline(Reservation reservation, byte kind, long day) {
+            this.reservation = reservation;
+            this.kind = kind;
+            this.day = day;
+        }
+    }
+
+    private final ReservationManager manager;
+    private final Clock clock;
+    private final Queue<Deadline> inbox = new ConcurrentLinkedQueue<>();
+    private final TimingWheel<Deadline> wheel;
+    private ScheduledExecutorService ticker;
+
+    LifecycleEngine(ReservationManager manager, Clock clock) {
+        this.manager = manager;
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(LocalDate.now(clock).toEpochDay());
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Queues all deadlines of r. Called on booking and restore; deadlines
+     * already in the past fire on the next advance.
+     */
+    void schedule(Reservation r) {
+        long start = r.getRentalStartDate().toEpochDay();
+        inbox.add(new Deadline(r, CLOSE_WINDOW, r.getBookingDate().toEpochDay() + MODIFICATION_WINDOW_DAYS + 1));
+        inbox.add(new Deadline(r, START, start));
+        inbox.add(new Deadline(r, END, start + r.getNumDays()));
+    }
+
+    /** Queues the new end of r after its number of days changed. */
+    void rescheduleEnd(Reservation r) {
+        inbox.add(new Deadline(r, END, r.getRentalStartDate().toEpochDay() + r.getNumDays()));
+    }
+
+    /**
+     * Applies everything due up to today by the clock. Returns the number
+     * of deadlines still pending.
+     */
+    public synchronized int advance() {
+        for (Deadline d; (d = inbox.poll()) != null; ) wheel.schedule(d.day, d);
+        wheel.advanceTo(LocalDate.now(clock).toEpochDay(), this::fire);
+        return wheel.size();
+    }
+
+    private void fire(Deadline d) {
+        Reservation r = d.reservation;
+        switch (d.kind) {
+            case CLOSE_WINDOW:
+                r.closeModificationWindow();
+                break;
+            case START:
+                manager.startRental(r);
+                break;
+            case END:
+                manager.finishRental(r, d.day);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Advances once now and then every period on a daemon thread.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (ticker != null) return;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lifecycle");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                advance();
+            } catch (RuntimeException ex) {
+                System.err.println("Lifecycle update failed: " + ex.getMessage());
+            }
+        }, 0, period, unit);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (ticker != null) ticker.shutdownNow();
+        ticker = null;
+    }
+}
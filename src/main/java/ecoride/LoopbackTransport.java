@@ -0,0 +1,29 @@
+package ecoride;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reaches nodes running in this process, for tests and simulations of a
+ * cluster on one machine.
+ */
+public class LoopbackTransport implements NodeTransport {
+    private final Map<String, NodeApi> nodes = new ConcurrentHashMap<>();
+
+    public void register(NodeApi node) {
+        if (nodes.putIfAbsent(node.getNodeId(), node) != null) {
+            throw new IllegalArgumentException("Node " + node.getNodeId() + " is already registered.");
+        }
+    }
+
+    public void unregister(String nodeId) {
+        nodes.remove(nodeId);
+    }
+
+    @Override
+    public NodeApi connect(String nodeId) {
+        NodeApi node = nodes.get(nodeId);
+        if (node == null) throw new IllegalArgumentException("Unknown node " + nodeId + ".");
+        return node;
+    }
+}
@@ -1,11 +1,245 @@
 package ecoride;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Launcher for the EcoRide CLI app.
+ *
+ * Options:
+ *   --data-dir DIR          keep a journal and snapshots in DIR and restore state from them on start
+ *   --snapshot-minutes N    minutes between snapshots when --data-dir is set (default 10)
+ *   --http PORT             serve the HTTP/JSON API on PORT instead of the console menu
+ *   --batch-bookings        with --http, queue bookings per category and book them in batches,
+ *                           one journal sync per batch (see BookingPipeline)
+ *   --node N                node number (0-1023) put into reservation and invoice ids, so
+ *                           several instances can run without id clashes
+ *   --pricing FILE          take rates from a properties file (see PricingTable.load),
+ *                           reloading it whenever it changes
+ *   --assignment MODE       BEST_FIT (default) or FIRST_FIT car selection for new bookings
+ *   --optimize-minutes N    minutes between fleet re-optimization runs (default 60, 0 = never)
+ *   --archive-minutes N     minutes between sweeps of finished reservations not archived yet
+ *                           (default 10, 0 = never); the first runs right after start
+ *   --invoices FILE         write an invoice for every completed rental to FILE (CSV if it ends
+ *                           in .csv, else printable text) and exit; after --replay or --workload
+ *                           if given
+ *   --replay FILE           run a command log (see CommandReplayer) and print a report
+ *   --workload              run a synthetic workload (see WorkloadGenerator) and print a report
+ *   --generate FILE         write the synthetic workload to FILE instead of running it
+ *   --optimize              with --replay or --workload, re-optimize the fleet afterwards and report
+ *     workload settings: --fleet N --customers N --ops N --horizon DAYS --seed N
+ *
+ * Load-test a running service with HttpLoadGenerator; try a multi-node
+ * cluster in one JVM with ClusterDemo.
  */
 public class Main {
-    public static void main(String[] args) {
-        UserInterface ui = new UserInterface();
-        ui.run();
+    private static Journal journal;
+    private static SnapshotStore snapshots;
+    private static ScheduledExecutorService snapshotter;
+    private static ScheduledExecutorService pricingWatcher;
+    private static ScheduledExecutorService optimizer;
+    private static ScheduledExecutorService archiver;
+
+    public static void main(String[] args) throws Exception {
+        Path dataDir = null;
+        long snapshotMinutes = 10;
+        int httpPort = -1;
+        boolean batchBookings = false;
+        int node = 0;
+        Path pricingFile = null;
+        CarInventory.Assignment assignment = CarInventory.Assignment.BEST_FIT;
+        long optimizeMinutes = 60;
+        long archiveMinutes = 10;
+        boolean optimizeAfterReplay = false;
+        Path replayFile = null;
+        Path invoiceFile = null;
+        Path generateFile = null;
+        boolean workload = false;
+        WorkloadGenerator generator = new WorkloadGenerator();
+        for (int i = 0; i < args.length; i++) {
+            boolean hasValue = i + 1 < args.length;
+            if ("--data-dir".equals(args[i]) && hasValue) dataDir = Paths.get(args[++i]);
+            else if ("--snapshot-minutes".equals(args[i]) && hasValue) snapshotMinutes = Long.parseLong(args[++i]);
+            else if ("--http".equals(args[i]) && hasValue) httpPort = Integer.parseInt(args[++i]);
+            else if ("--batch-bookings".equals(args[i])) batchBookings = true;
+            else if ("--node".equals(args[i]) && hasValue) node = Integer.parseInt(args[++i]);
+            else if ("--pricing".equals(args[i]) && hasValue) pricingFile = Paths.get(args[++i]);
+            else if ("--assignment".equals(args[i]) && hasValue) assignment = CarInventory.Assignment.valueOf(args[++i].toUpperCase(Locale.ROOT).replace('-', '_'));
+            else if ("--optimize-minutes".equals(args[i]) && hasValue) optimizeMinutes = Long.parseLong(args[++i]);
+            else if ("--optimize".equals(args[i])) optimizeAfterReplay = true;
+            else if ("--archive-minutes".equals(args[i]) && hasValue) archiveMinutes = Long.parseLong(args[++i]);
+            else if ("--invoices".equals(args[i]) && hasValue) invoiceFile = Paths.get(args[++i]);
+            else if ("--replay".equals(args[i]) && hasValue) replayFile = Paths.get(args[++i]);
+            else if ("--generate".equals(args[i]) && hasValue) generateFile = Paths.get(args[++i]);
+            else if ("--workload".equals(args[i])) workload = true;
+            else if ("--fleet".equals(args[i]) && hasValue) generator.fleetSize(Integer.parseInt(args[++i]));
+            else if ("--customers".equals(args[i]) && hasValue) generator.customers(Integer.parseInt(args[++i]));
+            else if ("--ops".equals(args[i]) && hasValue) generator.operations(Long.parseLong(args[++i]));
+            else if ("--horizon".equals(args[i]) && hasValue) generator.horizonDays(Integer.parseInt(args[++i]));
+            else if ("--seed".equals(args[i]) && hasValue) generator.seed(Long.parseLong(args[++i]));
+        }
+
+        if (generateFile != null) {
+            generator.writeTo(generateFile);
+            System.out.println("Workload written to " + generateFile);
+            return;
+        }
+
+        CarInventory inventory = new CarInventory();
+        inventory.setAssignment(assignment);
+        PricingPolicy pricing = pricingFile == null ? new PricingPolicy() : new PricingPolicy(PricingTable.load(pricingFile));
+        if (pricingFile != null) watchPricing(pricingFile, pricing);
+        ReservationManager manager = new ReservationManager(inventory, pricing,
+                new BlockIdAllocator("R", node), new BlockIdAllocator("INV-", node));
+        manager.getMetrics().registerMBean("main");
+        if (dataDir != null) openStorage(dataDir, snapshotMinutes, manager);
+
+        if (replayFile != null || workload || invoiceFile != null) {
+            try {
+                if (replayFile != null || workload) {
+                    CommandReplayer replayer = new CommandReplayer(manager);
+                    if (replayFile != null) replayer.replay(replayFile);
+                    else replayer.replay(generator.lines());
+                    System.out.print(replayer.report());
+                    if (optimizeAfterReplay) System.out.print(new FleetOptimizer(manager).optimize());
+                }
+                if (invoiceFile != null) writeInvoices(manager, invoiceFile);
+            } finally {
+                closeStorage(manager);
+            }
+            return;
+        }
+
+        // rentals start and finish as days pass; checking each minute is plenty
+        manager.getLifecycle().start(1, TimeUnit.MINUTES);
+        if (optimizeMinutes > 0) scheduleOptimizer(manager, optimizeMinutes);
+        if (archiveMinutes > 0) scheduleArchiver(manager, archiveMinutes);
+
+        if (httpPort >= 0) {
+            BookingPipeline pipeline = batchBookings ? new BookingPipeline(manager, journal) : null;
+            HttpService service = new HttpService(manager, httpPort, pipeline);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                service.stop();
+                if (pipeline != null) pipeline.close();
+                manager.getLifecycle().close();
+                manager.getEvents().close();
+                closeStorage(manager);
+            }));
+            service.start();
+            System.out.println("EcoRide HTTP service listening on port " + service.getPort());
+            Thread.currentThread().join();
+            return;
+        }
+
+        try {
+            UserInterface ui = new UserInterface(manager);
+            ui.run();
+        } finally {
+            manager.getLifecycle().close();
+            manager.getEvents().close();
+            closeStorage(manager);
+        }
+    }
+
+    // restore from the latest snapshot plus journal tail, then keep journaling
+    private static void openStorage(Path dataDir, long snapshotMinutes, ReservationManager manager) throws Exception {
+        CarInventory inventory = manager.getInventory();
+        snapshots = new SnapshotStore(dataDir);
+        long lsn = snapshots.loadLatest(manager);
+        journal = Journal.open(dataDir);
+        journal.replayFrom(lsn, inventory, manager);
+        inventory.addListener(journal);
+        manager.addListener(journal);
+
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshotter");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshotter.scheduleWithFixedDelay(() -> {
+            try {
+                snapshots.take(manager, journal);
+            } catch (Exception ex) {
+                System.err.println("Snapshot failed: " + ex.getMessage());
+            }
+        }, snapshotMinutes, snapshotMinutes, TimeUnit.MINUTES);
+    }
+
+    private static void scheduleOptimizer(ReservationManager manager, long minutes) {
+        FleetOptimizer fleet = new FleetOptimizer(manager);
+        optimizer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fleet-optimizer");
+            t.setDaemon(true);
+            return t;
+        });
+        optimizer.scheduleWithFixedDelay(() -> {
+            try {
+                FleetOptimizer.Report report = fleet.optimize();
+                if (report.getMoved() > 0) System.err.print(report);
+            } catch (RuntimeException ex) {
+                System.err.println("Fleet optimization failed: " + ex.getMessage());
+            }
+        }, minutes, minutes, TimeUnit.MINUTES);
+    }
+
+    private static void scheduleArchiver(ReservationManager manager, long minutes) {
+        archiver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        archiver.scheduleWithFixedDelay(() -> {
+            try {
+                manager.archiveTerminal();
+            } catch (RuntimeException ex) {
+                System.err.println("Archiving failed: " + ex.getMessage());
+            }
+        }, 0, minutes, TimeUnit.MINUTES);
+    }
+
+    private static void writeInvoices(ReservationManager manager, Path file) throws IOException {
+        InvoiceBatchWriter.Format format = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")
+                ? InvoiceBatchWriter.Format.CSV : InvoiceBatchWriter.Format.TEXT;
+        long written = new InvoiceBatchWriter(manager).writeAll(file, format);
+        System.out.println(written + " invoices written to " + file);
+    }
+
+    // polls the file's modification time; a bad edit keeps the current rates
+    private static void watchPricing(Path file, PricingPolicy pricing) throws IOException {
+        FileTime[] seen = {Files.getLastModifiedTime(file)};
+        pricingWatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pricing-watcher");
+            t.setDaemon(true);
+            return t;
+        });
+        pricingWatcher.scheduleWithFixedDelay(() -> {
+            try {
+                FileTime modified = Files.getLastModifiedTime(file);
+                if (modified.equals(seen[0])) return;
+                seen[0] = modified;
+                PricingTable table = pricing.reload(file);
+                System.err.println("Pricing reloaded from " + file + " (version " + table.getVersion() + ")");
+            } catch (IOException | IllegalArgumentException ex) {
+                System.err.println("Pricing reload failed: " + ex.getMessage());
+            }
+        }, 5, 5, TimeUnit.SECONDS);
+    }
+
+    private static void closeStorage(ReservationManager manager) {
+        if (journal == null) return;
+        snapshotter.shutdownNow();
+        try {
+            snapshots.take(manager, journal);
+        } catch (Exception ex) {
+            System.err.println("Final snapshot failed: " + ex.getMessage());
+        }
+        journal.close();
     }
 }
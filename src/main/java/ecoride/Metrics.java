@@ -0,0 +1,180 @@
+package ecoride;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Operation counters and latency histograms for one CarInventory and the
+ * ReservationManager using it. Recording is lock-free and allocation-free,
+ * so it stays on all the time.
+ */
+public class Metrics implements MetricsMXBean {
+    final LatencyHistogram booking = new LatencyHistogram();
+    final LatencyHistogram cancel = new LatencyHistogram();
+    final LatencyHistogram update = new LatencyHistogram();
+    final LatencyHistogram complete = new LatencyHistogram();
+    final LatencyHistogram search = new LatencyHistogram();
+    final LatencyHistogram quote = new LatencyHistogram();
+    final LatencyHistogram invoice = new LatencyHistogram();
+    final LatencyHistogram carLookup = new LatencyHistogram();
+    final LatencyHistogram carListing = new LatencyHistogram();
+    final LatencyHistogram carChange = new LatencyHistogram();
+
+    final LongAdder bookings = new LongAdder();
+    final LongAdder rejectedLeadTime = new LongAdder();
+    final LongAdder rejectedNoCar = new LongAdder();
+    final LongAdder rejectedQueueFull = new LongAdder();
+    final LongAdder bookingBatches = new LongAdder();
+    final LongAdder batchedRequests = new LongAdder();
+    final LongAdder cancellations = new LongAdder();
+    final LongAdder cancelRejectedWindow = new LongAdder();
+    final LongAdder updates = new LongAdder();
+    final LongAdder updateRejectedWindow = new LongAdder();
+    final LongAdder updateRejectedConflict = new LongAdder();
+    final LongAdder completions = new LongAdder();
+    final LongAdder rentalsStarted = new LongAdder();
+    final LongAdder reassignments = new LongAdder();
+    final LongAdder quoteCacheHits = new LongAdder();
+    final LongAdder quoteCacheMisses = new LongAdder();
+    final LongAdder eventsPublished = new LongAdder();
+    final LongAdder eventSubscribersDropped = new LongAdder();
+    final LongAdder archived = new LongAdder();
+
+    private final CarInventory inventory;
+
+    Metrics(CarInventory inventory) {
+        this.inventory = inventory;
+    }
+
+    /**
+     * Registers this object with the platform MBean server as
+     * ecoride:type=Metrics,name=NAME.
+     */
+    public void registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("ecoride:type=Metrics,name=" + ObjectName.quote(name));
+        if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        server.registerMBean(this, objectName);
+    }
+
+    /** Latency of rendering one invoice; recorded by invoice writers. */
+    public void recordInvoice(long startNanos) {
+        invoice.recordSince(startNanos);
+    }
+
+    @Override public long getBookings() { return bookings.sum(); }
+    @Override public long getBookingsRejectedLeadTime() { return rejectedLeadTime.sum(); }
+    @Override public long getBookingsRejectedNoCar() { return rejectedNoCar.sum(); }
+    @Override public long getBookingsRejectedQueueFull() { return rejectedQueueFull.sum(); }
+    @Override public long getBookingBatches() { return bookingBatches.sum(); }
+    @Override public long getCancellations() { return cancellations.sum(); }
+    @Override public long getCancellationsRejectedWindow() { return cancelRejectedWindow.sum(); }
+    @Override public long getUpdates() { return updates.sum(); }
+    @Override public long getUpdatesRejectedWindow() { return updateRejectedWindow.sum(); }
+    @Override public long getUpdatesRejectedConflict() { return updateRejectedConflict.sum(); }
+    @Override public long getCompletions() { return completions.sum(); }
+    @Override public long getRentalsStarted() { return rentalsStarted.sum(); }
+    @Override public long getReassignments() { return reassignments.sum(); }
+    @Override public long getQuoteCacheHits() { return quoteCacheHits.sum(); }
+    @Override public long getQuoteCacheMisses() { return quoteCacheMisses.sum(); }
+    @Override public long getEventsPublished() { return eventsPublished.sum(); }
+    @Override public long getEventSubscribersDropped() { return eventSubscribersDropped.sum(); }
+    @Override public long getArchived() { return archived.sum(); }
+
+    @Override
+    public double getQuoteCacheHitRate() {
+        long hits = getQuoteCacheHits();
+        long total = hits + getQuoteCacheMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override public double getBookingP50Micros() { return booking.percentile(50) / 1000.0; }
+    @Override public double getBookingP99Micros() { return booking.percentile(99) / 1000.0; }
+    @Override public double getCancelP99Micros() { return cancel.percentile(99) / 1000.0; }
+    @Override public double getUpdateP99Micros() { return update.percentile(99) / 1000.0; }
+    @Override public double getSearchP99Micros() { return search.percentile(99) / 1000.0; }
+    @Override public double getInvoiceP99Micros() { return invoice.percentile(99) / 1000.0; }
+
+    @Override
+    public Map<String, Double> getUtilizationByCategory() {
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (Category c : Category.values()) {
+            int rented = inventory.count(c, AvailabilityStatus.RESERVED);
+            int inService = rented + inventory.count(c, AvailabilityStatus.AVAILABLE);
+            out.put(c.name(), inService == 0 ? 0.0 : (double) rented / inService);
+        }
+        return out;
+    }
+
+    @Override
+    public Map<String, Integer> getMaintenanceByCategory() {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (Category c : Category.values()) out.put(c.name(), inventory.count(c, AvailabilityStatus.UNDER_MAINTENANCE));
+        return out;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("---------- EcoRide Metrics ----------\n");
+        sb.append(String.format("Bookings: %d ok, %d rejected (lead time), %d rejected (no car)%n",
+                getBookings(), getBookingsRejectedLeadTime(), getBookingsRejectedNoCar()));
+        if (getBookingBatches() > 0) {
+            sb.append(String.format("Booking pipeline: %d batches, %.1f requests per batch, %d rejected (queue full)%n",
+                    getBookingBatches(), (double) batchedRequests.sum() / getBookingBatches(),
+                    getBookingsRejectedQueueFull()));
+        }
+        sb.append(String.format("Cancellations: %d ok, %d rejected (window expired)%n",
+                getCancellations(), getCancellationsRejectedWindow()));
+        sb.append(String.format("Updates: %d ok, %d rejected (window expired), %d rejected (car not free)%n",
+                getUpdates(), getUpdatesRejectedWindow(), getUpdatesRejectedConflict()));
+        sb.append(String.format("Rentals: %d started, %d completed%n", getRentalsStarted(), getCompletions()));
+        sb.append(String.format("Reassigned by fleet optimizer: %d%n", getReassignments()));
+        sb.append(String.format("Quote cache: %d hits, %d misses (%.1f%% hit rate)%n",
+                getQuoteCacheHits(), getQuoteCacheMisses(), getQuoteCacheHitRate() * 100.0));
+        sb.append(String.format("Events: %d published, %d subscribers dropped (fell behind)%n",
+                getEventsPublished(), getEventSubscribersDropped()));
+        sb.append(String.format("Archived reservations: %d%n", getArchived()));
+        sb.append("\nLatency:\n");
+        line(sb, "book", booking);
+        line(sb, "cancel", cancel);
+        line(sb, "update", update);
+        line(sb, "complete", complete);
+        line(sb, "search", search);
+        line(sb, "quote", quote);
+        line(sb, "invoice", invoice);
+        line(sb, "car lookup", carLookup);
+        line(sb, "car listing", carListing);
+        line(sb, "car change", carChange);
+        sb.append("\nFleet utilization:\n");
+        Map<String, Integer> maintenance = getMaintenanceByCategory();
+        for (Map.Entry<String, Double> e : getUtilizationByCategory().entrySet()) {
+            sb.append(String.format("  %-15s %5.1f%% rented, %d under maintenance%n",
+                    e.getKey(), e.getValue() * 100.0, maintenance.get(e.getKey())));
+        }
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, LatencyHistogram h) {
+        sb.append(String.format("  %-12s %s%n", name, h.summary()));
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : new LatencyHistogram[]{booking, cancel, update, complete, search, quote,
+                invoice, carLookup, carListing, carChange}) {
+            h.reset();
+        }
+        for (LongAdder a : new LongAdder[]{bookings, rejectedLeadTime, rejectedNoCar, rejectedQueueFull, bookingBatches,
+                batchedRequests, cancellations, cancelRejectedWindow, updates, updateRejectedWindow, updateRejectedConflict,
+                completions, rentalsStarted, reassignments, quoteCacheHits, quoteCacheMisses, eventsPublished,
+                eventSubscribersDropped, archived}) {
+            a.reset();
+        }
+    }
+}
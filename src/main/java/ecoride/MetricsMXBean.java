@@ -0,0 +1,45 @@
+package ecoride;
+
+import java.util.Map;
+
+/**
+ * JMX view of Metrics. Latencies are in microseconds.
+ */
+public interface MetricsMXBean {
+    long getBookings();
+    long getBookingsRejectedLeadTime();
+    long getBookingsRejectedNoCar();
+    long getBookingsRejectedQueueFull();
+    long getBookingBatches();
+    long getCancellations();
+    long getCancellationsRejectedWindow();
+    long getUpdates();
+    long getUpdatesRejectedWindow();
+    long getUpdatesRejectedConflict();
+    long getCompletions();
+    long getRentalsStarted();
+    long getReassignments();
+    long getQuoteCacheHits();
+    long getQuoteCacheMisses();
+    double getQuoteCacheHitRate();
+    long getEventsPublished();
+    long getEventSubscribersDropped();
+    long getArchived();
+
+    double getBookingP50Micros();
+    double getBookingP99Micros();
+    double getCancelP99Micros();
+    double getUpdateP99Micros();
+    double getSearchP99Micros();
+    double getInvoiceP99Micros();
+
+    /** Share of in-service cars currently out on rental, per category. */
+    Map<String, Double> getUtilizationByCategory();
+
+    /** Cars under maintenance, per category. */
+    Map<String, Integer> getMaintenanceByCategory();
+
+    String dump();
+
+    void reset();
+}
@@ -0,0 +1,43 @@
+package ecoride;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * What one node offers the cluster, per partition. Every call completes
+ * asynchronously so a transport can put a network between caller and
+ * node; a failure, such as a booking with no free car, completes the
+ * future exceptionally with the same exception the ReservationManager
+ * would throw.
+ */
+public interface NodeApi {
+    String getNodeId();
+
+    CompletableFuture<Void> addCar(PartitionKey key, String carId, String model);
+
+    CompletableFuture<List<Car>> listCars(PartitionKey key);
+
+    /** Books a car of the key's category; completes with the node-local reservation id. */
+    CompletableFuture<String> book(PartitionKey key, Customer customer, LocalDate startDate, int numDays,
+                                   int expectedTotalKm);
+
+    CompletableFuture<Boolean> cancel(PartitionKey key, String reservationId);
+
+    /** Completes with null if the partition has no such reservation. */
+    CompletableFuture<Reservation> find(PartitionKey key, String reservationId);
+
+    /** Across every partition the node holds. */
+    CompletableFuture<List<Reservation>> searchByCustomerName(String name);
+
+    CompletableFuture<Set<PartitionKey>> partitions();
+
+    /** A consistent copy of one partition, for moving it to another node. */
+    CompletableFuture<PartitionImage> export(PartitionKey key);
+
+    /** Takes on a partition exported by another node. */
+    CompletableFuture<Void> load(PartitionKey key, PartitionImage image);
+
+    CompletableFuture<Void> drop(PartitionKey key);
+}
@@ -0,0 +1,11 @@
+package ecoride;
+
+/**
+ * How a Cluster reaches its nodes. LoopbackTransport calls nodes in the
+ * same process; a networked transport would return a NodeApi that sends
+ * each call to the node's HTTP service.
+ */
+public interface NodeTransport {
+    /** The node with this id; IllegalArgumentException if there is none. */
+    NodeApi connect(String nodeId);
+}
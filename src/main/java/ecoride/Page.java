@@ -0,0 +1,38 @@
+package ecoride;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of query results, and the cursor to pass to the query's after()
+ * for the next page; null when there are no more results.
+ */
+public final class Page<T> {
+    private final List<T> items;
+    private final String nextCursor;
+
+    private Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    static <T> Page<T> read(QueryCursor<T> cursor, int limit) {
+        List<T> items = new ArrayList<>(Math.min(limit, 1024));
+        while (items.size() < limit && cursor.hasNext()) items.add(cursor.next());
+        String next = !items.isEmpty() && cursor.hasNext() ? cursor.position() : null;
+        return new Page<>(Collections.unmodifiableList(items), next);
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
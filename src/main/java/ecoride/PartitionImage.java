@@ -0,0 +1,100 @@
+package ecoride;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything in one partition as plain rows, for moving the partition
+ * between nodes: its cars, and its reservations live and archived. Taken
+ * from a single StateSnapshot, so the rows are consistent with each other.
+ */
+public final class PartitionImage {
+    private final List<CarRow> cars;
+    private final List<ReservationRow> reservations;
+
+    public PartitionImage(List<CarRow> cars, List<ReservationRow> reservations) {
+        this.cars = Collections.unmodifiableList(new ArrayList<>(cars));
+        this.reservations = Collections.unmodifiableList(new ArrayList<>(reservations));
+    }
+
+    static PartitionImage of(StateSnapshot snapshot) {
+        List<CarRow> cars = new ArrayList<>();
+        for (Car c : snapshot.getCars()) {
+            cars.add(new CarRow(c.getCarId(), c.getModel(), c.getCategory(), c.getAvailabilityStatus()));
+        }
+        List<ReservationRow> reservations = new ArrayList<>();
+        for (Reservation r : snapshot.getReservations()) {
+            Customer c = r.getCustomer();
+            reservations.add(new ReservationRow(r.getReservationId(), c.getIdDocument(), c.getName(),
+                    c.getContactNumber(), c.getEmail(), r.getCar().getCarId(), r.getBookingDate(),
+                    r.getRentalStartDate(), r.getNumDays(), r.getExpectedTotalKm(), r.getStatus()));
+        }
+        return new PartitionImage(cars, reservations);
+    }
+
+    public List<CarRow> getCars() { return cars; }
+    public List<ReservationRow> getReservations() { return reservations; }
+
+    public static final class CarRow {
+        private final String carId;
+        private final String model;
+        private final Category category;
+        private final AvailabilityStatus status;
+
+        public CarRow(String carId, String model, Category category, AvailabilityStatus status) {
+            this.carId = carId;
+            this.model = model;
+            this.category = category;
+            this.status = status;
+        }
+
+        public String getCarId() { return carId; }
+        public String getModel() { return model; }
+        public Category getCategory() { return category; }
+        public AvailabilityStatus getStatus() { return status; }
+    }
+
+    public static final class ReservationRow {
+        private final String reservationId;
+        private final String idDocument;
+        private final String name;
+        private final String contactNumber;
+        private final String email;
+        private final String carId;
+        private final LocalDate bookingDate;
+        private final LocalDate startDate;
+        private final int numDays;
+        private final int expectedTotalKm;
+        private final ReservationStatus status;
+
+        public ReservationRow(String reservationId, String idDocument, String name, String contactNumber, String email,
+                              String carId, LocalDate bookingDate, LocalDate startDate, int numDays,
+                              int expectedTotalKm, ReservationStatus status) {
+            this.reservationId = reservationId;
+            this.idDocument = idDocument;
+            this.name = name;
+            this.contactNumber = contactNumber;
+            this.email = email;
+            this.carId = carId;
+            this.bookingDate = bookingDate;
+            this.startDate = startDate;
+            this.numDays = numDays;
+            this.expectedTotalKm = expectedTotalKm;
+            this.status = status;
+        }
+
+        public String getReservationId() { return reservationId; }
+        public String getIdDocument() { return idDocument; }
+        public String getName() { return name; }
+        public String getContactNumber() { return contactNumber; }
+        public String getEmail() { return email; }
+        public String getCarId() { return carId; }
+        public LocalDate getBookingDate() { return bookingDate; }
+        public LocalDate getStartDate() { return startDate; }
+        public int getNumDays() { return numDays; }
+        public int getExpectedTotalKm() { return expectedTotalKm; }
+        public ReservationStatus getStatus() { return status; }
+    }
+}
@@ -0,0 +1,49 @@
+package ecoride;
+
+import java.util.Locale;
+
+/**
+ * What the data is partitioned on: a branch or region and a car category.
+ * All cars under one key, and every reservation on them, live in a single
+ * partition on a single node. Text form is region:CATEGORY.
+ */
+public final class PartitionKey {
+    private final String region;
+    private final Category category;
+
+    public PartitionKey(String region, Category category) {
+        if (region == null || region.trim().isEmpty()) throw new IllegalArgumentException("Region is required.");
+        if (region.indexOf(':') >= 0 || region.indexOf('/') >= 0) {
+            throw new IllegalArgumentException("Region must not contain ':' or '/'.");
+        }
+        this.region = region.trim().toLowerCase(Locale.ROOT);
+        this.category = category;
+    }
+
+    /** Reads the text form; IllegalArgumentException if it is not one. */
+    public static PartitionKey parse(String text) {
+        int colon = text.indexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("Not a partition key: '" + text + "'.");
+        return new PartitionKey(text.substring(0, colon), Category.valueOf(text.substring(colon + 1)));
+    }
+
+    public String getRegion() { return region; }
+    public Category getCategory() { return category; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PartitionKey)) return false;
+        PartitionKey k = (PartitionKey) o;
+        return region.equals(k.region) && category == k.category;
+    }
+
+    @Override
+    public int hashCode() {
+        return region.hashCode() * 31 + category.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return region + ":" + category;
+    }
+}
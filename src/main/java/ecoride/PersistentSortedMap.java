@@ -0,0 +1,200 @@
+package ecoride;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted map. plus and minus return a new map that shares all
+ * but O(log n) nodes with the old one, so keeping an old version costs
+ * only what has changed since, and readers need no locks.
+ *
+ * A treap whose node priorities come from the keys' hashes, so the shape
+ * depends only on the contents and stays balanced in expectation even
+ * for keys arriving in order.
+ */
+public final class PersistentSortedMap<K extends Comparable<? super K>, V> implements Iterable<V> {
+    private static final PersistentSortedMap<?, ?> EMPTY = new PersistentSortedMap<>(null);
+
+    private final Node<K, V> root;
+
+    private PersistentSortedMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+        return (PersistentSortedMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public V get(K key) {
+        Node<K, V> n = root;
+        while (n != null) {
+            int c = key.compareTo(n.key);
+            if (c == 0) return n.value;
+            n = c < 0 ? n.left : n.right;
+        }
+        return null;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /** This map with key mapped to value, which must not be null. */
+    public PersistentSortedMap<K, V> plus(K key, V value) {
+        if (value == null) throw new IllegalArgumentException("Null values are not supported.");
+        return new PersistentSortedMap<>(insert(root, key, value, priority(key)));
+    }
+
+    /** This map without key; this map itself if key is absent. */
+    public PersistentSortedMap<K, V> minus(K key) {
+        Node<K, V> r = delete(root, key);
+        return r == root ? this : new PersistentSortedMap<>(r);
+    }
+
+    /** Values in key order. */
+    @Override
+    public Iterator<V> iterator() {
+        return valuesAfter(null);
+    }
+
+    /** Values of the keys after key, in key order; all of them if key is null. */
+    public Iterator<V> valuesAfter(K key) {
+        Values<K, V> it = new Values<>();
+        for (Node<K, V> n = root; n != null; ) {
+            if (key == null || n.key.compareTo(key) > 0) {
+                it.stack.push(n);
+                n = n.left;
+            } else {
+                n = n.right;
+            }
+        }
+        return it;
+    }
+
+    /** Values from the index-th in key order on, counting from 0; O(log n) to start. */
+    public Iterator<V> valuesFrom(int index) {
+        Values<K, V> it = new Values<>();
+        for (Node<K, V> n = root; n != null; ) {
+            int left = size(n.left);
+            if (index <= left) it.stack.push(n);
+            if (index == left) break;
+            if (index < left) {
+                n = n.left;
+            } else {
+                index -= left + 1;
+                n = n.right;
+            }
+        }
+        return it;
+    }
+
+    /** How many keys are at or below key. */
+    public int rank(K key) {
+        int below = 0;
+        for (Node<K, V> n = root; n != null; ) {
+            int c = key.compareTo(n.key);
+            if (c < 0) {
+                n = n.left;
+            } else {
+                below += size(n.left) + 1;
+                if (c == 0) break;
+                n = n.right;
+            }
+        }
+        return below;
+    }
+
+    private static int size(Node<?, ?> n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static int priority(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> insert(Node<K, V> n, K key, V value, int priority) {
+        if (n == null) return new Node<>(key, value, priority, null, null);
+        int c = key.compareTo(n.key);
+        if (c == 0) return n.value == value ? n : new Node<>(key, value, n.priority, n.left, n.right);
+        if (c < 0) {
+            Node<K, V> l = insert(n.left, key, value, priority);
+            if (l.priority > n.priority) {
+                return new Node<>(l.key, l.value, l.priority, l.left, new Node<>(n.key, n.value, n.priority, l.right, n.right));
+            }
+            return new Node<>(n.key, n.value, n.priority, l, n.right);
+        }
+        Node<K, V> r = insert(n.right, key, value, priority);
+        if (r.priority > n.priority) {
+            return new Node<>(r.key, r.value, r.priority, new Node<>(n.key, n.value, n.priority, n.left, r.left), r.right);
+        }
+        return new Node<>(n.key, n.value, n.priority, n.left, r);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> delete(Node<K, V> n, K key) {
+        if (n == null) return null;
+        int c = key.compareTo(n.key);
+        if (c == 0) return merge(n.left, n.right);
+        if (c < 0) {
+            Node<K, V> l = delete(n.left, key);
+            return l == n.left ? n : new Node<>(n.key, n.value, n.priority, l, n.right);
+        }
+        Node<K, V> r = delete(n.right, key);
+        return r == n.right ? n : new Node<>(n.key, n.value, n.priority, n.left, r);
+    }
+
+    // every key in a is below every key in b
+    private static <K extends Comparable<? super K>, V> Node<K, V> merge(Node<K, V> a, Node<K, V> b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) return new Node<>(a.key, a.value, a.priority, a.left, merge(a.right, b));
+        return new Node<>(b.key, b.value, b.priority, merge(a, b.left), b.right);
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int priority;
+        final Node<K, V> left;
+        final Node<K, V> right;
+        final int size;
+
+        Node(K key, V value, int priority, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+        }
+    }
+
+    // in-order walk; the stack holds the next node on top, then the ancestors still to visit
+    private static final class Values<K extends Comparable<? super K>, V> implements Iterator<V> {
+        final Deque<Node<K, V>> stack = new ArrayDeque<>();
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public V next() {
+            if (stack.isEmpty()) throw new NoSuchElementException();
+            Node<K, V> n = stack.pop();
+            for (Node<K, V> m = n.right; m != null; m = m.left) stack.push(m);
+            return n.value;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ecoride;
+
+/**
+ * Price breakdown of one rental, in LKR rounded to cents.
+ * Callers on hot paths pass one instance in and reuse it across quotes.
+ */
+public final class PriceBreakdown {
+    private double base;
+    private double extraCharge;
+    private double discount;
+    private double tax;
+    private double deposit;
+    private double payable;
+
+    void set(double base, double extraCharge, double discount, double tax, double deposit, double payable) {
+        this.base = base;
+        this.extraCharge = extraCharge;
+        this.discount = discount;
+        this.tax = tax;
+        this.deposit = deposit;
+        this.payable = payable;
+    }
+
+    public double getBase() { return base; }
+    public double getExtraCharge() { return extraCharge; }
+    public double getDiscount() { return discount; }
+    public double getTax() { return tax; }
+    public double getDeposit() { return deposit; }
+    public double getPayable() { return payable; }
+
+    @Override
+    public String toString() {
+        return String.format("base=%.2f extra=%.2f discount=%.2f tax=%.2f deposit=%.2f payable=%.2f",
+                base, extraCharge, discount, tax, deposit, payable);
+    }
+}
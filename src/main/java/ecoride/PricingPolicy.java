@@ -1,27 +1,103 @@
 package ecoride;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * Wrapper around PricingInfo for clearer access.
+ * Rates are read from an ordinal-indexed PricingTable, which can be swapped
+ * at runtime; each quote reads one table, so it never mixes two versions.
  */
 public class PricingPolicy {
+    private volatile PricingTable table;
+
+    public PricingPolicy() {
+        this(PricingTable.fromPricingInfo());
+    }
+
+    public PricingPolicy(PricingTable table) {
+        this.table = table;
+    }
+
+    public PricingTable getTable() {
+        return table;
+    }
+
+    public long getVersion() {
+        return table.version;
+    }
+
+    /**
+     * Makes table the current rates for all quotes from now on.
+     */
+    public void setTable(PricingTable table) {
+        if (table == null) throw new IllegalArgumentException("Pricing table is required.");
+        this.table = table;
+    }
+
+    /**
+     * Loads rates from a properties file (see PricingTable.load) and swaps
+     * them in. The current rates stay in place if the file is invalid.
+     */
+    public PricingTable reload(Path file) throws IOException {
+        PricingTable loaded = PricingTable.load(file);
+        setTable(loaded);
+        return loaded;
+    }
 
     public double getDailyRate(Category category) {
-        return PricingInfo.DAILY_RATES.get(category);
+        return table.dailyRates[category.ordinal()];
     }
 
     public int getFreeKm(Category category) {
-        return PricingInfo.FREE_KM.get(category);
+        return table.freeKm[category.ordinal()];
     }
 
     public double getExtraKmCharge(Category category) {
-        return PricingInfo.EXTRA_KM_CHARGES.get(category);
+        return table.extraKmCharges[category.ordinal()];
     }
 
     public double getTaxRate(Category category) {
-        return PricingInfo.TAX_RATES.get(category);
+        return table.taxRates[category.ordinal()];
     }
 
     public double getDeposit() {
-        return PricingInfo.REFUNDABLE_DEPOSIT;
+        return table.deposit;
+    }
+
+    /**
+     * Computes the price breakdown into out and returns it. Allocates nothing.
+     */
+    public PriceBreakdown quote(Category category, int numDays, int expectedTotalKm, PriceBreakdown out) {
+        return quote(table, category, numDays, expectedTotalKm, out);
+    }
+
+    static PriceBreakdown quote(PricingTable table, Category category, int numDays, int expectedTotalKm, PriceBreakdown out) {
+        int i = category.ordinal();
+        double basePrice = table.dailyRates[i] * numDays;
+
+        int extraKm = extraKm(table, category, numDays, expectedTotalKm);
+        double extraCharge = extraKm * table.extraKmCharges[i];
+
+        double discount = (numDays >= 7) ? 0.10 * basePrice : 0.0;
+        double subTotal = basePrice + extraCharge - discount;
+        double tax = table.taxRates[i] * subTotal;
+        double finalBeforeDeposit = subTotal + tax;
+        double deposit = table.deposit;
+        double payable = finalBeforeDeposit - deposit;
+        if (payable < 0) payable = 0.0;
+
+        out.set(round(basePrice), round(extraCharge), round(discount), round(tax), round(deposit), round(payable));
+        return out;
+    }
+
+    // distance beyond the free allowance; the only way km affects a quote
+    static int extraKm(PricingTable table, Category category, int numDays, int expectedTotalKm) {
+        int freeKmTotal = table.freeKm[category.ordinal()] * numDays;
+        return Math.max(0, expectedTotalKm - freeKmTotal);
+    }
+
+    private static double round(double val) {
+        return Math.round(val * 100.0) / 100.0;
     }
 }
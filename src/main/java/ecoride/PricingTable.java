@@ -0,0 +1,86 @@
+package ecoride;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One immutable version of the pricing rates, flattened into arrays indexed
+ * by Category.ordinal() so rate lookups on the quote path need no map access
+ * or unboxing. Every table gets a new version number when it is built.
+ */
+public final class PricingTable {
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    final long version;
+    final double[] dailyRates;
+    final int[] freeKm;
+    final double[] extraKmCharges;
+    final double[] taxRates;
+    final double deposit;
+
+    private PricingTable(double[] dailyRates, int[] freeKm, double[] extraKmCharges, double[] taxRates, double deposit) {
+        this.version = VERSIONS.incrementAndGet();
+        this.dailyRates = dailyRates;
+        this.freeKm = freeKm;
+        this.extraKmCharges = extraKmCharges;
+        this.taxRates = taxRates;
+        this.deposit = deposit;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public static PricingTable fromPricingInfo() {
+        return fromProperties(new Properties());
+    }
+
+    /**
+     * Reads rates from a properties file. Keys are dailyRate.CATEGORY,
+     * freeKm.CATEGORY, extraKmCharge.CATEGORY, taxRate.CATEGORY and deposit;
+     * anything left out keeps its PricingInfo value.
+     */
+    public static PricingTable load(Path file) throws IOException {
+        Properties p = new Properties();
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            p.load(in);
+        }
+        return fromProperties(p);
+    }
+
+    private static PricingTable fromProperties(Properties p) {
+        int n = Category.values().length;
+        double[] daily = new double[n];
+        int[] free = new int[n];
+        double[] extra = new double[n];
+        double[] tax = new double[n];
+        for (Category c : Category.values()) {
+            int i = c.ordinal();
+            daily[i] = number(p, "dailyRate." + c.name(), PricingInfo.DAILY_RATES.get(c));
+            free[i] = (int) number(p, "freeKm." + c.name(), PricingInfo.FREE_KM.get(c));
+            extra[i] = number(p, "extraKmCharge." + c.name(), PricingInfo.EXTRA_KM_CHARGES.get(c));
+            tax[i] = number(p, "taxRate." + c.name(), PricingInfo.TAX_RATES.get(c));
+        }
+        return new PricingTable(daily, free, extra, tax, number(p, "deposit", PricingInfo.REFUNDABLE_DEPOSIT));
+    }
+
+    private static double number(Properties p, String key, double fallback) {
+        String s = p.getProperty(key);
+        if (s == null) return fallback;
+        double v;
+        try {
+            v = Double.parseDouble(s.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Pricing value '" + key + "' is not a number.");
+        }
+        if (v < 0 || Double.isNaN(v) || Double.isInfinite(v)) {
+            throw new IllegalArgumentException("Pricing value '" + key + "' must be zero or more.");
+        }
+        return v;
+    }
+}
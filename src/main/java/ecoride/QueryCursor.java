@@ -0,0 +1,69 @@
+package ecoride;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks a query's access path lazily, keeping the elements that pass the
+ * remaining filters, and knows where to resume after the last one it
+ * returned.
+ */
+abstract class QueryCursor<T> implements Iterator<T> {
+    private final Predicate<? super T> filter;
+    private T next;
+    private String nextPosition;
+    private String position;
+
+    QueryCursor(Predicate<? super T> filter) {
+        this.filter = filter;
+    }
+
+    /** The next element on the access path, or null at its end. */
+    abstract T advance();
+
+    /** The resume token for just after the element advance() returned last. */
+    abstract String positionOfLast();
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            T t = advance();
+            if (t == null) return false;
+            if (filter.test(t)) {
+                next = t;
+                nextPosition = positionOfLast();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        T t = next;
+        next = null;
+        position = nextPosition;
+        return t;
+    }
+
+    /** Where to resume after the element next() returned last; null before the first. */
+    String position() {
+        return position;
+    }
+
+    Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // skips n elements that pass the filter
+    QueryCursor<T> skip(long n) {
+        for (long i = 0; i < n && hasNext(); i++) next();
+        return this;
+    }
+}
@@ -0,0 +1,232 @@
+package ecoride;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Bounded cache of price quotes, keyed by pricing version, category, days
+ * and extra km. Kilometres within the free allowance all share one entry,
+ * since they price the same. Entries are split over segments so concurrent
+ * quotes rarely meet, and a pricing swap empties the cache; entries also
+ * carry their version, so one from an older table is never served.
+ *
+ * Each segment is an open-addressing table over primitive arrays, with
+ * the packed key in a long and the six amounts side by side in a double
+ * array, so a lookup neither boxes nor allocates. Hits are optimistic
+ * reads that write nothing shared; a miss stores under the segment's write
+ * lock, evicting by CLOCK once the segment is full.
+ */
+public class QuoteCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final int SEGMENTS = 16;
+    private static final int AMOUNTS = 6;
+
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        final int mask;
+        final int maxSize;
+        final long[] keys;
+        // pricing version of each slot; 0 marks an empty slot, as versions start at 1
+        final long[] versions;
+        // base, extraCharge, discount, tax, deposit, payable per slot
+        final double[] amounts;
+        // CLOCK bits, set on a hit without the lock; a lost update only skews eviction
+        final boolean[] referenced;
+        int size;
+        int hand;
+
+        Segment(int maxSize) {
+            int slots = Integer.highestOneBit(Math.max(2, maxSize) * 2 - 1) << 1; // at most half full
+            this.mask = slots - 1;
+            this.maxSize = maxSize;
+            this.keys = new long[slots];
+            this.versions = new long[slots];
+            this.amounts = new double[slots * AMOUNTS];
+            this.referenced = new boolean[slots];
+        }
+
+        // slot holding key, or -1; stops after one lap in case a concurrent writer keeps the probe going
+        int find(long key, int hash) {
+            for (int n = 0, i = hash & mask; n <= mask; n++, i = (i + 1) & mask) {
+                if (versions[i] == 0) return -1;
+                if (keys[i] == key) return i;
+            }
+            return -1;
+        }
+
+        // with the write lock held
+        void put(long key, int hash, long version, PriceBreakdown p) {
+            int slot = find(key, hash);
+            if (slot < 0) {
+                if (size == maxSize) evict();
+                slot = hash & mask;
+                while (versions[slot] != 0) slot = (slot + 1) & mask;
+                size++;
+            }
+            keys[slot] = key;
+            versions[slot] = version;
+            int a = slot * AMOUNTS;
+            amounts[a] = p.getBase();
+            amounts[a + 1] = p.getExtraCharge();
+            amounts[a + 2] = p.getDiscount();
+            amounts[a + 3] = p.getTax();
+            amounts[a + 4] = p.getDeposit();
+            amounts[a + 5] = p.getPayable();
+            referenced[slot] = false;
+        }
+
+        // removes the first entry not used since the hand last passed it
+        private void evict() {
+            while (true) {
+                int i = hand;
+                hand = (hand + 1) & mask;
+                if (versions[i] == 0) continue;
+                if (referenced[i]) {
+                    referenced[i] = false;
+                    continue;
+                }
+                remove(i);
+                return;
+            }
+        }
+
+        // backward-shift deletion, so probes never need tombstones
+        private void remove(int slot) {
+            int hole = slot;
+            for (int i = (slot + 1) & mask; versions[i] != 0; i = (i + 1) & mask) {
+                int home = slotHash(keys[i]) & mask;
+                // the entry at i may fill the hole if its home is not cyclically within (hole, i]
+                boolean stays = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+                if (stays) continue;
+                keys[hole] = keys[i];
+                versions[hole] = versions[i];
+                System.arraycopy(amounts, i * AMOUNTS, amounts, hole * AMOUNTS, AMOUNTS);
+                referenced[hole] = referenced[i];
+                hole = i;
+            }
+            versions[hole] = 0;
+            referenced[hole] = false;
+            size--;
+        }
+
+        // with the write lock held
+        void clear() {
+            Arrays.fill(versions, 0);
+            Arrays.fill(referenced, false);
+            size = 0;
+            hand = 0;
+        }
+    }
+
+    private final PricingPolicy pricing;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private volatile long cachedVersion;
+
+    public QuoteCache(PricingPolicy pricing, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1.");
+        this.pricing = pricing;
+        int perSegment = Math.max(1, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(perSegment);
+        this.cachedVersion = pricing.getVersion();
+    }
+
+    /**
+     * Writes the quote into out, from the cache when possible.
+     * Returns true on a cache hit. Allocates nothing.
+     */
+    public boolean quote(Category category, int numDays, int expectedTotalKm, PriceBreakdown out) {
+        PricingTable table = pricing.getTable();
+        if (numDays < 0 || numDays >= 1 << 29) {
+            PricingPolicy.quote(table, category, numDays, expectedTotalKm, out);
+            return false;
+        }
+        if (table.version != cachedVersion) invalidate(table.version);
+
+        int extraKm = PricingPolicy.extraKm(table, category, numDays, expectedTotalKm);
+        long key = ((long) category.ordinal() << 61) | ((long) numDays << 32) | extraKm;
+        Segment segment = segments[mix(key) & (SEGMENTS - 1)];
+        int hash = slotHash(key);
+        int hit = read(segment, key, hash, table.version, out);
+        if (hit < 0) hit = readLocked(segment, key, hash, table.version, out);
+        if (hit > 0) return true;
+        PricingPolicy.quote(table, category, numDays, expectedTotalKm, out);
+        long stamp = segment.lock.writeLock();
+        try {
+            segment.put(key, hash, table.version, out);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        return false;
+    }
+
+    // optimistic: 1 on a hit, 0 on a miss, -1 if a writer got in the way
+    private static int read(Segment s, long key, int hash, long version, PriceBreakdown out) {
+        long stamp = s.lock.tryOptimisticRead();
+        if (stamp == 0) return -1;
+        int slot = s.find(key, hash);
+        long v = slot < 0 ? 0 : s.versions[slot];
+        int a = Math.max(0, slot) * AMOUNTS;
+        double base = s.amounts[a], extra = s.amounts[a + 1], discount = s.amounts[a + 2];
+        double tax = s.amounts[a + 3], deposit = s.amounts[a + 4], payable = s.amounts[a + 5];
+        if (!s.lock.validate(stamp)) return -1;
+        if (slot < 0 || v != version) return 0;
+        s.referenced[slot] = true;
+        out.set(base, extra, discount, tax, deposit, payable);
+        return 1;
+    }
+
+    private static int readLocked(Segment s, long key, int hash, long version, PriceBreakdown out) {
+        long stamp = s.lock.readLock();
+        try {
+            int slot = s.find(key, hash);
+            if (slot < 0 || s.versions[slot] != version) return 0;
+            int a = slot * AMOUNTS;
+            s.referenced[slot] = true;
+            out.set(s.amounts[a], s.amounts[a + 1], s.amounts[a + 2], s.amounts[a + 3], s.amounts[a + 4],
+                    s.amounts[a + 5]);
+            return 1;
+        } finally {
+            s.lock.unlockRead(stamp);
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // the segment takes the low bits of mix, the slot the ones above
+    private static int slotHash(long key) {
+        return mix(key) >>> 4;
+    }
+
+    public int size() {
+        int n = 0;
+        for (Segment s : segments) {
+            long stamp = s.lock.readLock();
+            try {
+                n += s.size;
+            } finally {
+                s.lock.unlockRead(stamp);
+            }
+        }
+        return n;
+    }
+
+    public void clear() {
+        for (Segment s : segments) {
+            long stamp = s.lock.writeLock();
+            try {
+                s.clear();
+            } finally {
+                s.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private synchronized void invalidate(long version) {
+        if (cachedVersion == version) return;
+        cachedVersion = version;
+        clear();
+    }
+}
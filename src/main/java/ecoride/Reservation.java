@@ -4,35 +4,76 @@ import java.time.LocalDate;
 
 
 public class Reservation {
-    private static int counter = 1;
-
-    private final String reservationId;
+    private final long id;
+    private final IdAllocator ids;
+    private String reservationId; // rendered on first use
     private final Customer customer;
-    private final Car car;
+    private volatile Car car; // changes only when the fleet optimizer reassigns it
     private final LocalDate bookingDate;
     private final LocalDate rentalStartDate;
-    private int numDays;
-    private int expectedTotalKm;
+    private volatile int numDays;
+    private volatile int expectedTotalKm;
     private final double refundableDeposit;
-    private ReservationStatus status;
-
-    public Reservation(Customer customer, Car car, LocalDate rentalStartDate, int numDays, int expectedTotalKm) {
-        this.reservationId = String.format("R%03d", counter++);
+    private final PricingTable pricing;
+    private volatile ReservationStatus status;
+    private volatile boolean modificationWindowOpen = true;
+
+    public Reservation(long id, IdAllocator ids, Customer customer, Car car, LocalDate bookingDate,
+                       LocalDate rentalStartDate, int numDays, int expectedTotalKm, PricingTable pricing) {
+        this.id = id;
+        this.ids = ids;
         this.customer = customer;
         this.car = car;
-        this.bookingDate = LocalDate.now();
+        this.bookingDate = bookingDate;
         this.rentalStartDate = rentalStartDate;
         this.numDays = numDays;
         this.expectedTotalKm = expectedTotalKm;
         this.refundableDeposit = PricingInfo.REFUNDABLE_DEPOSIT;
+        this.pricing = pricing;
         this.status = ReservationStatus.ACTIVE;
+    }
+
+    // used when rebuilding state from the journal and for archive rows; leaves ids alone,
+    // so reading the archive never touches the allocator
+    Reservation(long id, IdAllocator ids, Customer customer, Car car, LocalDate bookingDate, LocalDate rentalStartDate,
+                int numDays, int expectedTotalKm, ReservationStatus status, PricingTable pricing) {
+        this.id = id;
+        this.ids = ids;
+        this.customer = customer;
+        this.car = car;
+        this.bookingDate = bookingDate;
+        this.rentalStartDate = rentalStartDate;
+        this.numDays = numDays;
+        this.expectedTotalKm = expectedTotalKm;
+        this.refundableDeposit = PricingInfo.REFUNDABLE_DEPOSIT;
+        this.pricing = pricing;
+        this.status = status;
+    }
 
+    private Reservation(Reservation from, Car car) {
+        this.id = from.id;
+        this.ids = from.ids;
+        this.reservationId = from.reservationId;
+        this.customer = from.customer;
+        this.car = car;
+        this.bookingDate = from.bookingDate;
+        this.rentalStartDate = from.rentalStartDate;
+        this.numDays = from.numDays;
+        this.expectedTotalKm = from.expectedTotalKm;
+        this.refundableDeposit = from.refundableDeposit;
+        this.pricing = from.pricing;
+        this.status = from.status;
+        this.modificationWindowOpen = from.modificationWindowOpen;
+    }
 
-        this.car.setAvailability(AvailabilityStatus.RESERVED);
+    public long getId() {
+        return id;
     }
 
     public String getReservationId() {
-        return reservationId;
+        String s = reservationId;
+        if (s == null) reservationId = s = ids.format(id);
+        return s;
     }
 
     public Customer getCustomer() {
@@ -43,6 +84,10 @@ public class Reservation {
         return car;
     }
 
+    void moveTo(Car car) {
+        this.car = car;
+    }
+
     public LocalDate getBookingDate() {
         return bookingDate;
     }
@@ -63,10 +108,35 @@ public class Reservation {
         return refundableDeposit;
     }
 
+    /** The rates it was booked under; its charges and invoices use these, not the current ones. */
+    public PricingTable getPricing() {
+        return pricing;
+    }
+
     public ReservationStatus getStatus() {
         return status;
     }
 
+    /** True while the reservation is booked or under way, so its car is spoken for. */
+    public boolean holdsCar() {
+        ReservationStatus s = status;
+        return s == ReservationStatus.ACTIVE || s == ReservationStatus.IN_PROGRESS;
+    }
+
+    /** False once the cancel/update window after booking has passed. */
+    public boolean isModificationWindowOpen() {
+        return modificationWindowOpen;
+    }
+
+    void closeModificationWindow() {
+        this.modificationWindowOpen = false;
+    }
+
+    // a detached copy on car for StateSnapshot; callers hold the reservation's lock
+    Reservation copyOn(Car car) {
+        return new Reservation(this, car);
+    }
+
     public void setNumDays(int numDays) {
         this.numDays = numDays;
     }
@@ -75,20 +145,33 @@ public class Reservation {
         this.expectedTotalKm = expectedTotalKm;
     }
     public void cancel() {
+        boolean started = status == ReservationStatus.IN_PROGRESS;
         this.status = ReservationStatus.CANCELLED;
-        this.car.setAvailability(AvailabilityStatus.AVAILABLE);
+        if (started && car.getAvailabilityStatus() == AvailabilityStatus.RESERVED) car.setAvailability(AvailabilityStatus.AVAILABLE);
+    }
+
+    public void start() {
+        this.status = ReservationStatus.IN_PROGRESS;
+        if (car.getAvailabilityStatus() == AvailabilityStatus.AVAILABLE) car.setAvailability(AvailabilityStatus.RESERVED);
     }
 
+    /**
+     * Returns the car unless the next rental on it starts the day this one
+     * ends; callers release this reservation's days first.
+     */
     public void complete() {
         this.status = ReservationStatus.COMPLETED;
-        this.car.setAvailability(AvailabilityStatus.AVAILABLE);
+        if (car.getAvailabilityStatus() == AvailabilityStatus.RESERVED
+                && car.getCalendar().isFree(rentalStartDate.plusDays(numDays), 1)) {
+            car.setAvailability(AvailabilityStatus.AVAILABLE);
+        }
     }
 
     @Override
     public String toString() {
         return String.format(
                 "ResID:%s | Cust:%s | Car:%s | Start:%s | Days:%d | Km:%d | Status:%s",
-                reservationId, customer.getName(), car.getCarId(), rentalStartDate, numDays, expectedTotalKm, status
+                getReservationId(), customer.getName(), car.getCarId(), rentalStartDate, numDays, expectedTotalKm, status
         );
     }
 }
@@ -0,0 +1,313 @@
+package ecoride;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Column store for reservations that are COMPLETED or CANCELLED and so
+ * will not change again. Each row is a handful of primitives in chunked
+ * arrays: the id, epoch days, days and km, a status code, indexes into
+ * small car, customer and rate tables, and the amount charged in cents. With
+ * its id and date index entries a row costs under 80 bytes, against
+ * several hundred for the live object graph, and the arrays give the
+ * collector nothing to trace.
+ *
+ * Rows are turned back into Reservation objects on lookup. Those copies
+ * are read-only in effect: their status is final and their modification
+ * window is closed.
+ */
+public class ReservationArchive {
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MASK = CHUNK - 1;
+    private static final ReservationStatus[] STATUSES = ReservationStatus.values();
+
+    private final IdAllocator ids;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[][] idCol = new long[0][];
+    private int[][] bookingDayCol = new int[0][];
+    private int[][] startDayCol = new int[0][];
+    private int[][] daysCol = new int[0][];
+    private int[][] kmCol = new int[0][];
+    private byte[][] statusCol = new byte[0][];
+    private int[][] carCol = new int[0][];
+    private int[][] customerCol = new int[0][];
+    private long[][] chargeCol = new long[0][];
+    private int[][] pricingCol = new int[0][];
+    private int size;
+
+    private final List<Car> cars = new ArrayList<>();
+    private final Map<Car, Integer> carIndex = new IdentityHashMap<>();
+    private final List<Customer> customers = new ArrayList<>();
+    private final Map<Customer, Integer> customerIndex = new IdentityHashMap<>();
+    // the rates each row was booked under; few, as tables change rarely
+    private final List<PricingTable> tables = new ArrayList<>();
+    private final Map<PricingTable, Integer> tableIndex = new IdentityHashMap<>();
+    private final List<IntList> rowsByCustomer = new ArrayList<>();
+    private final NavigableMap<Integer, IntList> rowsByStartDay = new TreeMap<>();
+    // open addressing id -> row + 1; 0 marks an empty slot
+    private long[] slotIds = new long[1024];
+    private int[] slotRows = new int[1024];
+
+    public ReservationArchive(IdAllocator ids) {
+        this.ids = ids;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends terminal reservations; chargeCents[i] is what batch[i] was
+     * priced at. Reservations still holding a car are rejected.
+     */
+    void append(List<Reservation> batch, long[] chargeCents) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Reservation r = batch.get(i);
+                if (r.holdsCar()) throw new IllegalArgumentException("Reservation " + r.getReservationId() + " is not finished.");
+                if (find(r.getId()) >= 0) continue;
+                int row = size;
+                int c = row >>> CHUNK_BITS;
+                if (c == idCol.length) grow();
+                int o = row & MASK;
+                idCol[c][o] = r.getId();
+                bookingDayCol[c][o] = (int) r.getBookingDate().toEpochDay();
+                startDayCol[c][o] = (int) r.getRentalStartDate().toEpochDay();
+                daysCol[c][o] = r.getNumDays();
+                kmCol[c][o] = r.getExpectedTotalKm();
+                statusCol[c][o] = (byte) r.getStatus().ordinal();
+                carCol[c][o] = carIndex.computeIfAbsent(r.getCar(), k -> {
+                    cars.add(k);
+                    return cars.size() - 1;
+                });
+                int cust = customerIndex.computeIfAbsent(r.getCustomer(), k -> {
+                    customers.add(k);
+                    rowsByCustomer.add(new IntList());
+                    return customers.size() - 1;
+                });
+                customerCol[c][o] = cust;
+                chargeCol[c][o] = chargeCents[i];
+                pricingCol[c][o] = tableIndex.computeIfAbsent(r.getPricing(), k -> {
+                    tables.add(k);
+                    return tables.size() - 1;
+                });
+                rowsByCustomer.get(cust).add(row);
+                rowsByStartDay.computeIfAbsent(startDayCol[c][o], k -> new IntList()).add(row);
+                putSlot(r.getId(), row);
+                size = row + 1;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(long id) {
+        return contains(id, Integer.MAX_VALUE);
+    }
+
+    // as contains(id), looking only at the first rows rows
+    boolean contains(long id, int rows) {
+        lock.readLock().lock();
+        try {
+            int row = find(id);
+            return row >= 0 && row < rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The archived reservation with this id, or null. */
+    public Reservation get(long id) {
+        return get(id, Integer.MAX_VALUE);
+    }
+
+    // as get(id), looking only at the first rows rows
+    Reservation get(long id, int rows) {
+        lock.readLock().lock();
+        try {
+            int row = find(id);
+            return row < 0 || row >= rows ? null : materialize(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** What the reservation was priced at when archived, in cents; -1 if it is not archived. */
+    public long chargedCents(long id) {
+        lock.readLock().lock();
+        try {
+            int row = find(id);
+            return row < 0 ? -1 : chargeCol[row >>> CHUNK_BITS][row & MASK];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Archived reservations of this customer instance, in archive order. */
+    public List<Reservation> forCustomer(Customer customer) {
+        lock.readLock().lock();
+        try {
+            Integer cust = customerIndex.get(customer);
+            return cust == null ? new ArrayList<>() : materialize(rowsByCustomer.get(cust));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Archived reservations starting from..to inclusive, by start date. */
+    public List<Reservation> startingBetween(LocalDate from, LocalDate to) {
+        lock.readLock().lock();
+        try {
+            List<Reservation> out = new ArrayList<>();
+            for (IntList rows : rowsByStartDay.subMap((int) from.toEpochDay(), true, (int) to.toEpochDay(), true).values()) {
+                out.addAll(materialize(rows));
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the first day on or after day that archived reservations start on; Long.MAX_VALUE if none
+    long nextStartDay(long day) {
+        lock.readLock().lock();
+        try {
+            Integer next = rowsByStartDay.ceilingKey((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, day)));
+            return next == null ? Long.MAX_VALUE : next;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // reservations among the first rows rows that start on day, by id
+    List<Reservation> startingOn(long day, int rows) {
+        lock.readLock().lock();
+        try {
+            IntList hits = rowsByStartDay.get((int) day);
+            List<Reservation> out = new ArrayList<>();
+            if (hits == null) return out;
+            for (int i = 0; i < hits.size && hits.items[i] < rows; i++) out.add(materialize(hits.items[i]));
+            out.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rows from..to-1 as reservations; fewer if the archive is shorter.
+     */
+    List<Reservation> rows(int from, int to) {
+        lock.readLock().lock();
+        try {
+            List<Reservation> out = new ArrayList<>(Math.max(0, Math.min(to, size) - from));
+            for (int row = from; row < Math.min(to, size); row++) out.add(materialize(row));
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---- internals; callers hold the lock ----
+
+    private List<Reservation> materialize(IntList rows) {
+        List<Reservation> out = new ArrayList<>(rows.size);
+        for (int i = 0; i < rows.size; i++) out.add(materialize(rows.items[i]));
+        return out;
+    }
+
+    private Reservation materialize(int row) {
+        int c = row >>> CHUNK_BITS;
+        int o = row & MASK;
+        Car car = cars.get(carCol[c][o]);
+        Reservation r = new Reservation(idCol[c][o], ids, customers.get(customerCol[c][o]), car,
+                LocalDate.ofEpochDay(bookingDayCol[c][o]), LocalDate.ofEpochDay(startDayCol[c][o]),
+                daysCol[c][o], kmCol[c][o], STATUSES[statusCol[c][o]], tables.get(pricingCol[c][o]));
+        r.closeModificationWindow();
+        return r;
+    }
+
+    private void grow() {
+        int n = idCol.length + 1;
+        idCol = Arrays.copyOf(idCol, n);
+        bookingDayCol = Arrays.copyOf(bookingDayCol, n);
+        startDayCol = Arrays.copyOf(startDayCol, n);
+        daysCol = Arrays.copyOf(daysCol, n);
+        kmCol = Arrays.copyOf(kmCol, n);
+        statusCol = Arrays.copyOf(statusCol, n);
+        carCol = Arrays.copyOf(carCol, n);
+        customerCol = Arrays.copyOf(customerCol, n);
+        chargeCol = Arrays.copyOf(chargeCol, n);
+        pricingCol = Arrays.copyOf(pricingCol, n);
+        int c = n - 1;
+        idCol[c] = new long[CHUNK];
+        bookingDayCol[c] = new int[CHUNK];
+        startDayCol[c] = new int[CHUNK];
+        daysCol[c] = new int[CHUNK];
+        kmCol[c] = new int[CHUNK];
+        statusCol[c] = new byte[CHUNK];
+        carCol[c] = new int[CHUNK];
+        customerCol[c] = new int[CHUNK];
+        chargeCol[c] = new long[CHUNK];
+        pricingCol[c] = new int[CHUNK];
+    }
+
+    private int find(long id) {
+        int mask = slotIds.length - 1;
+        for (int i = hash(id) & mask; slotRows[i] != 0; i = (i + 1) & mask) {
+            if (slotIds[i] == id) return slotRows[i] - 1;
+        }
+        return -1;
+    }
+
+    private void putSlot(long id, int row) {
+        if ((size + 1) * 2 > slotIds.length) {
+            long[] oldIds = slotIds;
+            int[] oldRows = slotRows;
+            slotIds = new long[oldIds.length * 2];
+            slotRows = new int[oldIds.length * 2];
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldRows[i] != 0) insert(oldIds[i], oldRows[i]);
+            }
+        }
+        insert(id, row + 1);
+    }
+
+    private void insert(long id, int rowPlusOne) {
+        int mask = slotIds.length - 1;
+        int i = hash(id) & mask;
+        while (slotRows[i] != 0) i = (i + 1) & mask;
+        slotIds[i] = id;
+        slotRows[i] = rowPlusOne;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static final class IntList {
+        int[] items = new int[2];
+        int size;
+
+        void add(int v) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+        }
+    }
+}
@@ -1,92 +1,726 @@
 package ecoride;
 
+import java.time.Clock;
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Manages reservations and applies business rules and pricing logic.
+ * Safe for concurrent use: a car is claimed through its calendar, and
+ * changes to one reservation are serialized on that reservation.
  */
 public class ReservationManager {
-    private final Map<String, Reservation> reservations = new HashMap<>();
+    /** Most customers searchByCustomerName collects reservations for. */
+    public static final int SEARCH_LIMIT = 20;
+    /** How many finished reservations queue up before the thread that finished the last one archives them. */
+    public static final int ARCHIVE_BATCH = 256;
+
+    private final Map<Long, Reservation> reservations = new ConcurrentHashMap<>();
+    // secondary indexes; cancelled reservations stay listed, matching the old full scans
+    private final NavigableMap<LocalDate, Queue<Reservation>> byStartDate = new ConcurrentSkipListMap<>();
+    private final CustomerIndex customers = new CustomerIndex();
+    private final CustomerRegistry registry;
+    // COMPLETED and CANCELLED reservations moved out of the maps above by archiveTerminal
+    private final ReservationArchive archive;
+    // reservations that became COMPLETED or CANCELLED and are not archived yet, in the order they finished
+    private final Queue<Reservation> finished = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedCount = new AtomicInteger();
+    // keeps batches going into the archive one at a time, in order
+    private final ReentrantLock archiving = new ReentrantLock();
     private final CarInventory inventory;
     private final PricingPolicy pricing;
+    private final QuoteCache quotes;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Metrics metrics;
+    private final IdAllocator reservationIds;
+    private final IdAllocator invoiceIds;
+    private final Clock clock;
+    private final LifecycleEngine lifecycle;
+    private final EventStream events;
+    private final Aggregates aggregates;
+    private final StateVersions versions;
+    // per category: shared by everything that books or frees calendar days, exclusive for FleetOptimizer
+    private final ReentrantReadWriteLock[] assignmentLocks = new ReentrantReadWriteLock[Category.values().length];
+    // restored reservations whose days were still taken on their car; see finishRestore
+    private final Set<Reservation> unplaced = ConcurrentHashMap.newKeySet();
 
     public ReservationManager(CarInventory inventory, PricingPolicy pricing) {
+        this(inventory, pricing, new BlockIdAllocator("R"), new BlockIdAllocator("INV-"), Clock.systemDefaultZone());
+    }
+
+    public ReservationManager(CarInventory inventory, PricingPolicy pricing, IdAllocator reservationIds,
+                              IdAllocator invoiceIds) {
+        this(inventory, pricing, reservationIds, invoiceIds, Clock.systemDefaultZone());
+    }
+
+    /**
+     * clock decides what "today" is for booking rules and the lifecycle.
+     */
+    public ReservationManager(CarInventory inventory, PricingPolicy pricing, IdAllocator reservationIds,
+                              IdAllocator invoiceIds, Clock clock) {
         this.inventory = inventory;
         this.pricing = pricing;
+        this.reservationIds = reservationIds;
+        this.invoiceIds = invoiceIds;
+        this.clock = clock;
+        this.archive = new ReservationArchive(reservationIds);
+        this.registry = new CustomerRegistry(customers, archive);
+        this.lifecycle = new LifecycleEngine(this, clock);
+        for (int i = 0; i < assignmentLocks.length; i++) assignmentLocks[i] = new ReentrantReadWriteLock();
+        this.quotes = new QuoteCache(pricing, QuoteCache.DEFAULT_CAPACITY);
+        this.metrics = inventory.getMetrics();
+        this.events = new EventStream(clock, metrics);
+        listeners.add(events);
+        inventory.addListener(events);
+        this.aggregates = new Aggregates(inventory);
+        listeners.add(aggregates);
+        this.versions = new StateVersions(inventory, archive);
+        listeners.add(versions);
+        inventory.addListener(versions);
+    }
+
+    public PricingPolicy getPricing() {
+        return pricing;
+    }
+
+    /**
+     * The engine that starts and completes rentals as days pass. It does
+     * nothing until started or advanced.
+     */
+    public LifecycleEngine getLifecycle() {
+        return lifecycle;
+    }
+
+    /**
+     * Change events for both this manager and its inventory.
+     */
+    public EventStream getEvents() {
+        return events;
+    }
+
+    /**
+     * The current consistent view of all cars and reservations. Costs the
+     * changes made since the last call; bookings never wait for it, see
+     * StateVersions.
+     */
+    public StateSnapshot snapshot() {
+        return versions.current();
+    }
+
+    /**
+     * Revenue and utilization totals, kept current as reservations change.
+     */
+    public Aggregates getAggregates() {
+        return aggregates;
+    }
+
+    public LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    // the lifecycle closes the window, but not every caller runs one, so check the date as well
+    private boolean windowOpen(Reservation r) {
+        return r.isModificationWindowOpen()
+                && !today().isAfter(r.getBookingDate().plusDays(LifecycleEngine.MODIFICATION_WINDOW_DAYS));
+    }
+
+    ReentrantReadWriteLock assignmentLock(Category category) {
+        return assignmentLocks[category.ordinal()];
+    }
+
+    private Lock lockAssignments(Reservation r) {
+        Lock shared = assignmentLocks[r.getCar().getCategory().ordinal()].readLock();
+        shared.lock();
+        return shared;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    public CarInventory getInventory() {
+        return inventory;
     }
 
     /**
      * Creates reservation after validating:
+     * - at least one day, and an expected distance that is not negative
      * - booking must be at least 3 days before start date
-     * - an available car in category must exist
+     * - a car in category must be free for the whole requested period
      * Returns reservation id if successful.
      */
     public String createReservation(Customer customer, Category category, LocalDate startDate, int numDays, int expectedTotalKm) throws IllegalArgumentException {
-        LocalDate today = LocalDate.now();
-        if (startDate.isBefore(today.plusDays(3))) {
-            throw new IllegalArgumentException("Booking must be made at least 3 days prior to rental start date.");
+        long t0 = System.nanoTime();
+        try {
+            checkRental(numDays, expectedTotalKm);
+            LocalDate today = today();
+            if (startDate.isBefore(today.plusDays(3))) {
+                metrics.rejectedLeadTime.increment();
+                throw new IllegalArgumentException("Booking must be made at least 3 days prior to rental start date.");
+            }
+            Reservation r;
+            Lock shared = assignmentLock(category).readLock();
+            shared.lock();
+            try {
+                Car assigned = inventory.claimFreeCar(category, startDate, numDays);
+                if (assigned == null) {
+                    metrics.rejectedNoCar.increment();
+                    throw new IllegalArgumentException("No available cars in chosen category for the requested period.");
+                }
+                r = register(customer, assigned, today, startDate, numDays, expectedTotalKm);
+            } finally {
+                shared.unlock();
+            }
+            lifecycle.schedule(r);
+            metrics.bookings.increment();
+            return r.getReservationId();
+        } finally {
+            metrics.booking.recordSince(t0);
         }
-        List<Car> candidates = inventory.listAvailableByCategory(category);
-        if (candidates.isEmpty()) {
-            throw new IllegalArgumentException("No available cars in chosen category for the requested period.");
+    }
+
+    /**
+     * createReservation for a batch of requests in one category, as drained
+     * by BookingPipeline: the category is locked once and its cars looked up
+     * and assigned in one pass. Each request gets its reservation id or the
+     * exception createReservation would have thrown.
+     */
+    void createReservations(Category category, List<BookingPipeline.Request> batch) {
+        LocalDate today = today();
+        List<BookingPipeline.Request> admitted = new ArrayList<>(batch.size());
+        for (BookingPipeline.Request req : batch) {
+            try {
+                checkRental(req.numDays, req.expectedTotalKm);
+            } catch (IllegalArgumentException bad) {
+                req.error = bad;
+                continue;
+            }
+            if (req.startDate.isBefore(today.plusDays(3))) {
+                metrics.rejectedLeadTime.increment();
+                req.error = new IllegalArgumentException("Booking must be made at least 3 days prior to rental start date.");
+            } else {
+                admitted.add(req);
+            }
+        }
+        if (admitted.isEmpty()) return;
+        LocalDate[] starts = new LocalDate[admitted.size()];
+        int[] days = new int[admitted.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = admitted.get(i).startDate;
+            days[i] = admitted.get(i).numDays;
+        }
+        Reservation[] created = new Reservation[starts.length];
+        Lock shared = assignmentLock(category).readLock();
+        shared.lock();
+        try {
+            Car[] cars = inventory.claimFreeCars(category, starts, days);
+            for (int i = 0; i < cars.length; i++) {
+                BookingPipeline.Request req = admitted.get(i);
+                if (cars[i] == null) {
+                    metrics.rejectedNoCar.increment();
+                    req.error = new IllegalArgumentException("No available cars in chosen category for the requested period.");
+                } else {
+                    try {
+                        created[i] = register(req.customer, cars[i], today, req.startDate, req.numDays,
+                                req.expectedTotalKm);
+                        req.reservationId = created[i].getReservationId();
+                    } catch (RuntimeException ex) {
+                        req.error = ex; // fails this booking only; the rest of the batch goes ahead
+                    }
+                }
+            }
+        } finally {
+            shared.unlock();
         }
-        Car assigned = candidates.get(0); // simple first-fit assignment
-        Reservation r = new Reservation(customer, assigned, startDate, numDays, expectedTotalKm);
-        reservations.put(r.getReservationId(), r);
-        return r.getReservationId();
+        for (Reservation r : created) {
+            if (r == null) continue;
+            lifecycle.schedule(r);
+            metrics.bookings.increment();
+        }
+    }
+
+    private static void checkRental(int numDays, int expectedTotalKm) {
+        if (numDays < 1) throw new IllegalArgumentException("A rental must last at least one day.");
+        if (expectedTotalKm < 0) throw new IllegalArgumentException("Expected distance must not be negative.");
     }
 
+    // caller holds the category's assignment lock and has booked the days on car
+    private Reservation register(Customer customer, Car car, LocalDate today, LocalDate startDate, int numDays,
+                                 int expectedTotalKm) {
+        Reservation r = new Reservation(reservationIds.next(), reservationIds, registry.intern(customer), car, today,
+                startDate, numDays, expectedTotalKm, pricing.getTable());
+        synchronized (r) {
+            reservations.put(r.getId(), r);
+            index(r);
+            for (ChangeListener l : listeners) l.reservationCreated(r);
+        }
+        return r;
+    }
+
+    /**
+     * Puts a reservation back exactly as recorded, without business rules or
+     * listeners. Used when rebuilding state from the journal; applying the
+     * same record twice leaves the same state. Old rate tables are not
+     * recorded, so a restored reservation is priced at the current rates.
+     */
+    void restore(String reservationId, Customer customer, Car car, LocalDate bookingDate, LocalDate startDate,
+                 int numDays, int expectedTotalKm, ReservationStatus status) {
+        long id = reservationIds.parse(reservationId);
+        if (id < 0) throw new IllegalArgumentException("Unrecognised reservation id '" + reservationId + "'.");
+        Reservation r = reservations.get(id);
+        if (r == null && archive.contains(id)) return; // finished for good
+        if (r == null) {
+            reservationIds.advancePast(id);
+            r = new Reservation(id, reservationIds, registry.intern(customer), car, bookingDate, startDate, numDays,
+                    expectedTotalKm, status, pricing.getTable());
+            if (r.holdsCar()) place(r, car, numDays);
+            reservations.put(id, r);
+            index(r);
+            lifecycle.schedule(r);
+            aggregates.apply(r);
+            versions.reservationChanged(r);
+            if (!r.holdsCar()) finished(r);
+            return;
+        }
+        synchronized (r) {
+            boolean held = r.holdsCar();
+            boolean holds = status == ReservationStatus.ACTIVE || status == ReservationStatus.IN_PROGRESS;
+            boolean inPlace = held && !unplaced.contains(r); // its days are booked on its car
+            if (!(holds && inPlace && r.getCar() == car && r.getNumDays() == numDays)) {
+                if (inPlace) r.getCar().getCalendar().release(r.getRentalStartDate());
+                unplaced.remove(r);
+                r.moveTo(car);
+                if (holds) place(r, car, numDays);
+            }
+            boolean daysChanged = r.getNumDays() != numDays;
+            r.setNumDays(numDays);
+            r.setExpectedTotalKm(expectedTotalKm);
+            if (status == ReservationStatus.CANCELLED) r.cancel();
+            else if (status == ReservationStatus.COMPLETED) r.complete();
+            else if (status == ReservationStatus.IN_PROGRESS) r.start();
+            if (daysChanged && holds) lifecycle.rescheduleEnd(r);
+            aggregates.apply(r);
+            versions.reservationChanged(r);
+            if (held && !r.holdsCar()) finished(r);
+        }
+    }
+
+    // a reassignment can land on days the journal frees only in a later record
+    private void place(Reservation r, Car car, int numDays) {
+        if (!car.getCalendar().book(r.getRentalStartDate(), numDays)) unplaced.add(r);
+    }
+
+    /**
+     * Books the days of restored reservations that could not be placed when
+     * their record was applied, because another reservation still held them
+     * at that point in the journal. Called once replay is complete.
+     */
+    void finishRestore() {
+        for (Reservation r : unplaced) {
+            if (r.holdsCar() && !r.getCar().getCalendar().book(r.getRentalStartDate(), r.getNumDays())) {
+                System.err.println("Restored reservation " + r.getReservationId() + " overlaps another booking on "
+                        + r.getCar().getCarId() + ".");
+            }
+        }
+        unplaced.clear();
+    }
+
+    // ---- lifecycle transitions, called by LifecycleEngine ----
+
+    // called by FleetOptimizer with the category locked and r's calendar days already moved to car
+    void reassign(Reservation r, Car car) {
+        synchronized (r) {
+            Car old = r.getCar();
+            r.moveTo(car);
+            for (ChangeListener l : listeners) l.reservationReassigned(r, old);
+        }
+        metrics.reassignments.increment();
+    }
+
+    void startRental(Reservation r) {
+        synchronized (r) {
+            if (r.getStatus() != ReservationStatus.ACTIVE) return;
+            r.start();
+            for (ChangeListener l : listeners) l.reservationStarted(r);
+        }
+        metrics.rentalsStarted.increment();
+    }
+
+    // endDay is the end the deadline was set for; a stale one is ignored
+    void finishRental(Reservation r, long endDay) {
+        Lock shared = lockAssignments(r);
+        try {
+            synchronized (r) {
+                if (!r.holdsCar() || r.getRentalStartDate().toEpochDay() + r.getNumDays() != endDay) return;
+                finish(r);
+            }
+        } finally {
+            shared.unlock();
+        }
+        metrics.completions.increment();
+        archiveIfDue();
+    }
+
+    private void finish(Reservation r) {
+        r.getCar().getCalendar().release(r.getRentalStartDate());
+        r.complete();
+        for (ChangeListener l : listeners) l.reservationCompleted(r);
+        finished(r);
+    }
+
+    // under r's lock, after the listeners of the change that ended it
+    private void finished(Reservation r) {
+        finished.add(r);
+        finishedCount.incrementAndGet();
+    }
+
+    // with no locks held; a full batch is archived unless another thread is archiving already
+    private void archiveIfDue() {
+        if (finishedCount.get() < ARCHIVE_BATCH || !archiving.tryLock()) return;
+        try {
+            archiveFinished();
+        } finally {
+            archiving.unlock();
+        }
+    }
+
+    private void index(Reservation r) {
+        registry.addReservation(r);
+        byStartDate.computeIfAbsent(r.getRentalStartDate(), k -> new ConcurrentLinkedQueue<>()).add(r);
+    }
+
+    /**
+     * Looks in the live reservations, then the archive. An archived
+     * reservation comes back as a fresh read-only copy.
+     */
     public Reservation findById(String reservationId) {
-        return reservations.get(reservationId);
+        long id = reservationIds.parse(reservationId);
+        return id < 0 ? null : findById(id);
+    }
+
+    public Reservation findById(long id) {
+        Reservation r = reservations.get(id);
+        return r != null ? r : archive.get(id);
+    }
+
+    /**
+     * Starts an invoice for r under its invoice id.
+     */
+    public Invoice newInvoice(Reservation r) {
+        return new Invoice(invoiceIdFor(r), r);
     }
 
+    /**
+     * The one invoice id of a reservation: its id number in the invoice id
+     * format, e.g. INV-7-001 for R7-001. Reissuing an invoice repeats it.
+     */
+    public String invoiceIdFor(Reservation r) {
+        return invoiceIds.format(r.getId());
+    }
+
+    /**
+     * Reservations of the customers whose names contain name at a word
+     * start, best match first; if there are none, of the closest spellings
+     * (see CustomerIndex). At most SEARCH_LIMIT customers are considered.
+     */
     public List<Reservation> searchByCustomerName(String name) {
+        long t0 = System.nanoTime();
         List<Reservation> out = new ArrayList<>();
-        for (Reservation r : reservations.values()) {
-            if (r.getCustomer().getName().equalsIgnoreCase(name)) out.add(r);
+        List<Customer> matches = customers.search(name, SEARCH_LIMIT);
+        boolean prefixOnly = !matches.isEmpty() && CustomerIndex.matchesPrefix(matches.get(0).getName(), name);
+        for (Customer c : matches) {
+            if (prefixOnly && !CustomerIndex.matchesPrefix(c.getName(), name)) continue;
+            out.addAll(registry.reservations(c.getIdDocument()));
         }
+        metrics.search.recordSince(t0);
         return out;
     }
 
+    /**
+     * Up to k customers matching a partial or misspelt name, best first.
+     */
+    public List<Customer> searchCustomers(String query, int k) {
+        long t0 = System.nanoTime();
+        List<Customer> out = customers.search(query, k);
+        metrics.search.recordSince(t0);
+        return out;
+    }
+
+    /** Customer lookups by idDocument, contact number and email. */
+    public CustomerIndex getCustomers() {
+        return customers;
+    }
+
+    /** The shared Customer per idDocument and each customer's reservations. */
+    public CustomerRegistry getCustomerRegistry() {
+        return registry;
+    }
+
+    /**
+     * All reservations of one customer, oldest booking first.
+     */
+    public List<Reservation> reservationsFor(String idDocument) {
+        return registry.reservations(idDocument);
+    }
+
     public List<Reservation> reservationsByDate(LocalDate date) {
-        List<Reservation> out = new ArrayList<>();
-        for (Reservation r : reservations.values()) {
-            if (r.getRentalStartDate().equals(date)) out.add(r);
+        long t0 = System.nanoTime();
+        List<Reservation> out = archive.startingBetween(date, date);
+        Queue<Reservation> hits = byStartDate.get(date);
+        if (hits != null) out.addAll(hits);
+        metrics.search.recordSince(t0);
+        return out;
+    }
+
+    /**
+     * Reservations whose rental starts between from and to, both inclusive,
+     * ordered by start date; within a day archived ones come first.
+     */
+    public List<Reservation> reservationsBetween(LocalDate from, LocalDate to) {
+        long t0 = System.nanoTime();
+        List<Reservation> archived = archive.startingBetween(from, to);
+        List<Reservation> out = new ArrayList<>(archived.size());
+        int a = 0;
+        for (Map.Entry<LocalDate, Queue<Reservation>> day : byStartDate.subMap(from, true, to, true).entrySet()) {
+            while (a < archived.size() && !archived.get(a).getRentalStartDate().isAfter(day.getKey())) {
+                out.add(archived.get(a++));
+            }
+            out.addAll(day.getValue());
         }
+        while (a < archived.size()) out.add(archived.get(a++));
+        metrics.search.recordSince(t0);
         return out;
     }
 
     /**
-     * Cancellation allowed only within 2 days from booking date.
-     * Returns true if cancelled successfully.
+     * Moves every COMPLETED and CANCELLED reservation not archived yet into
+     * the archive and drops it from the live maps and indexes; lookups keep
+     * finding it there. Its figures stay in the aggregates. Returns how many
+     * moved.
+     *
+     * Reservations are queued as they finish, and every ARCHIVE_BATCH of
+     * them is archived by the thread that finished the last one, so this
+     * only moves what has queued up since; it never scans the live ones.
+     */
+    public int archiveTerminal() {
+        archiving.lock();
+        try {
+            return archiveFinished();
+        } finally {
+            archiving.unlock();
+        }
+    }
+
+    // with archiving held
+    private int archiveFinished() {
+        List<Reservation> batch = new ArrayList<>();
+        Set<Reservation> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int n = finishedCount.get(); n > 0; n--) {
+            Reservation r = finished.poll();
+            if (r == null) break;
+            finishedCount.decrementAndGet();
+            synchronized (r) {
+                // a replayed journal record can bring a reservation back, or queue it twice
+                if (!r.holdsCar() && reservations.get(r.getId()) == r && seen.add(r)) batch.add(r);
+            }
+        }
+        if (batch.isEmpty()) return 0;
+        long[] charges = new long[batch.size()];
+        PriceBreakdown p = new PriceBreakdown();
+        for (int i = 0; i < charges.length; i++) charges[i] = chargeCents(batch.get(i), p);
+        // into the archive first, so a concurrent lookup finds each one in at least one tier
+        archive.append(batch, charges);
+        Map<LocalDate, Set<Reservation>> byDay = new HashMap<>();
+        for (Reservation r : batch) {
+            synchronized (r) {
+                reservations.remove(r.getId());
+                aggregates.forget(r.getId());
+            }
+            registry.archived(r);
+            byDay.computeIfAbsent(r.getRentalStartDate(), k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(r);
+        }
+        // emptied days keep their queue: removing it could race with index() adding to it
+        for (Map.Entry<LocalDate, Set<Reservation>> day : byDay.entrySet()) {
+            Queue<Reservation> q = byStartDate.get(day.getKey());
+            if (q != null) q.removeIf(day.getValue()::contains);
+        }
+        versions.archived(batch, archive.size());
+        metrics.archived.add(batch.size());
+        return batch.size();
+    }
+
+    /**
+     * What r is charged before the deposit, in cents: base plus extra km
+     * less discount, plus tax, at the rates it was booked under; zero if
+     * cancelled. Archived reservations keep the amount they were archived
+     * with.
+     */
+    long chargeCents(Reservation r, PriceBreakdown buf) {
+        if (r.getStatus() == ReservationStatus.CANCELLED) return 0;
+        if (!r.holdsCar()) {
+            long archived = archive.chargedCents(r.getId());
+            if (archived >= 0) return archived;
+        }
+        PricingPolicy.quote(r.getPricing(), r.getCar().getCategory(), r.getNumDays(), r.getExpectedTotalKm(), buf);
+        return Math.round((buf.getBase() + buf.getExtraCharge() - buf.getDiscount() + buf.getTax()) * 100);
+    }
+
+    /**
+     * Reservations matching filters, over the current snapshot, in pages
+     * or as a lazy stream; see ReservationQuery.
+     */
+    public ReservationQuery queryReservations() {
+        return new ReservationQuery(this, snapshot());
+    }
+
+    /** Cars matching filters, over the current snapshot; see CarQuery. */
+    public CarQuery queryCars() {
+        return snapshot().queryCars();
+    }
+
+    public ReservationArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Cancellation allowed only within 2 days from booking date; the
+     * lifecycle engine closes the window.
+     * Returns true if cancelled successfully; false if it was already
+     * cancelled or completed.
      */
     public boolean cancelReservation(String reservationId) {
-        Reservation r = reservations.get(reservationId);
-        if (r == null) return false;
-        LocalDate bookingDate = r.getBookingDate();
-        LocalDate now = LocalDate.now();
-        long daysSinceBooking = ChronoUnit.DAYS.between(bookingDate, now);
-        if (daysSinceBooking > 2) {
-            return false; // cannot cancel after 2 days from reservation
+        long t0 = System.nanoTime();
+        try {
+            Reservation r = findById(reservationId);
+            if (r == null) return false;
+            if (!windowOpen(r)) {
+                metrics.cancelRejectedWindow.increment();
+                return false; // cannot cancel after 2 days from reservation
+            }
+            Lock shared = lockAssignments(r);
+            try {
+                synchronized (r) {
+                    if (!r.holdsCar()) return false; // already cancelled or completed
+                    r.getCar().getCalendar().release(r.getRentalStartDate());
+                    r.cancel();
+                    for (ChangeListener l : listeners) l.reservationCancelled(r);
+                    finished(r);
+                }
+            } finally {
+                shared.unlock();
+            }
+            metrics.cancellations.increment();
+            archiveIfDue();
+            return true;
+        } finally {
+            metrics.cancel.recordSince(t0);
+        }
+    }
+
+    /**
+     * Completes a booked or started reservation now, ahead of its end date
+     * if need be, and returns its car.
+     * Returns true if the reservation was completed.
+     */
+    public boolean completeReservation(String reservationId) {
+        long t0 = System.nanoTime();
+        try {
+            Reservation r = findById(reservationId);
+            if (r == null) return false;
+            Lock shared = lockAssignments(r);
+            try {
+                synchronized (r) {
+                    if (!r.holdsCar()) return false;
+                    finish(r);
+                }
+            } finally {
+                shared.unlock();
+            }
+            metrics.completions.increment();
+            archiveIfDue();
+            return true;
+        } finally {
+            metrics.complete.recordSince(t0);
         }
-        r.cancel();
-        return true;
     }
 
     /**
-     * Update reservation (allowed only within 2 days of booking).
-     * Returns true if update applied.
+     * Update reservation (allowed only within 2 days of booking, and only
+     * if the car is still free for the new number of days).
+     * Returns true if update applied; IllegalArgumentException for fewer
+     * than one day or a negative distance.
      */
     public boolean updateReservation(String reservationId, int newDays, int newExpectedKm) {
-        Reservation r = reservations.get(reservationId);
-        if (r == null) return false;
-        long daysSinceBooking = ChronoUnit.DAYS.between(r.getBookingDate(), LocalDate.now());
-        if (daysSinceBooking > 2) return false;
-        r.setNumDays(newDays);
-        r.setExpectedTotalKm(newExpectedKm);
-        return true;
+        long t0 = System.nanoTime();
+        try {
+            checkRental(newDays, newExpectedKm);
+            Reservation r = findById(reservationId);
+            if (r == null) return false;
+            if (!windowOpen(r)) {
+                metrics.updateRejectedWindow.increment();
+                return false;
+            }
+            Lock shared = lockAssignments(r);
+            try {
+                synchronized (r) {
+                    if (r.getStatus() != ReservationStatus.ACTIVE) return false;
+                    if (!r.getCar().getCalendar().resize(r.getRentalStartDate(), newDays)) {
+                        metrics.updateRejectedConflict.increment();
+                        return false;
+                    }
+                    int oldDays = r.getNumDays();
+                    int oldKm = r.getExpectedTotalKm();
+                    r.setNumDays(newDays);
+                    r.setExpectedTotalKm(newExpectedKm);
+                    for (ChangeListener l : listeners) l.reservationUpdated(r, oldDays, oldKm);
+                }
+            } finally {
+                shared.unlock();
+            }
+            lifecycle.rescheduleEnd(r);
+            metrics.updates.increment();
+            return true;
+        } finally {
+            metrics.update.recordSince(t0);
+        }
+    }
+
+    /**
+     * Calculate full price breakdown, at the rates r was booked under, into
+     * the caller's buffer and return it. Allocates nothing; use this on hot
+     * paths.
+     */
+    public PriceBreakdown calculateInvoiceDetails(Reservation r, PriceBreakdown out) {
+        return PricingPolicy.quote(r.getPricing(), r.getCar().getCategory(), r.getNumDays(), r.getExpectedTotalKm(),
+                out);
+    }
+
+    /**
+     * Price preview for a rental that is not booked yet, at the current
+     * pricing version. Served from the quote cache when possible.
+     */
+    public PriceBreakdown quote(Category category, int numDays, int expectedTotalKm, PriceBreakdown out) {
+        long t0 = System.nanoTime();
+        if (quotes.quote(category, numDays, expectedTotalKm, out)) metrics.quoteCacheHits.increment();
+        else metrics.quoteCacheMisses.increment();
+        metrics.quote.recordSince(t0);
+        return out;
     }
 
     /**
@@ -94,38 +728,65 @@ public class ReservationManager {
      * keys: base, extraCharge, discount, tax, deposit, payable
      */
     public Map<String, Double> calculateInvoiceDetails(Reservation r) {
+        PriceBreakdown b = calculateInvoiceDetails(r, new PriceBreakdown());
         Map<String, Double> out = new HashMap<>();
-        PricingPolicy p = pricing;
-        double daily = p.getDailyRate(r.getCar().getCategory());
-        double basePrice = daily * r.getNumDays();
-
-        int freeKmPerDay = p.getFreeKm(r.getCar().getCategory());
-        int freeKmTotal = freeKmPerDay * r.getNumDays();
-        int extraKm = Math.max(0, r.getExpectedTotalKm() - freeKmTotal);
-        double extraCharge = extraKm * p.getExtraKmCharge(r.getCar().getCategory());
-
-        double discount = (r.getNumDays() >= 7) ? 0.10 * basePrice : 0.0;
-        double subTotal = basePrice + extraCharge - discount;
-        double tax = p.getTaxRate(r.getCar().getCategory()) * subTotal;
-        double finalBeforeDeposit = subTotal + tax;
-        double deposit = p.getDeposit();
-        double payable = finalBeforeDeposit - deposit;
-        if (payable < 0) payable = 0.0;
-
-        out.put("base", round(basePrice));
-        out.put("extraCharge", round(extraCharge));
-        out.put("discount", round(discount));
-        out.put("tax", round(tax));
-        out.put("deposit", round(deposit));
-        out.put("payable", round(payable));
+        out.put("base", b.getBase());
+        out.put("extraCharge", b.getExtraCharge());
+        out.put("discount", b.getDiscount());
+        out.put("tax", b.getTax());
+        out.put("deposit", b.getDeposit());
+        out.put("payable", b.getPayable());
         return out;
     }
 
-    private double round(double val) {
-        return Math.round(val * 100.0) / 100.0;
+    /**
+     * Live and archived reservations together, as the objects themselves.
+     * Iterating materializes the archived ones in chunks; one archived
+     * while the iteration runs may be seen twice but is never missed, and
+     * one that changes meanwhile may be seen before or after the change.
+     * Use snapshot() for a consistent view.
+     */
+    public Collection<Reservation> getAllReservations() {
+        return new AbstractCollection<Reservation>() {
+            @Override
+            public Iterator<Reservation> iterator() {
+                return new Iterator<Reservation>() {
+                    private final Iterator<Reservation> live = reservations.values().iterator();
+                    private int archived = -1; // read once the live ones are done
+                    private List<Reservation> chunk = Collections.emptyList();
+                    private int row;
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (live.hasNext()) return true;
+                        if (archived < 0) archived = archive.size();
+                        return next < chunk.size() || row < archived;
+                    }
+
+                    @Override
+                    public Reservation next() {
+                        if (live.hasNext()) return live.next();
+                        if (next == chunk.size()) {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            chunk = archive.rows(row, Math.min(row + 1024, archived));
+                            row += chunk.size();
+                            next = 0;
+                        }
+                        return chunk.get(next++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return reservations.size() + archive.size();
+            }
+        };
     }
 
-    public Collection<Reservation> getAllReservations() {
+    /** Reservations not yet archived; these are the only ones that can still change. */
+    public Collection<Reservation> getLiveReservations() {
         return reservations.values();
     }
 }
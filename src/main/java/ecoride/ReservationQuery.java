@@ -0,0 +1,321 @@
+package ecoride;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Reservations of one StateSnapshot, live and archived, matching the
+ * filters set on this query, read lazily as a stream or a page at a time.
+ * Each page carries a cursor that after() resumes from, in a later
+ * snapshot too.
+ *
+ * The query walks the narrowest index it has:
+ * - with a customer: that customer's reservations, by id;
+ * - with a start date range: the reservations starting in it, by start
+ *   date and then id, a day at a time;
+ * - otherwise: live reservations by id, then archived ones in archive
+ *   order, leaving out the archive when the statuses asked for cannot be
+ *   in it. Unfiltered, offset() here costs O(log n).
+ * Other filters are checked on the way. A reservation archived between two
+ * pages of that last walk may be returned twice, never skipped.
+ *
+ * The price filter is on what the rental is charged before the deposit:
+ * base plus extra km less discount, plus tax; zero when cancelled.
+ */
+public class ReservationQuery {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    private static final Set<ReservationStatus> ARCHIVABLE =
+            EnumSet.of(ReservationStatus.COMPLETED, ReservationStatus.CANCELLED);
+
+    private final ReservationManager manager;
+    private final StateSnapshot snapshot;
+    private Set<ReservationStatus> statuses;
+    private Set<Category> categories;
+    private LocalDate from;
+    private LocalDate to;
+    private String idDocument;
+    private long minCents = Long.MIN_VALUE;
+    private long maxCents = Long.MAX_VALUE;
+    private String after;
+    private long offset;
+    private int limit = -1;
+
+    ReservationQuery(ReservationManager manager, StateSnapshot snapshot) {
+        this.manager = manager;
+        this.snapshot = snapshot;
+    }
+
+    public ReservationQuery status(ReservationStatus first, ReservationStatus... more) {
+        statuses = EnumSet.of(first, more);
+        return this;
+    }
+
+    public ReservationQuery category(Category first, Category... more) {
+        categories = EnumSet.of(first, more);
+        return this;
+    }
+
+    /** Rentals starting between from and to, both inclusive. */
+    public ReservationQuery startingBetween(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) throw new IllegalArgumentException("Start of range is after its end.");
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    /** Reservations of the customer with this NIC or passport number. */
+    public ReservationQuery customer(String idDocument) {
+        this.idDocument = idDocument;
+        return this;
+    }
+
+    /** Charged between min and max LKR, both inclusive. */
+    public ReservationQuery priceBetween(double min, double max) {
+        if (min > max) throw new IllegalArgumentException("Minimum price is above the maximum.");
+        minCents = Math.round(min * 100);
+        maxCents = Math.round(max * 100);
+        return this;
+    }
+
+    /** Resumes after the cursor of an earlier page of the same query; null starts from the beginning. */
+    public ReservationQuery after(String cursor) {
+        this.after = cursor;
+        return this;
+    }
+
+    public ReservationQuery offset(long offset) {
+        if (offset < 0) throw new IllegalArgumentException("Offset must not be negative.");
+        this.offset = offset;
+        return this;
+    }
+
+    /** Most reservations stream() yields and the page size; DEFAULT_PAGE_SIZE for pages if unset. */
+    public ReservationQuery limit(int limit) {
+        if (limit < 1) throw new IllegalArgumentException("Limit must be positive.");
+        this.limit = limit;
+        return this;
+    }
+
+    public Stream<Reservation> stream() {
+        Stream<Reservation> s = cursor().stream();
+        return limit > 0 ? s.limit(limit) : s;
+    }
+
+    public Page<Reservation> page() {
+        return Page.read(cursor(), limit > 0 ? limit : DEFAULT_PAGE_SIZE);
+    }
+
+    private QueryCursor<Reservation> cursor() {
+        if (idDocument != null) return new ByCustomer(filter(true)).skip(offset);
+        if (from != null) return new ByStart(filter(false)).skip(offset);
+        boolean residual = statuses != null || categories != null || minCents != Long.MIN_VALUE
+                || maxCents != Long.MAX_VALUE;
+        if (residual) return new Scan(filter(false), 0).skip(offset);
+        return new Scan(filter(false), offset);
+    }
+
+    private Predicate<Reservation> filter(boolean checkDates) {
+        long fromDay = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        long toDay = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        PriceBreakdown buf = new PriceBreakdown();
+        return r -> {
+            if (statuses != null && !statuses.contains(r.getStatus())) return false;
+            if (categories != null && !categories.contains(r.getCar().getCategory())) return false;
+            if (checkDates) {
+                long day = r.getRentalStartDate().toEpochDay();
+                if (day < fromDay || day > toDay) return false;
+            }
+            if (minCents == Long.MIN_VALUE && maxCents == Long.MAX_VALUE) return true;
+            long cents = manager.chargeCents(r, buf);
+            return cents >= minCents && cents <= maxCents;
+        };
+    }
+
+    private static long number(String s, String cursor) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Not a cursor of this query: '" + cursor + "'.");
+        }
+    }
+
+    private String expect(char kind) {
+        if (after == null) return null;
+        if (after.isEmpty() || after.charAt(0) != kind) {
+            throw new IllegalArgumentException("Not a cursor of this query: '" + after + "'.");
+        }
+        return after.substring(1);
+    }
+
+    // the customer's reservations by id; cursor "i<id>"
+    private final class ByCustomer extends QueryCursor<Reservation> {
+        private final long[] ids;
+        private int next;
+        private long last;
+
+        ByCustomer(Predicate<Reservation> filter) {
+            super(filter);
+            String position = expect('i');
+            long afterId = position == null ? Long.MIN_VALUE : number(position, after);
+            List<Reservation> all = manager.reservationsFor(idDocument);
+            long[] found = new long[all.size()];
+            int n = 0;
+            for (Reservation r : all) {
+                if (r.getId() > afterId) found[n++] = r.getId();
+            }
+            ids = Arrays.copyOf(found, n);
+            Arrays.sort(ids);
+        }
+
+        @Override
+        Reservation advance() {
+            while (next < ids.length) {
+                last = ids[next++];
+                // null if booked after the snapshot
+                Reservation r = snapshot.getReservation(last);
+                if (r != null) return r;
+            }
+            return null;
+        }
+
+        @Override
+        String positionOfLast() {
+            return "i" + last;
+        }
+    }
+
+    // a day at a time through the start date range, live and archived merged by id; cursor "d<day>.<id>"
+    private final class ByStart extends QueryCursor<Reservation> {
+        private final long toDay;
+        private long nextDay;
+        private long afterId = Long.MIN_VALUE;
+        private long day;
+        private Iterator<Reservation> today = Collections.emptyIterator();
+        private Reservation last;
+
+        ByStart(Predicate<Reservation> filter) {
+            super(filter);
+            nextDay = from.toEpochDay();
+            toDay = to.toEpochDay();
+            String position = expect('d');
+            if (position != null) {
+                int dot = position.indexOf('.');
+                if (dot < 0) throw new IllegalArgumentException("Not a cursor of this query: '" + after + "'.");
+                long d = number(position.substring(0, dot), after);
+                if (d > nextDay) nextDay = d;
+                if (d == nextDay) afterId = number(position.substring(dot + 1), after);
+            }
+        }
+
+        @Override
+        Reservation advance() {
+            while (!today.hasNext()) {
+                if (!loadNextDay()) return null;
+            }
+            return last = today.next();
+        }
+
+        private boolean loadNextDay() {
+            if (nextDay > toDay) return false;
+            Iterator<Reservation> live = snapshot.liveByStart().valuesAfter(new StateSnapshot.StartKey(nextDay, Long.MIN_VALUE));
+            Reservation first = live.hasNext() ? live.next() : null;
+            long liveDay = first == null ? Long.MAX_VALUE : first.getRentalStartDate().toEpochDay();
+            long archivedDay = snapshot.archive().nextStartDay(nextDay);
+            day = Math.min(liveDay, archivedDay);
+            if (day > toDay) {
+                nextDay = day;
+                return false;
+            }
+            List<Reservation> merged = new ArrayList<>();
+            List<Reservation> archived = archivedDay == day
+                    ? snapshot.archive().startingOn(day, snapshot.getArchivedCount())
+                    : Collections.emptyList();
+            int a = 0;
+            for (Reservation r = liveDay == day ? first : null; r != null && r.getRentalStartDate().toEpochDay() == day;
+                 r = live.hasNext() ? live.next() : null) {
+                while (a < archived.size() && archived.get(a).getId() < r.getId()) add(merged, archived.get(a++));
+                add(merged, r);
+            }
+            while (a < archived.size()) add(merged, archived.get(a++));
+            today = merged.iterator();
+            nextDay = day + 1;
+            afterId = Long.MIN_VALUE;
+            return true;
+        }
+
+        private void add(List<Reservation> out, Reservation r) {
+            if (r.getId() > afterId) out.add(r);
+        }
+
+        @Override
+        String positionOfLast() {
+            return "d" + day + "." + last.getId();
+        }
+    }
+
+    // live by id, cursor "i<id>"; then archive rows in order, cursor "a<row>"
+    private final class Scan extends QueryCursor<Reservation> {
+        private static final int CHUNK = 1024;
+
+        private final int archivedRows;
+        private Iterator<Reservation> live;
+        private List<Reservation> chunk = Collections.emptyList();
+        private int chunkStart;
+        private int next;
+        private String lastPosition;
+
+        Scan(Predicate<Reservation> filter, long skip) {
+            super(filter);
+            archivedRows = statuses == null || statuses.stream().anyMatch(ARCHIVABLE::contains)
+                    ? snapshot.getArchivedCount() : 0;
+            PersistentSortedMap<Long, Reservation> byId = snapshot.liveById();
+            long liveStart;
+            long archiveStart;
+            if (after == null) {
+                liveStart = skip;
+                archiveStart = skip - byId.size();
+            } else if (after.startsWith("i")) {
+                liveStart = byId.rank(number(after.substring(1), after)) + skip;
+                archiveStart = liveStart - byId.size();
+            } else if (after.startsWith("a")) {
+                liveStart = Long.MAX_VALUE;
+                archiveStart = number(after.substring(1), after) + 1 + skip;
+            } else {
+                throw new IllegalArgumentException("Not a cursor of this query: '" + after + "'.");
+            }
+            live = liveStart < byId.size() ? byId.valuesFrom((int) liveStart) : Collections.emptyIterator();
+            chunkStart = (int) Math.min(Math.max(0, archiveStart), Integer.MAX_VALUE);
+        }
+
+        @Override
+        Reservation advance() {
+            if (live.hasNext()) {
+                Reservation r = live.next();
+                lastPosition = "i" + r.getId();
+                return r;
+            }
+            if (next == chunk.size()) {
+                chunkStart += chunk.size();
+                if (chunkStart >= archivedRows) return null;
+                chunk = snapshot.archive().rows(chunkStart, Math.min(chunkStart + CHUNK, archivedRows));
+                next = 0;
+                if (chunk.isEmpty()) return null;
+            }
+            lastPosition = "a" + (chunkStart + next);
+            return chunk.get(next++);
+        }
+
+        @Override
+        String positionOfLast() {
+            return lastPosition;
+        }
+    }
+}
@@ -3,5 +3,6 @@ package ecoride;
 public enum ReservationStatus {
     ACTIVE,
     CANCELLED,
-    COMPLETED
+    COMPLETED,
+    IN_PROGRESS // rental has started; new values go last, files store the ordinal
 }
@@ -0,0 +1,228 @@
+package ecoride;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Point-in-time binary snapshots of cars, customers and reservations.
+ *
+ * A snapshot records the journal position it was started at. It is taken
+ * while bookings carry on, so it may already contain some changes made after
+ * that position; replaying the journal from there is still correct because
+ * journal records are idempotent. Startup therefore loads the newest
+ * snapshot and replays only the journal tail after it.
+ *
+ * Layout (big-endian): magic, version, journal position, then dictionaries
+ * of category, availability and reservation status names, then the car,
+ * customer and reservation tables. Enums are stored as dictionary codes,
+ * dates as epoch-day ints, and each customer is stored once and referred to
+ * by index.
+ */
+public class SnapshotStore {
+    private static final int MAGIC = 0x45434F53; // "ECOS"
+    private static final int VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    private final Path dir;
+
+    public SnapshotStore(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Writes a snapshot, then drops older snapshots and the journal segments
+     * it makes redundant. Bookings are not blocked while it runs.
+     * Returns the journal position the snapshot covers.
+     */
+    public long take(ReservationManager manager, Journal journal) throws IOException {
+        long lsn = journal.position();
+        Path tmp = dir.resolve(PREFIX + lsn + SUFFIX + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+            write(out, lsn, manager);
+            out.flush();
+            ch.force(true); // the contents must be on disk before the rename can expose them
+        }
+        Path file = dir.resolve(String.format("%s%016d%s", PREFIX, lsn, SUFFIX));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(); // and the rename before the journal it replaces is dropped
+        for (Path old : snapshots()) {
+            if (!old.equals(file)) Files.deleteIfExists(old);
+        }
+        journal.truncateBefore(lsn);
+        return lsn;
+    }
+
+    private void syncDirectory() throws IOException {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException ex) {
+            // some platforms (Windows) cannot open a directory; the rename is as durable as they allow
+            if (Files.isDirectory(dir)) return;
+            throw ex;
+        }
+    }
+
+    private void write(DataOutputStream out, long lsn, ReservationManager manager) throws IOException {
+        CarInventory inventory = manager.getInventory();
+        List<Car> cars = new ArrayList<>(inventory.listAllCars());
+        Map<Car, Integer> carIndex = new IdentityHashMap<>();
+        for (Car c : cars) carIndex.put(c, carIndex.size());
+        List<Reservation> reservations = new ArrayList<>(manager.getAllReservations());
+        List<Customer> customers = new ArrayList<>();
+        Map<String, Integer> customerIndex = new HashMap<>();
+        for (Reservation r : reservations) {
+            // reservations may point at cars removed from the fleet; keep those too
+            if (!carIndex.containsKey(r.getCar())) {
+                carIndex.put(r.getCar(), cars.size());
+                cars.add(r.getCar());
+            }
+            if (!customerIndex.containsKey(r.getCustomer().getIdDocument())) {
+                customerIndex.put(r.getCustomer().getIdDocument(), customers.size());
+                customers.add(r.getCustomer());
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(lsn);
+        writeNames(out, Category.values());
+        writeNames(out, AvailabilityStatus.values());
+        writeNames(out, ReservationStatus.values());
+
+        out.writeInt(cars.size());
+        for (int i = 0; i < cars.size(); i++) {
+            Car c = cars.get(i);
+            writeString(out, c.getCarId());
+            writeString(out, c.getModel());
+            out.writeByte(c.getCategory().ordinal());
+            out.writeByte(c.getAvailabilityStatus().ordinal());
+            out.writeBoolean(inventory.getCar(c.getCarId()) == c);
+        }
+
+        out.writeInt(customers.size());
+        for (Customer c : customers) {
+            writeString(out, c.getIdDocument());
+            writeString(out, c.getName());
+            writeString(out, c.getContactNumber());
+            writeString(out, c.getEmail());
+        }
+
+        out.writeInt(reservations.size());
+        for (Reservation r : reservations) {
+            writeString(out, r.getReservationId());
+            out.writeInt(customerIndex.get(r.getCustomer().getIdDocument()));
+            out.writeInt(carIndex.get(r.getCar()));
+            out.writeInt((int) r.getBookingDate().toEpochDay());
+            out.writeInt((int) r.getRentalStartDate().toEpochDay());
+            out.writeInt(r.getNumDays());
+            out.writeInt(r.getExpectedTotalKm());
+            out.writeByte(r.getStatus().ordinal());
+        }
+    }
+
+    /**
+     * Loads the newest snapshot, if any, into empty inventory and manager.
+     * Returns the journal position to replay from (0 without a snapshot).
+     */
+    public long loadLatest(ReservationManager manager) throws IOException {
+        List<Path> all = snapshots();
+        if (all.isEmpty()) return 0;
+        Path file = all.get(all.size() - 1);
+        MappedByteBuffer b;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+            throw new IOException("Not a supported snapshot: " + file);
+        }
+        long lsn = b.getLong();
+        Category[] categories = readNames(b, Category.class);
+        AvailabilityStatus[] statuses = readNames(b, AvailabilityStatus.class);
+        ReservationStatus[] resStatuses = readNames(b, ReservationStatus.class);
+
+        CarInventory inventory = manager.getInventory();
+        Car[] cars = new Car[b.getInt()];
+        for (int i = 0; i < cars.length; i++) {
+            Car c = new Car(readString(b), readString(b), categories[b.get()]);
+            c.setAvailability(statuses[b.get()]);
+            if (b.get() != 0) inventory.addCar(c);
+            cars[i] = c;
+        }
+
+        Customer[] customers = new Customer[b.getInt()];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = new Customer(readString(b), readString(b), readString(b), readString(b));
+        }
+
+        int count = b.getInt();
+        for (int i = 0; i < count; i++) {
+            String id = readString(b);
+            Customer customer = customers[b.getInt()];
+            Car car = cars[b.getInt()];
+            LocalDate booked = LocalDate.ofEpochDay(b.getInt());
+            LocalDate start = LocalDate.ofEpochDay(b.getInt());
+            int days = b.getInt();
+            int km = b.getInt();
+            manager.restore(id, customer, car, booked, start, days, km, resStatuses[b.get()]);
+        }
+        return lsn;
+    }
+
+    private List<Path> snapshots() throws IOException {
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path f : files) out.add(f);
+        }
+        Collections.sort(out); // zero-padded positions sort by name
+        return out;
+    }
+
+    private static void writeNames(DataOutputStream out, Enum<?>[] values) throws IOException {
+        out.writeByte(values.length);
+        for (Enum<?> v : values) writeString(out, v.name());
+    }
+
+    // maps the codes used in the file to this build's enum constants
+    private static <E extends Enum<E>> E[] readNames(MappedByteBuffer b, Class<E> type) {
+        int n = b.get();
+        @SuppressWarnings("unchecked")
+        E[] out = (E[]) java.lang.reflect.Array.newInstance(type, n);
+        for (int i = 0; i < n; i++) out[i] = Enum.valueOf(type, readString(b));
+        return out;
+    }
+
+    // a null string is written as length -1, as in the journal
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer b) {
+        int len = b.getInt();
+        if (len < 0) return null;
+        byte[] bytes = new byte[len];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,230 @@
+package ecoride;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A consistent point-in-time view of the fleet and every reservation, from
+ * ReservationManager.snapshot(). Taking one folds in the changes made since
+ * the last one, and the view never changes afterwards, however long it is
+ * held, so reports can run against it while bookings carry on.
+ *
+ * Cars and reservations in it are detached copies; treat them as
+ * read-only. A reservation's car is that car as of the reservation's last
+ * change; getCar has it as of this snapshot. Archived reservations are the
+ * archive rows that existed when the snapshot was taken.
+ */
+public final class StateSnapshot {
+    private final long version;
+    private final PersistentSortedMap<String, Car> cars;
+    private final PersistentSortedMap<Long, Reservation> reservations;
+    // the same reservations by start date, then id
+    private final PersistentSortedMap<StartKey, Reservation> byStart;
+    private final ReservationArchive archive;
+    private final int archivedRows;
+
+    private StateSnapshot(long version, PersistentSortedMap<String, Car> cars,
+                          PersistentSortedMap<Long, Reservation> reservations,
+                          PersistentSortedMap<StartKey, Reservation> byStart, ReservationArchive archive, int archivedRows) {
+        this.version = version;
+        this.cars = cars;
+        this.reservations = reservations;
+        this.byStart = byStart;
+        this.archive = archive;
+        this.archivedRows = archivedRows;
+    }
+
+    static StateSnapshot empty(ReservationArchive archive) {
+        return new StateSnapshot(0, PersistentSortedMap.empty(), PersistentSortedMap.empty(),
+                PersistentSortedMap.empty(), archive, archive.size());
+    }
+
+    /** Goes up by at least one with every change; equal versions hold equal state. */
+    public long getVersion() {
+        return version;
+    }
+
+    public Car getCar(String carId) {
+        return cars.get(carId);
+    }
+
+    /** The cars in the fleet, by car id. */
+    public Collection<Car> getCars() {
+        return view(cars, Collections.emptyList(), cars.size());
+    }
+
+    /** A live or archived reservation, or null. */
+    public Reservation getReservation(long id) {
+        Reservation r = reservations.get(id);
+        return r != null ? r : archive.get(id, archivedRows);
+    }
+
+    /**
+     * Reservations not yet archived, by id, then archived ones in archive
+     * order; the archived ones are read from the archive in chunks.
+     */
+    public Collection<Reservation> getReservations() {
+        return view(reservations, new Iterable<Reservation>() {
+            @Override
+            public Iterator<Reservation> iterator() {
+                return new ArchiveRows(archive, archivedRows);
+            }
+        }, reservations.size() + archivedRows);
+    }
+
+    /** Reservations that can still change, by id. */
+    public Collection<Reservation> getLiveReservations() {
+        return view(reservations, Collections.emptyList(), reservations.size());
+    }
+
+    public int getArchivedCount() {
+        return archivedRows;
+    }
+
+    /** Cars matching filters, in pages or as a stream; see CarQuery. */
+    public CarQuery queryCars() {
+        return new CarQuery(this);
+    }
+
+    // ---- for the queries ----
+
+    PersistentSortedMap<String, Car> cars() {
+        return cars;
+    }
+
+    PersistentSortedMap<Long, Reservation> liveById() {
+        return reservations;
+    }
+
+    PersistentSortedMap<StartKey, Reservation> liveByStart() {
+        return byStart;
+    }
+
+    ReservationArchive archive() {
+        return archive;
+    }
+
+    int archivedRows() {
+        return archivedRows;
+    }
+
+    // ---- new versions, built by StateVersions ----
+
+    StateSnapshot withCar(Car copy) {
+        return new StateSnapshot(version + 1, cars.plus(copy.getCarId(), copy), reservations, byStart, archive,
+                archivedRows);
+    }
+
+    StateSnapshot withoutCar(String carId) {
+        PersistentSortedMap<String, Car> next = cars.minus(carId);
+        return next == cars ? this : new StateSnapshot(version + 1, next, reservations, byStart, archive, archivedRows);
+    }
+
+    StateSnapshot withReservation(Reservation copy) {
+        return new StateSnapshot(version + 1, cars, reservations.plus(copy.getId(), copy),
+                byStart.plus(new StartKey(copy), copy), archive, archivedRows);
+    }
+
+    // the batch has been appended to the archive, which now has rows rows
+    StateSnapshot withArchived(List<Reservation> batch, int rows) {
+        PersistentSortedMap<Long, Reservation> next = reservations;
+        PersistentSortedMap<StartKey, Reservation> nextByStart = byStart;
+        for (Reservation r : batch) {
+            next = next.minus(r.getId());
+            nextByStart = nextByStart.minus(new StartKey(r));
+        }
+        return new StateSnapshot(version + 1, cars, next, nextByStart, archive, rows);
+    }
+
+    // start epoch day, then id
+    static final class StartKey implements Comparable<StartKey> {
+        final long day;
+        final long id;
+
+        StartKey(long day, long id) {
+            this.day = day;
+            this.id = id;
+        }
+
+        StartKey(Reservation r) {
+            this(r.getRentalStartDate().toEpochDay(), r.getId());
+        }
+
+        @Override
+        public int compareTo(StartKey o) {
+            int c = Long.compare(day, o.day);
+            return c != 0 ? c : Long.compare(id, o.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StartKey && ((StartKey) o).day == day && ((StartKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(day * 31 + id);
+        }
+    }
+
+    private static <T> Collection<T> view(Iterable<T> first, Iterable<T> then, int size) {
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                Iterator<T> a = first.iterator();
+                Iterator<T> b = then.iterator();
+                return new Iterator<T>() {
+                    @Override
+                    public boolean hasNext() {
+                        return a.hasNext() || b.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        return a.hasNext() ? a.next() : b.next();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static final class ArchiveRows implements Iterator<Reservation> {
+        private static final int CHUNK = 1024;
+
+        private final ReservationArchive archive;
+        private final int rows;
+        private List<Reservation> chunk = Collections.emptyList();
+        private int row;
+        private int next;
+
+        ArchiveRows(ReservationArchive archive, int rows) {
+            this.archive = archive;
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < chunk.size() || row < rows;
+        }
+
+        @Override
+        public Reservation next() {
+            if (next == chunk.size()) {
+                if (row >= rows) throw new NoSuchElementException();
+                chunk = archive.rows(row, Math.min(row + CHUNK, rows));
+                row += chunk.size();
+                next = 0;
+            }
+            return chunk.get(next++);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package ecoride;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the current StateSnapshot, folding in car and reservation changes.
+ *
+ * Writers do not build versions. A change is pushed onto one of STRIPES
+ * change logs, picked by the id of the car or reservation it is about, so
+ * changes to one object stay in order and unrelated ones rarely share a
+ * log. current() folds the logged changes into the last version, each one
+ * costing a copy of the changed object and O(log n) new map nodes.
+ *
+ * Logs are cut by epoch: a writer logs under the epoch it reads, and a fold
+ * opens the next epoch and waits for writers still logging under the old
+ * one before taking their logs. So a snapshot holds every change that was
+ * logged before current() was called, and anything that happened before
+ * those. Writers never wait for a fold; once a log holds FOLD_AT changes,
+ * the writer that filled it folds, unless a fold is already running.
+ */
+class StateVersions implements ChangeListener {
+    private static final int STRIPES = 16; // a power of two
+    private static final int FOLD_AT = 1024;
+
+    // a logged change: a car id, a reservation copy, or an archived batch
+    private static final class Change {
+        final String carId;
+        final Reservation reservation;
+        final List<Reservation> batch;
+        final int rows;
+        Change next; // the change logged before this one, until a fold reverses the log
+        int depth;
+
+        Change(String carId, Reservation reservation, List<Reservation> batch, int rows) {
+            this.carId = carId;
+            this.reservation = reservation;
+            this.batch = batch;
+            this.rows = rows;
+        }
+    }
+
+    // the logs and writer counts of the two epochs that can be open, by epoch parity
+    private static final class Stripe {
+        final AtomicReferenceArray<Change> logs = new AtomicReferenceArray<>(2);
+        final AtomicIntegerArray writers = new AtomicIntegerArray(2);
+    }
+
+    private final CarInventory inventory;
+    private final ReservationArchive archive;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final ReentrantLock folding = new ReentrantLock();
+    private volatile long epoch;
+    // replaced under folding
+    private volatile StateSnapshot current;
+
+    StateVersions(CarInventory inventory, ReservationArchive archive) {
+        this.inventory = inventory;
+        this.archive = archive;
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+        StateSnapshot s = StateSnapshot.empty(archive);
+        for (Car c : inventory.listAllCars()) s = s.withCar(new Car(c));
+        this.current = s;
+    }
+
+    StateSnapshot current() {
+        folding.lock();
+        try {
+            fold();
+            return current;
+        } finally {
+            folding.unlock();
+        }
+    }
+
+    // reservation callbacks run under the reservation's lock, so its fields hold still
+    void reservationChanged(Reservation r) {
+        log(Long.hashCode(r.getId()), new Change(null, r.copyOn(r.getCar()), null, 0));
+    }
+
+    // all batches go to one log, so they fold in archive order
+    void archived(List<Reservation> batch, int rows) {
+        log(0, new Change(null, null, batch, rows));
+    }
+
+    // the car is read afresh when folded, so the latest change wins
+    private void carChanged(String carId) {
+        log(carId.hashCode(), new Change(carId, null, null, 0));
+    }
+
+    private void log(int key, Change change) {
+        Stripe stripe = stripes[(key ^ key >>> 16) & (STRIPES - 1)];
+        while (true) {
+            long e = epoch;
+            int slot = (int) e & 1;
+            stripe.writers.incrementAndGet(slot);
+            if (epoch != e) {
+                // a fold opened the next epoch meanwhile
+                stripe.writers.decrementAndGet(slot);
+                continue;
+            }
+            Change head;
+            do {
+                head = stripe.logs.get(slot);
+                change.next = head;
+                change.depth = head == null ? 1 : head.depth + 1;
+            } while (!stripe.logs.compareAndSet(slot, head, change));
+            stripe.writers.decrementAndGet(slot);
+            break;
+        }
+        if (change.depth >= FOLD_AT && folding.tryLock()) {
+            try {
+                fold();
+            } finally {
+                folding.unlock();
+            }
+        }
+    }
+
+    // with folding held
+    private void fold() {
+        long e = epoch;
+        epoch = e + 1;
+        int slot = (int) e & 1;
+        StateSnapshot s = current;
+        for (Stripe stripe : stripes) {
+            while (stripe.writers.get(slot) != 0) Thread.yield();
+            Change log = stripe.logs.getAndSet(slot, null);
+            // the log is newest first
+            Change oldest = null;
+            while (log != null) {
+                Change next = log.next;
+                log.next = oldest;
+                oldest = log;
+                log = next;
+            }
+            for (Change c = oldest; c != null; c = c.next) s = apply(s, c);
+        }
+        current = s;
+    }
+
+    private StateSnapshot apply(StateSnapshot s, Change c) {
+        if (c.batch != null) return s.withArchived(c.batch, c.rows);
+        if (c.carId != null) {
+            Car car = inventory.getCar(c.carId);
+            return car == null ? s.withoutCar(c.carId) : s.withCar(new Car(car));
+        }
+        Reservation r = c.reservation;
+        // archived rows are final, and the batch may fold before older changes from other logs
+        if (archive.contains(r.getId(), s.archivedRows())) return s;
+        Car car = s.getCar(r.getCar().getCarId());
+        if (car == null || car.getCategory() != r.getCar().getCategory()) car = new Car(r.getCar());
+        return s.withReservation(r.copyOn(car));
+    }
+
+    @Override public void carAdded(Car car) { carChanged(car.getCarId()); }
+    @Override public void carUpdated(Car car) { carChanged(car.getCarId()); }
+    @Override public void carRemoved(Car car) { carChanged(car.getCarId()); }
+    @Override public void carStatusChanged(Car car, AvailabilityStatus oldStatus) { carChanged(car.getCarId()); }
+
+    @Override public void reservationCreated(Reservation r) { reservationChanged(r); }
+    @Override public void reservationUpdated(Reservation r, int oldDays, int oldExpectedKm) { reservationChanged(r); }
+    @Override public void reservationCancelled(Reservation r) { reservationChanged(r); }
+    @Override public void reservationStarted(Reservation r) { reservationChanged(r); }
+    @Override public void reservationReassigned(Reservation r, Car oldCar) { reservationChanged(r); }
+    @Override public void reservationCompleted(Reservation r) { reservationChanged(r); }
+}
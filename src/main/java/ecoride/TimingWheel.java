@@ -0,0 +1,122 @@
+package ecoride;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel over integer ticks. Scheduling is O(1); every
+ * entry is moved down a level at most LEVELS times before it fires, so
+ * advancing costs O(1) per entry plus O(1) per tick, however many entries
+ * are pending. Not thread-safe; callers serialize access.
+ *
+ * Level l has 64 slots, each covering 64^l ticks. An entry goes on the
+ * highest level at which its deadline differs from the current tick, and is
+ * re-placed when the wheel reaches the start of its slot. Deadlines beyond
+ * the top level wait in an overflow list that is re-placed each time the top
+ * level wraps.
+ */
+final class TimingWheel<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 4;
+
+    private static final class Node<T> {
+        final long deadline;
+        final T value;
+        Node<T> next;
+
+        Node(long deadline, T value) {
+            this.deadline = deadline;
+            this.value = value;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Node<T>[][] slots = new Node[LEVELS][SLOTS];
+    private Node<T> overflow;
+    private Node<T> due; // deadline already reached, fires on the next advance
+    private long current;
+    private int size;
+
+    TimingWheel(long startTick) {
+        this.current = startTick;
+    }
+
+    long currentTick() {
+        return current;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void schedule(long deadline, T value) {
+        place(new Node<>(deadline, value));
+        size++;
+    }
+
+    /**
+     * Moves the wheel forward to tick, one tick at a time, handing every
+     * entry whose deadline has been reached to fire.
+     */
+    void advanceTo(long tick, Consumer<T> fire) {
+        fireDue(fire);
+        while (current < tick) {
+            current++;
+            for (int level = LEVELS - 1; level >= 1; level--) {
+                long span = 1L << (level * BITS);
+                if ((current & (span - 1)) != 0) continue;
+                if (level == LEVELS - 1 && (current & ((span << BITS) - 1)) == 0) {
+                    Node<T> list = overflow;
+                    overflow = null;
+                    replace(list);
+                }
+                int slot = (int) ((current >>> (level * BITS)) & (SLOTS - 1));
+                Node<T> list = slots[level][slot];
+                slots[level][slot] = null;
+                replace(list);
+            }
+            int slot = (int) (current & (SLOTS - 1));
+            Node<T> list = slots[0][slot];
+            slots[0][slot] = null;
+            replace(list);
+            fireDue(fire);
+        }
+    }
+
+    private void place(Node<T> n) {
+        long diff = n.deadline ^ current;
+        if (n.deadline <= current) {
+            n.next = due;
+            due = n;
+            return;
+        }
+        int level = (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+        if (level >= LEVELS) {
+            n.next = overflow;
+            overflow = n;
+            return;
+        }
+        int slot = (int) ((n.deadline >>> (level * BITS)) & (SLOTS - 1));
+        n.next = slots[level][slot];
+        slots[level][slot] = n;
+    }
+
+    private void replace(Node<T> list) {
+        while (list != null) {
+            Node<T> next = list.next;
+            place(list);
+            list = next;
+        }
+    }
+
+    private void fireDue(Consumer<T> fire) {
+        while (due != null) {
+            Node<T> list = due;
+            due = null;
+            for (; list != null; list = list.next) {
+                size--;
+                fire.accept(list.value);
+            }
+        }
+    }
+}
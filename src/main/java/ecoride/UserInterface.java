@@ -3,7 +3,6 @@ package ecoride;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -11,13 +10,23 @@ import java.util.Scanner;
  * Use this for demo and screenshots in your report.
  */
 public class UserInterface {
-    private final CarInventory inventory = new CarInventory();
-    private final PricingPolicy pricing = new PricingPolicy();
-    private final ReservationManager manager = new ReservationManager(inventory, pricing);
+    private static final int LIST_PAGE = 20;
+
+    private final CarInventory inventory;
+    private final ReservationManager manager;
     private final Scanner sc = new Scanner(System.in);
 
+    public UserInterface() {
+        this(new ReservationManager(new CarInventory(), new PricingPolicy()));
+    }
+
+    public UserInterface(ReservationManager manager) {
+        this.manager = manager;
+        this.inventory = manager.getInventory();
+    }
+
     public void run() {
-        seedSampleData();
+        if (inventory.isEmpty()) seedSampleData();
         printWelcome();
         while (true) {
             printMenu();
@@ -31,6 +40,7 @@ public class UserInterface {
                     case "5": searchReservation(); break;
                     case "6": generateInvoice(); break;
                     case "7": updateReservation(); break;
+                    case "8": System.out.println(manager.getMetrics().dump()); break;
                     case "0": System.out.println("Goodbye."); sc.close(); return;
                     default: System.out.println("Invalid option."); break;
                 }
@@ -55,6 +65,7 @@ public class UserInterface {
         System.out.println("5. Search Reservations by Name");
         System.out.println("6. Generate Invoice (by Reservation ID)");
         System.out.println("7. Update Reservation (within 2 days of booking)");
+        System.out.println("8. Show Operation Metrics");
         System.out.println("0. Exit");
         System.out.print("Select option: ");
     }
@@ -88,19 +99,28 @@ public class UserInterface {
         }
     }
 
+    // a page at a time, so a large fleet starts printing at once
     private void listCars() {
         System.out.println("\nInventory:");
-        for (Car c : inventory.listAllCars()) {
-            System.out.println(c);
+        CarQuery query = manager.queryCars().limit(LIST_PAGE);
+        while (true) {
+            Page<Car> page = query.page();
+            for (Car c : page.getItems()) System.out.println(c);
+            if (!page.hasMore()) return;
+            System.out.print("-- Enter for more, q to stop: ");
+            if (sc.nextLine().trim().equalsIgnoreCase("q")) return;
+            query = manager.queryCars().limit(LIST_PAGE).after(page.getNextCursor());
         }
     }
 
     private void registerAndBook() {
         System.out.println("\n--- Register Customer & Book ---");
         System.out.print("NIC/Passport: "); String idDoc = sc.nextLine().trim();
-        System.out.print("Full name: "); String name = sc.nextLine().trim();
-        System.out.print("Contact number: "); String phone = sc.nextLine().trim();
-        System.out.print("Email: "); String email = sc.nextLine().trim();
+        Customer known = manager.getCustomerRegistry().find(idDoc);
+        if (known != null) System.out.println("Returning customer " + known.getName() + "; press Enter to keep a detail.");
+        System.out.print("Full name: "); String name = keep(sc.nextLine().trim(), known == null ? null : known.getName());
+        System.out.print("Contact number: "); String phone = keep(sc.nextLine().trim(), known == null ? null : known.getContactNumber());
+        System.out.print("Email: "); String email = keep(sc.nextLine().trim(), known == null ? null : known.getEmail());
         Customer customer = new Customer(idDoc, name, phone, email);
 
         System.out.println("Choose Category: 1-Compact Petrol,2-Hybrid,3-Electric,4-Luxury SUV");
@@ -146,6 +166,10 @@ public class UserInterface {
         else System.out.println("Unable to update (either not found or update window expired).");
     }
 
+    private static String keep(String entered, String known) {
+        return entered.isEmpty() && known != null ? known : entered;
+    }
+
     private void searchReservation() {
         System.out.print("Enter customer name to search: ");
         String name = sc.nextLine().trim();
@@ -166,10 +190,12 @@ public class UserInterface {
             System.out.println("Reservation not found.");
             return;
         }
-        Map<String, Double> details = manager.calculateInvoiceDetails(r);
-        Invoice inv = new Invoice("INV-" + id.substring(0, Math.min(6, id.length())), r);
-        inv.setAmounts(details.get("base"), details.get("extraCharge"), details.get("discount"),
-                details.get("tax"), details.get("deposit"), details.get("payable"));
-        System.out.println("\n" + inv.formatForPrint());
+        long t0 = System.nanoTime();
+        PriceBreakdown details = manager.calculateInvoiceDetails(r, new PriceBreakdown());
+        Invoice inv = manager.newInvoice(r);
+        inv.setAmounts(details);
+        String text = inv.formatForPrint();
+        manager.getMetrics().recordInvoice(t0);
+        System.out.println("\n" + text);
     }
 }
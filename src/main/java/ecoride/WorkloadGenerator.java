@@ -0,0 +1,119 @@
+package ecoride;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Seeded synthetic workload in the CommandReplayer format: first a fleet of
+ * addCar lines, then a mix of bookings, cancellations, updates, searches and
+ * invoices over a booking horizon. The same seed always gives the same log.
+ */
+public class WorkloadGenerator {
+    private int fleetSize = 1000;
+    private int customers = 10_000;
+    private long operations = 100_000;
+    private int horizonDays = 365;
+    private long seed = 42;
+    // mix in percent: book, cancel, update, search; invoice gets the rest
+    private int bookPct = 50;
+    private int cancelPct = 10;
+    private int updatePct = 10;
+    private int searchPct = 25;
+
+    public WorkloadGenerator fleetSize(int n) { this.fleetSize = n; return this; }
+    public WorkloadGenerator customers(int n) { this.customers = n; return this; }
+    public WorkloadGenerator operations(long n) { this.operations = n; return this; }
+    public WorkloadGenerator horizonDays(int n) { this.horizonDays = n; return this; }
+    public WorkloadGenerator seed(long s) { this.seed = s; return this; }
+
+    public WorkloadGenerator mix(int bookPct, int cancelPct, int updatePct, int searchPct) {
+        if (bookPct + cancelPct + updatePct + searchPct > 100) {
+            throw new IllegalArgumentException("Workload mix adds up to more than 100%.");
+        }
+        this.bookPct = bookPct;
+        this.cancelPct = cancelPct;
+        this.updatePct = updatePct;
+        this.searchPct = searchPct;
+        return this;
+    }
+
+    /**
+     * The generated command lines, produced lazily.
+     */
+    public Iterator<String> lines() {
+        return new Iterator<String>() {
+            private final Random rnd = new Random(seed);
+            private final Category[] categories = Category.values();
+            private final LocalDate firstDay = LocalDate.now().plusDays(3);
+            private long emitted;
+            private long booked;
+
+            @Override
+            public boolean hasNext() {
+                return emitted < fleetSize + operations;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                long i = emitted++;
+                if (i < fleetSize) {
+                    return String.format("addCar,G%07d,Model %d,%s", i, i % 40, categories[(int) (i % categories.length)]);
+                }
+                int roll = rnd.nextInt(100);
+                if (roll < bookPct || booked == 0) return book();
+                roll -= bookPct;
+                if (roll < cancelPct) return "cancel,b" + pastBooking();
+                roll -= cancelPct;
+                if (roll < updatePct) return "update,b" + pastBooking() + "," + (1 + rnd.nextInt(14)) + "," + km();
+                roll -= updatePct;
+                if (roll < searchPct) return "search," + customerName(rnd.nextInt(customers));
+                return "invoice,b" + pastBooking();
+            }
+
+            private String book() {
+                int c = rnd.nextInt(customers);
+                long ref = booked++;
+                return String.format("book,G%d,%s,07%08d,c%d@example.com,%s,%s,%d,%d,b%d",
+                        c, customerName(c), c, c, categories[rnd.nextInt(categories.length)],
+                        firstDay.plusDays(rnd.nextInt(horizonDays)), 1 + skewedDays(), km(), ref);
+            }
+
+            // most rentals are short, a few run for weeks
+            private int skewedDays() {
+                int d = (int) Math.abs(rnd.nextGaussian() * 4);
+                return Math.min(d, 30);
+            }
+
+            private int km() {
+                return 50 + rnd.nextInt(1500);
+            }
+
+            // recent bookings are touched more often than old ones
+            private long pastBooking() {
+                long back = (long) Math.abs(rnd.nextGaussian() * Math.min(booked, 1000));
+                return Math.max(0, booked - 1 - back);
+            }
+        };
+    }
+
+    private static String customerName(int c) {
+        return "Customer " + c;
+    }
+
+    public void writeTo(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Iterator<String> it = lines(); it.hasNext(); ) {
+                out.write(it.next());
+                out.newLine();
+            }
+        }
+    }
+}
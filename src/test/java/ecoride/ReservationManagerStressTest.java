@@ -0,0 +1,159 @@
+package ecoride;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Concurrency checks for ReservationManager and CarInventory. Worker
+ * threads create, cancel and update reservations while others move cars
+ * between categories and statuses in both directions, which is where the
+ * category locks can deadlock or the buckets and gap indexes get out of step.
+ */
+class ReservationManagerStressTest {
+    private static final int THREADS = 16;
+    private static final int SECONDS = 3;
+    private static final int FLEET_SIZE = 200;
+
+    private final Category[] categories = Category.values();
+    private final AvailabilityStatus[] statuses = AvailabilityStatus.values();
+    private CarInventory inventory;
+    private ReservationManager manager;
+    private final LongAdder booked = new LongAdder();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        inventory = new CarInventory();
+        for (int i = 0; i < FLEET_SIZE; i++) {
+            inventory.addCar(new Car(carId(i), "Stress Car", categories[i % categories.length]));
+        }
+        manager = new ReservationManager(inventory, new PricingPolicy());
+        run();
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.getLifecycle().close();
+        manager.getEvents().close();
+    }
+
+    @Test
+    void noCarIsBookedTwiceForAnyDay() {
+        Map<String, Set<Long>> daysByCar = new HashMap<>();
+        for (Reservation r : manager.getAllReservations()) {
+            if (!r.holdsCar()) continue;
+            Set<Long> days = daysByCar.computeIfAbsent(r.getCar().getCarId(), k -> new HashSet<>());
+            long start = r.getRentalStartDate().toEpochDay();
+            for (long d = start; d < start + r.getNumDays(); d++) {
+                assertTrue(days.add(d), "day " + LocalDate.ofEpochDay(d) + " booked twice on " + r.getCar().getCarId());
+            }
+        }
+    }
+
+    @Test
+    void reservationIdsAreUnique() {
+        Set<String> ids = new HashSet<>();
+        Set<Long> numbers = new HashSet<>();
+        Collection<Reservation> all = manager.getAllReservations();
+        for (Reservation r : all) {
+            assertTrue(ids.add(r.getReservationId()), "duplicate id " + r.getReservationId());
+            assertTrue(numbers.add(r.getId()), "duplicate number " + r.getId());
+        }
+        assertEquals(booked.sum(), all.size());
+    }
+
+    @Test
+    void everyCarIsIndexedUnderItsCategoryAndStatus() {
+        for (Category c : categories) {
+            for (AvailabilityStatus s : statuses) {
+                int expected = 0;
+                for (Car car : inventory.listAllCars()) {
+                    if (car.getCategory() == c && car.getAvailabilityStatus() == s) expected++;
+                }
+                assertEquals(expected, inventory.count(c, s), c + "/" + s + " bucket");
+            }
+            for (Car car : inventory.listInService(c)) assertEquals(c, car.getCategory(), car.getCarId());
+        }
+    }
+
+    @Test
+    void freeCarLookupsMatchTheCalendars() {
+        LocalDate firstDay = manager.today().plusDays(3);
+        for (Category c : categories) {
+            for (int offset = 0; offset < 90; offset += 7) {
+                LocalDate start = firstDay.plusDays(offset);
+                Set<Car> expected = new HashSet<>();
+                for (Car car : inventory.listInService(c)) {
+                    if (car.getCalendar().isFree(start, 3)) expected.add(car);
+                }
+                assertEquals(expected, new HashSet<>(inventory.listFreeByCategory(c, start, 3)), c + " from " + start);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        LocalDate firstDay = manager.today().plusDays(3);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> running = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int worker = t;
+            running.add(pool.submit(() -> {
+                Random rnd = new Random(worker);
+                while (System.nanoTime() < deadline) {
+                    if (worker % 4 == 3) {
+                        // car changes, pulling cars both ways between categories
+                        Car car = inventory.getCar(carId(rnd.nextInt(FLEET_SIZE)));
+                        if (rnd.nextBoolean()) car.setCategory(categories[rnd.nextInt(categories.length)]);
+                        else car.setAvailability(statuses[rnd.nextInt(statuses.length)]);
+                        continue;
+                    }
+                    try {
+                        String id = manager.createReservation(new Customer("ST" + rnd.nextInt(1000), "Stress Customer",
+                                        "0700000000", "stress@example.com"), categories[rnd.nextInt(categories.length)],
+                                firstDay.plusDays(rnd.nextInt(90)), 1 + rnd.nextInt(7), 100);
+                        booked.increment();
+                        int op = rnd.nextInt(3);
+                        if (op == 0) manager.cancelReservation(id);
+                        if (op == 1) manager.updateReservation(id, 1 + rnd.nextInt(7), 50);
+                    } catch (IllegalArgumentException noCar) {
+                        // expected once the fleet fills up
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> f : running) f.get(SECONDS + 30L, TimeUnit.SECONDS);
+        } catch (TimeoutException stuck) {
+            long[] deadlocked = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+            fail(deadlocked == null ? "workers did not finish" : "deadlock between " + deadlocked.length + " threads");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String carId(int i) {
+        return String.format("S%05d", i);
+    }
+}